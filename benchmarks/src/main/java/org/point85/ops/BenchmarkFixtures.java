@@ -0,0 +1,68 @@
+package org.point85.ops;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.point85.domain.plant.Equipment;
+import org.point85.domain.plant.Reason;
+import org.point85.domain.schedule.Rotation;
+import org.point85.domain.schedule.Shift;
+import org.point85.domain.schedule.WorkSchedule;
+
+// in-memory stand-ins for the entities normally loaded by PersistenceService
+final class BenchmarkFixtures {
+
+	private BenchmarkFixtures() {
+		// static factories only
+	}
+
+	static Equipment createEquipment(long key, WorkSchedule schedule) {
+		Equipment equipment = new Equipment(null, "EQ-" + key, "Benchmark equipment " + key);
+		equipment.setKey(key);
+		equipment.setWorkSchedule(schedule);
+		return equipment;
+	}
+
+	// two twelve hour shifts and four teams on a 4 day rotation
+	static WorkSchedule createWorkSchedule() throws Exception {
+		WorkSchedule schedule = new WorkSchedule("Benchmark", "Day/night benchmark schedule");
+		schedule.setKey(1L);
+
+		Shift day = schedule.createShift("Day", "Day shift", LocalTime.of(7, 0), Duration.ofHours(12));
+		Shift night = schedule.createShift("Night", "Night shift", LocalTime.of(19, 0), Duration.ofHours(12));
+
+		Rotation rotation = schedule.createRotation("DN", "2 days, 2 nights, 4 off");
+		rotation.addSegment(day, 2, 0);
+		rotation.addSegment(night, 2, 4);
+
+		LocalDate reference = LocalDate.now().minusDays(30);
+		for (int i = 0; i < 4; i++) {
+			schedule.createTeam("Team " + (i + 1), "Team " + (i + 1), rotation, reference.plusDays(i * 2));
+		}
+		return schedule;
+	}
+
+	static List<Reason> createReasons(int count) {
+		List<Reason> reasons = new ArrayList<>(count);
+
+		for (int i = 0; i < count; i++) {
+			Reason reason = new Reason("R" + i, "Benchmark reason " + i);
+			reason.setKey((long) i + 1);
+			reasons.add(reason);
+		}
+		return reasons;
+	}
+
+	static PrefixIndex<String> createMaterialIndex(int count) {
+		PrefixIndex.Builder<String> builder = PrefixIndex.builder();
+
+		for (int i = 0; i < count; i++) {
+			String name = String.format("SKU-%06d", i);
+			builder.add(name, name).add("Benchmark material " + i, name);
+		}
+		return builder.build();
+	}
+}
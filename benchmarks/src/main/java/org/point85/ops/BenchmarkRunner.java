@@ -0,0 +1,43 @@
+package org.point85.ops;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// runs the benchmarks and writes JSON results to the current folder:
+// jmh-single.json for the single threaded benchmarks and
+// jmh-recording-<threads>.json for recording at 1 to 64 threads
+public final class BenchmarkRunner {
+	private static final int[] THREADS = { 1, 2, 4, 8, 16, 32, 64 };
+
+	private BenchmarkRunner() {
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		Options single = new OptionsBuilder()
+				.include(EventConstructionBenchmark.class.getSimpleName())
+				.include(ResolutionBenchmark.class.getSimpleName())
+				.forks(1)
+				.warmupIterations(3)
+				.measurementIterations(5)
+				.resultFormat(ResultFormatType.JSON)
+				.result("jmh-single.json")
+				.build();
+		new Runner(single).run();
+
+		for (int threads : THREADS) {
+			Options recording = new OptionsBuilder()
+					.include(RecordingBenchmark.class.getSimpleName())
+					.threads(threads)
+					.forks(1)
+					.warmupIterations(3)
+					.measurementIterations(5)
+					.resultFormat(ResultFormatType.JSON)
+					.result("jmh-recording-" + threads + ".json")
+					.build();
+			new Runner(recording).run();
+		}
+	}
+}
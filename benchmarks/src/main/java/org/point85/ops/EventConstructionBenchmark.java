@@ -0,0 +1,68 @@
+package org.point85.ops;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.point85.domain.DomainUtils;
+import org.point85.domain.collector.OeeEvent;
+import org.point85.domain.plant.Equipment;
+import org.point85.domain.schedule.ShiftInstance;
+import org.point85.domain.schedule.WorkSchedule;
+import org.point85.domain.script.OeeEventType;
+
+// building an event as EventFactory.createEvent does, with and without the
+// shift index
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EventConstructionBenchmark {
+	private Equipment equipment;
+	private ShiftResolver shiftResolver;
+	private LocalDateTime eventTime;
+
+	@Setup
+	public void setup() throws Exception {
+		WorkSchedule schedule = BenchmarkFixtures.createWorkSchedule();
+		equipment = BenchmarkFixtures.createEquipment(1, schedule);
+		shiftResolver = new ShiftResolver(() -> 1L, Equipment::getWorkSchedule);
+		eventTime = LocalDateTime.now();
+
+		// build the index once
+		shiftResolver.resolve(equipment, eventTime);
+	}
+
+	@Benchmark
+	public OeeEvent createEvent() throws Exception {
+		OeeEvent event = new OeeEvent(equipment);
+		event.setEventType(OeeEventType.PROD_GOOD);
+		event.setStartTime(DomainUtils.fromLocalDateTime(eventTime));
+		event.setDuration(Duration.ofMinutes(30));
+		event.setAmount(100.0);
+
+		ShiftInstance shift = shiftResolver.resolve(equipment, eventTime);
+		if (shift != null) {
+			event.setShift(shift.getShift());
+			event.setTeam(shift.getTeam());
+		}
+		return event;
+	}
+
+	@Benchmark
+	public Object shiftLookupIndexed() throws Exception {
+		return shiftResolver.resolve(equipment, eventTime);
+	}
+
+	@Benchmark
+	public Object shiftLookupDirect() throws Exception {
+		// what createEvent did before the index
+		return equipment.findWorkSchedule().getShiftInstancesForTime(eventTime);
+	}
+}
@@ -0,0 +1,101 @@
+package org.point85.ops;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.LockSupport;
+
+import org.point85.domain.collector.OeeEvent;
+import org.point85.domain.plant.Equipment;
+import org.point85.domain.plant.Material;
+import org.point85.domain.plant.Reason;
+import org.point85.domain.schedule.WorkSchedule;
+import org.point85.domain.script.OeeEventType;
+
+// plant model held in memory. Each query and write is parked for a fixed time
+// to stand in for the database round trip.
+public class InMemoryStandIn implements PersistenceStandIn {
+	private static final int EQUIPMENT = 500;
+	private static final int REASONS = 200;
+	private static final int MATERIALS = 1000;
+
+	// simulated query and write time (usec)
+	private final long queryMicros;
+	private final long writeMicros;
+
+	private final List<Equipment> equipment = new ArrayList<>(EQUIPMENT);
+	private final List<Reason> reasons;
+	private final List<Material> materials = new ArrayList<>(MATERIALS);
+
+	// last setup by equipment key
+	private final ConcurrentMap<Long, OeeEvent> setups = new ConcurrentHashMap<>();
+
+	public InMemoryStandIn() throws Exception {
+		this(1000, 2000);
+	}
+
+	public InMemoryStandIn(long queryMicros, long writeMicros) throws Exception {
+		this.queryMicros = queryMicros;
+		this.writeMicros = writeMicros;
+
+		WorkSchedule schedule = BenchmarkFixtures.createWorkSchedule();
+		for (long key = 1; key <= EQUIPMENT; key++) {
+			equipment.add(BenchmarkFixtures.createEquipment(key, schedule));
+		}
+
+		reasons = BenchmarkFixtures.createReasons(REASONS);
+
+		for (int i = 0; i < MATERIALS; i++) {
+			materials.add(new Material(String.format("SKU-%06d", i), "Benchmark material " + i, "Category " + i % 10));
+		}
+	}
+
+	@Override
+	public List<Equipment> fetchEquipment() {
+		pause(queryMicros);
+		return Collections.unmodifiableList(equipment);
+	}
+
+	@Override
+	public List<Reason> fetchTopReasons() {
+		pause(queryMicros);
+		return reasons;
+	}
+
+	@Override
+	public List<Material> fetchMaterials() {
+		pause(queryMicros);
+		return Collections.unmodifiableList(materials);
+	}
+
+	@Override
+	public OeeEvent fetchLastSetup(Equipment equipment) {
+		pause(queryMicros);
+		return setups.get(equipment.getKey());
+	}
+
+	// only setups are kept, the KPIs start from nothing
+	@Override
+	public List<OeeEvent> fetchShiftEvents(Equipment equipment, OffsetDateTime from) {
+		pause(queryMicros);
+		return Collections.emptyList();
+	}
+
+	@Override
+	public void write(OeeEvent event) {
+		pause(writeMicros);
+
+		if (event.getEventType() == OeeEventType.MATL_CHANGE) {
+			setups.put(event.getEquipment().getKey(), event);
+		}
+	}
+
+	private static void pause(long micros) {
+		if (micros > 0) {
+			LockSupport.parkNanos(micros * 1000L);
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package org.point85.ops;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.point85.domain.plant.Equipment;
+import org.point85.domain.plant.PlantEntity;
+
+import com.vaadin.data.provider.HierarchicalDataCommunicator;
+import com.vaadin.shared.data.DataRequestRpc;
+import com.vaadin.ui.Tree;
+import com.vaadin.ui.TreeGrid;
+
+// retained heap per session after repeated navigation of a 15,000 node plant
+// model. Each simulated session has its own Tree on an EntityDataProvider, as
+// the operations view does, and its data communicator is driven as the client
+// would drive it: rows are requested, sent and the selection set, and the tree
+// is reset every round as after a reference data change. With canonical nodes
+// the heap per session stays flat as navigation repeats.
+//
+// The trees are not attached to a UI, so the connector tracker and the JSON
+// sent to the browser are not counted. The plant is one level of equipment,
+// which the provider serves without a database.
+public final class NodeRegistryHeapBenchmark {
+	private static final int PLANT_SIZE = 15000;
+	private static final int SESSIONS = 100;
+	private static final int ROUNDS = 10;
+	private static final int ROWS_PER_ROUND = 500;
+
+	private NodeRegistryHeapBenchmark() {
+	}
+
+	public static void main(String[] args) {
+		List<PlantEntity> plant = new ArrayList<>(PLANT_SIZE);
+		for (long key = 1; key <= PLANT_SIZE; key++) {
+			Equipment equipment = BenchmarkFixtures.createEquipment(key, null);
+			plant.add(equipment);
+		}
+
+		EntityNodeRegistry registry = new EntityNodeRegistry();
+
+		List<SessionTree> sessions = new ArrayList<>(SESSIONS);
+		for (int i = 0; i < SESSIONS; i++) {
+			sessions.add(new SessionTree(new EntityDataProvider(registry, plant)));
+		}
+
+		long baseline = usedHeap();
+		System.out.println("round,registry_nodes,heap_bytes_per_session");
+
+		for (int round = 1; round <= ROUNDS; round++) {
+			for (int i = 0; i < SESSIONS; i++) {
+				// the same part of the plant, re-fetched every round
+				sessions.get(i).navigate((i * 37) % (PLANT_SIZE - ROWS_PER_ROUND), ROWS_PER_ROUND);
+			}
+
+			long perSession = (usedHeap() - baseline) / SESSIONS;
+			System.out.println(round + "," + registry.size() + "," + perSession);
+		}
+
+		// kept reachable until measured
+		System.out.println("sessions," + sessions.size());
+	}
+
+	private static long usedHeap() {
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return memory.getHeapMemoryUsage().getUsed();
+	}
+
+	// the plant tree of one session
+	private static final class SessionTree extends Tree<EntityNode> {
+		private static final long serialVersionUID = 1L;
+
+		private final HierarchicalDataCommunicator<EntityNode> communicator;
+
+		// the client's requests for rows
+		private final DataRequestRpc requests;
+
+		@SuppressWarnings("unchecked")
+		private SessionTree(EntityDataProvider dataProvider) {
+			super(dataProvider);
+
+			communicator = ((TreeGrid<EntityNode>) getCompositionRoot()).getDataCommunicator();
+			requests = (DataRequestRpc) communicator.getRpcManager(DataRequestRpc.class.getName())
+					.getImplementation();
+
+			// the initial response
+			communicator.beforeClientResponse(true);
+			communicator.retrievePendingRpcCalls();
+		}
+
+		// scroll to the rows and select the first of them
+		private void navigate(int firstRow, int rowCount) {
+			// as when the reference data monitor refreshes the tree
+			communicator.reset();
+
+			requests.requestRows(firstRow, rowCount, firstRow, rowCount);
+			communicator.beforeClientResponse(false);
+
+			// as sent to the browser
+			communicator.retrievePendingRpcCalls();
+
+			select(communicator.fetchItemsWithRange(firstRow, 1).get(0));
+		}
+	}
+}
@@ -0,0 +1,306 @@
+package org.point85.ops;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.point85.domain.collector.OeeEvent;
+import org.point85.domain.plant.Equipment;
+import org.point85.domain.plant.Material;
+import org.point85.domain.plant.Reason;
+import org.point85.domain.schedule.WorkSchedule;
+import org.point85.domain.script.OeeEventType;
+
+// scripted operator sessions against AppServices: open the view, select
+// equipment, pick a reason and record availability, production and a setup,
+// with a think time between steps. The session count ramps from 10 to 2,000
+// and each step prints the p50/p99 latency, throughput and failures per
+// operation as CSV. The services are started with the startForLoadTest hook,
+// so their caches, catalogs, shift resolution and recorder are those of the
+// application, with a stand-in for the database: InMemoryStandIn unless
+// another class is given.
+//
+// java -cp target/benchmarks.jar org.point85.ops.OperatorLoadGenerator
+// [seconds per step] [think ms] [stand-in class]
+public final class OperatorLoadGenerator {
+	private static final int[] SESSIONS = { 10, 50, 100, 250, 500, 1000, 2000 };
+
+	// operations, in script order
+	private static final String OPEN_VIEW = "open_view";
+	private static final String SELECT_EQUIPMENT = "select_equipment";
+	private static final String PICK_REASON = "pick_reason";
+	private static final String RECORD_AVAILABILITY = "record_availability";
+	private static final String RECORD_PRODUCTION = "record_production";
+	private static final String RECORD_SETUP = "record_setup";
+
+	private static final String[] OPERATIONS = { OPEN_VIEW, SELECT_EQUIPMENT, PICK_REASON, RECORD_AVAILABILITY,
+			RECORD_PRODUCTION, RECORD_SETUP };
+
+	// type-ahead suggestions per keystroke
+	private static final int MAX_SUGGESTIONS = 20;
+
+	private final PersistenceStandIn standIn;
+
+	private final AppServices services;
+
+	private final long thinkMillis;
+
+	// latency and failures by operation for the current step
+	private volatile Map<String, LatencyRecorder> latencies;
+	private volatile Map<String, AtomicLong> failures;
+
+	private OperatorLoadGenerator(PersistenceStandIn standIn, long thinkMillis) {
+		this.standIn = standIn;
+		this.thinkMillis = thinkMillis;
+
+		services = AppServices.startForLoadTest(new StandInBackend(standIn), standIn::write,
+				EventRecorder.DEFAULT_QUEUE_CAPACITY, EventRecorder.DEFAULT_BATCH_SIZE);
+	}
+
+	public static void main(String[] args) throws Exception {
+		long stepSeconds = args.length > 0 ? Long.parseLong(args[0]) : 30;
+		long thinkMillis = args.length > 1 ? Long.parseLong(args[1]) : 500;
+
+		PersistenceStandIn standIn = args.length > 2
+				? (PersistenceStandIn) Class.forName(args[2]).getDeclaredConstructor().newInstance()
+				: new InMemoryStandIn();
+
+		OperatorLoadGenerator generator = new OperatorLoadGenerator(standIn, thinkMillis);
+
+		System.out.println("sessions,operation,count,ops_per_s,p50_ms,p99_ms,max_ms,failures");
+
+		try {
+			for (int sessions : SESSIONS) {
+				generator.runStep(sessions, stepSeconds);
+			}
+		} finally {
+			generator.services.shutdownRecorder();
+		}
+	}
+
+	private void runStep(int sessions, long seconds) throws InterruptedException {
+		Map<String, LatencyRecorder> step = new LinkedHashMap<>();
+		Map<String, AtomicLong> stepFailures = new LinkedHashMap<>();
+		for (String operation : OPERATIONS) {
+			step.put(operation, new LatencyRecorder());
+			stepFailures.put(operation, new AtomicLong());
+		}
+		latencies = step;
+		failures = stepFailures;
+
+		long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+		CountDownLatch done = new CountDownLatch(sessions);
+
+		// one thread per operator, as one request thread at a time serves a
+		// session
+		ExecutorService executor = Executors.newFixedThreadPool(sessions, runnable -> {
+			Thread thread = new Thread(runnable, "oee-load-session");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		for (int i = 0; i < sessions; i++) {
+			executor.execute(() -> {
+				try {
+					runSession(end);
+				} finally {
+					done.countDown();
+				}
+			});
+		}
+
+		done.await();
+		executor.shutdown();
+
+		for (Map.Entry<String, LatencyRecorder> entry : step.entrySet()) {
+			LatencyRecorder recorder = entry.getValue();
+
+			System.out.printf("%d,%s,%d,%.1f,%.3f,%.3f,%.3f,%d%n", sessions, entry.getKey(), recorder.getCount(),
+					recorder.getCount() / (double) seconds, recorder.getQuantile(0.5) / 1000.0,
+					recorder.getQuantile(0.99) / 1000.0, recorder.getMax() / 1000.0,
+					stepFailures.get(entry.getKey()).get());
+		}
+	}
+
+	private void runSession(long end) {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+
+		// stagger the session starts over one think time
+		think(random.nextLong(thinkMillis + 1));
+
+		List<Equipment> equipment;
+		try {
+			equipment = timed(OPEN_VIEW, this::openView);
+		} catch (Exception e) {
+			// counted
+			return;
+		}
+
+		while (System.nanoTime() < end) {
+			try {
+				Equipment selected = equipment.get(random.nextInt(equipment.size()));
+				think(thinkMillis);
+
+				Material material = timed(SELECT_EQUIPMENT, () -> selectEquipment(selected));
+				think(thinkMillis);
+
+				Reason reason = timed(PICK_REASON, () -> pickReason(random));
+				think(thinkMillis);
+
+				timed(RECORD_AVAILABILITY, () -> record(EventFactory.createAvailabilityEvent(selected, reason,
+						material, LocalDateTime.now().withNano(0), null, Duration.ofMinutes(5))));
+				think(thinkMillis);
+
+				timed(RECORD_PRODUCTION, () -> record(createProduction(selected, material)));
+				think(thinkMillis);
+
+				if (random.nextInt(10) == 0) {
+					// an occasional material change
+					List<Material> materials = standIn.fetchMaterials();
+					Material next = materials.get(random.nextInt(materials.size()));
+
+					timed(RECORD_SETUP, () -> record(EventFactory.createSetupEvent(selected, next,
+							"J-" + random.nextInt(1000), LocalDateTime.now().withNano(0))));
+					think(thinkMillis);
+				}
+			} catch (Exception e) {
+				// e.g. the recording queue is full, the operator tries again
+				think(thinkMillis);
+			}
+		}
+	}
+
+	// as OperationsPresenter.populate* does for a new view
+	private List<Equipment> openView() {
+		services.getReasonCatalog().getSnapshot().getTopReasons();
+
+		EntityNodeRegistry registry = services.getEntityNodeRegistry();
+
+		List<Equipment> equipment = standIn.fetchEquipment();
+		for (Equipment item : equipment) {
+			registry.nodeFor(item);
+		}
+		return equipment;
+	}
+
+	// the current setup and the KPIs of the shift, as the view shows them.
+	// Returns the material being run.
+	private Material selectEquipment(Equipment equipment) throws Exception {
+		services.getKpiAggregator().getKpis(equipment);
+		return services.getSetupCache().getCurrentSetup(equipment).getMaterial();
+	}
+
+	// type-ahead over the first letters, then the lookup by name on record
+	private Reason pickReason(ThreadLocalRandom random) {
+		ReasonCatalog catalog = services.getReasonCatalog();
+		ReasonCatalog.Snapshot snapshot = catalog.getSnapshot();
+		String name = "R" + random.nextInt(snapshot.size());
+
+		for (int length = 1; length <= name.length(); length++) {
+			snapshot.search(name.substring(0, length), MAX_SUGGESTIONS);
+		}
+		return catalog.findByName(name);
+	}
+
+	// as EventFactory.createProductionEvent builds it, without the unit of
+	// measure of the equipment material, which the stand-in plant has none of
+	private static OeeEvent createProduction(Equipment equipment, Material material) throws Exception {
+		LocalDateTime startTime = LocalDateTime.now().withNano(0);
+
+		OeeEvent event = EventFactory.createEvent(OeeEventType.PROD_GOOD, equipment, startTime, null);
+		event.setMaterial(material);
+		event.setAmount(100.0);
+		event.setDuration(Duration.ofMinutes(30));
+		return event;
+	}
+
+	// submit to durable write, once per key as the Record buttons do
+	private OeeEvent record(OeeEvent event) {
+		return services.recordEvent(event, UUID.randomUUID().toString()).join();
+	}
+
+	private <T> T timed(String operation, Step<T> step) throws Exception {
+		long start = System.nanoTime();
+
+		try {
+			return step.run();
+		} catch (Exception e) {
+			failures.get(operation).incrementAndGet();
+			throw e;
+		} finally {
+			latencies.get(operation).recordSince(start);
+		}
+	}
+
+	private static void think(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private interface Step<T> {
+		T run() throws Exception;
+	}
+
+	// the stand-in as the database of the services. Reference data never
+	// changes.
+	private static final class StandInBackend implements AppServices.Backend {
+		private final PersistenceStandIn standIn;
+
+		private StandInBackend(PersistenceStandIn standIn) {
+			this.standIn = standIn;
+		}
+
+		@Override
+		public List<Reason> fetchTopReasons() {
+			return standIn.fetchTopReasons();
+		}
+
+		@Override
+		public long fetchReasonVersion() {
+			return 1L;
+		}
+
+		@Override
+		public Reason fetchReasonByName(String name) {
+			for (Reason reason : standIn.fetchTopReasons()) {
+				if (reason.getName().equals(name)) {
+					return reason;
+				}
+			}
+			return null;
+		}
+
+		@Override
+		public OeeEvent fetchLastSetup(Equipment equipment) {
+			return standIn.fetchLastSetup(equipment);
+		}
+
+		@Override
+		public long fetchScheduleVersion() {
+			return 1L;
+		}
+
+		@Override
+		public WorkSchedule fetchWorkSchedule(Equipment equipment) {
+			return equipment.getWorkSchedule();
+		}
+
+		@Override
+		public List<OeeEvent> fetchShiftEvents(Equipment equipment, OffsetDateTime from) {
+			return standIn.fetchShiftEvents(equipment, from);
+		}
+	}
+}
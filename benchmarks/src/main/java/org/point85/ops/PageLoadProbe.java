@@ -0,0 +1,186 @@
+package org.point85.ops;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+// cold and warm first page load over a throttled link, against a running
+// server. Follows the bootstrap page to the Vaadin bootstrap script, theme and
+// widgetset, then models each request as one round trip plus the transferred
+// bytes at the given bandwidth. A warm load skips resources the browser may
+// cache.
+//
+// java -cp target/benchmarks.jar org.point85.ops.PageLoadProbe
+// http://localhost:9888/ [kbit/s] [rtt ms]
+public final class PageLoadProbe {
+	private static final Pattern RESOURCE = Pattern.compile("(?:src|href)=\"([^\"]*VAADIN/[^\"]+)\"");
+	private static final Pattern WIDGETSET = Pattern.compile("\"widgetset\"\\s*:\\s*\"([^\"]+)\"");
+	private static final Pattern THEME = Pattern.compile("\"theme\"\\s*:\\s*\"([^\"]+)\"");
+	private static final Pattern PERMUTATION = Pattern.compile("'([0-9A-F]{32})'");
+	private static final Pattern MAX_AGE = Pattern.compile("max-age=(\\d+)");
+
+	private PageLoadProbe() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		String base = args.length > 0 ? args[0] : "http://localhost:9888/";
+		if (!base.endsWith("/")) {
+			base += "/";
+		}
+		double kbps = args.length > 1 ? Double.parseDouble(args[1]) : 1000;
+		double rtt = args.length > 2 ? Double.parseDouble(args[2]) : 100;
+
+		List<Fetch> fetches = new ArrayList<>();
+
+		Fetch page = fetch(base);
+		fetches.add(page);
+
+		Set<String> resources = new LinkedHashSet<>();
+		Matcher matcher = RESOURCE.matcher(page.text);
+		while (matcher.find()) {
+			resources.add(matcher.group(1));
+		}
+
+		matcher = THEME.matcher(page.text);
+		if (matcher.find()) {
+			resources.add("VAADIN/themes/" + matcher.group(1) + "/styles.css");
+		}
+
+		String widgetsetPath = null;
+		matcher = WIDGETSET.matcher(page.text);
+		if (matcher.find()) {
+			String widgetset = matcher.group(1);
+			widgetsetPath = "VAADIN/widgetsets/" + widgetset + "/";
+			resources.add(widgetsetPath + widgetset + ".nocache.js");
+		}
+
+		for (String resource : resources) {
+			Fetch fetch = fetch(resolve(base, resource));
+			fetches.add(fetch);
+
+			// the permutation the loader picks, approximated by the first one
+			if (widgetsetPath != null && resource.endsWith(".nocache.js")) {
+				Matcher permutation = PERMUTATION.matcher(fetch.text);
+				if (permutation.find()) {
+					fetches.add(fetch(resolve(base, widgetsetPath + permutation.group(1) + ".cache.js")));
+				}
+			}
+		}
+
+		double cold = 0;
+		double warm = 0;
+
+		System.out.println("url,status,bytes,encoding,max_age_s,local_ms");
+		for (Fetch fetch : fetches) {
+			System.out.println(fetch.url + "," + fetch.status + "," + fetch.bytes + "," + fetch.encoding + ","
+					+ fetch.maxAge + "," + fetch.millis);
+
+			double time = rtt + fetch.bytes * 8 / kbps;
+			cold += time;
+
+			if (fetch.maxAge <= 0) {
+				warm += time;
+			}
+		}
+
+		System.out.printf("link %.0f kbit/s, rtt %.0f ms: cold %.0f ms, warm %.0f ms%n", kbps, rtt, cold, warm);
+	}
+
+	private static String resolve(String base, String resource) {
+		if (resource.startsWith("http")) {
+			return resource;
+		}
+		if (resource.startsWith("./")) {
+			resource = resource.substring(2);
+		}
+		if (resource.startsWith("/")) {
+			URL url;
+			try {
+				url = new URL(base);
+			} catch (IOException e) {
+				return base + resource.substring(1);
+			}
+			return url.getProtocol() + "://" + url.getAuthority() + resource;
+		}
+		return base + resource;
+	}
+
+	private static byte[] decode(byte[] body, String encoding) throws IOException {
+		if (!"gzip".equalsIgnoreCase(encoding) || body.length == 0) {
+			return body;
+		}
+
+		ByteArrayOutputStream decoded = new ByteArrayOutputStream(body.length * 4);
+		try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) > 0) {
+				decoded.write(buffer, 0, read);
+			}
+		}
+		return decoded.toByteArray();
+	}
+
+	private static Fetch fetch(String url) throws IOException {
+		long start = System.nanoTime();
+
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		connection.setRequestProperty("Accept-Encoding", "gzip");
+
+		Fetch fetch = new Fetch(url);
+		fetch.status = connection.getResponseCode();
+		fetch.encoding = connection.getContentEncoding() != null ? connection.getContentEncoding() : "identity";
+
+		String cacheControl = connection.getHeaderField("Cache-Control");
+		if (cacheControl != null) {
+			Matcher matcher = MAX_AGE.matcher(cacheControl);
+			if (matcher.find()) {
+				fetch.maxAge = Long.parseLong(matcher.group(1));
+			}
+		}
+
+		// bytes as sent, still compressed
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		try (InputStream in = fetch.status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+			if (in != null) {
+				byte[] buffer = new byte[8192];
+				int read;
+				while ((read = in.read(buffer)) > 0) {
+					body.write(buffer, 0, read);
+				}
+			}
+		}
+		fetch.bytes = body.size();
+
+		// searched for links once uncompressed
+		fetch.text = new String(decode(body.toByteArray(), fetch.encoding), StandardCharsets.UTF_8);
+		fetch.millis = (System.nanoTime() - start) / 1000000;
+
+		return fetch;
+	}
+
+	private static final class Fetch {
+		private final String url;
+		private int status;
+		private String encoding;
+		private long maxAge;
+		private long bytes;
+		private long millis;
+		private String text = "";
+
+		private Fetch(String url) {
+			this.url = url;
+		}
+	}
+}
@@ -0,0 +1,28 @@
+package org.point85.ops;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+
+import org.point85.domain.collector.OeeEvent;
+import org.point85.domain.plant.Equipment;
+import org.point85.domain.plant.Material;
+import org.point85.domain.plant.Reason;
+
+// the queries and writes the operator workflow makes through PersistenceService
+// and the collector, for driving the service layer without a database
+interface PersistenceStandIn {
+	List<Equipment> fetchEquipment();
+
+	List<Reason> fetchTopReasons();
+
+	List<Material> fetchMaterials();
+
+	// the last MATL_CHANGE event, null if none
+	OeeEvent fetchLastSetup(Equipment equipment);
+
+	// availability and production events since the start of a shift, for the
+	// KPIs
+	List<OeeEvent> fetchShiftEvents(Equipment equipment, OffsetDateTime from);
+
+	void write(OeeEvent event) throws Exception;
+}
@@ -0,0 +1,91 @@
+package org.point85.ops;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.point85.domain.DomainUtils;
+import org.point85.domain.collector.OeeEvent;
+import org.point85.domain.script.OeeEventType;
+
+// recording throughput through the queue recorder and the journal against a
+// stand-in database write. Run with -t 1..64 (see BenchmarkRunner).
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class RecordingBenchmark {
+	// simulated database write time
+	@Param({ "0", "500" })
+	public int writeMicros;
+
+	private EventRecorder eventRecorder;
+	private EventJournal eventJournal;
+	private File journalDirectory;
+	private OeeEvent event;
+	private byte[] payload;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		EventRecorder.EventWriter writer = recorded -> {
+			if (writeMicros > 0) {
+				LockSupport.parkNanos(writeMicros * 1000L);
+			}
+		};
+
+		eventRecorder = new EventRecorder(writer, EventRecorder.DEFAULT_QUEUE_CAPACITY,
+				EventRecorder.DEFAULT_BATCH_SIZE);
+		eventRecorder.start();
+
+		journalDirectory = Files.createTempDirectory("oee-journal").toFile();
+		eventJournal = new EventJournal(journalDirectory, EventJournal.DEFAULT_SEGMENT_SIZE,
+				EventJournal.DEFAULT_SYNC_INTERVAL);
+		eventJournal.open();
+
+		event = new OeeEvent(BenchmarkFixtures.createEquipment(1, null));
+		event.setEventType(OeeEventType.PROD_GOOD);
+		event.setStartTime(DomainUtils.fromLocalDateTime(LocalDateTime.now()));
+		event.setAmount(10.0);
+		payload = EventCodec.encode(event);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		eventRecorder.flush(EventRecorder.DEFAULT_FLUSH_TIMEOUT);
+		eventJournal.close();
+
+		File[] files = journalDirectory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		journalDirectory.delete();
+	}
+
+	@Benchmark
+	public Object recordQueued() {
+		return eventRecorder.submit(event).join();
+	}
+
+	@Benchmark
+	public Object recordJournaled() {
+		return eventJournal.append(payload, null).join();
+	}
+
+	@Benchmark
+	public Object encodeEvent() throws Exception {
+		return EventCodec.encode(event);
+	}
+}
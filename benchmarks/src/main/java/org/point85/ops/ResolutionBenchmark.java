@@ -0,0 +1,49 @@
+package org.point85.ops;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.point85.domain.plant.Reason;
+
+// reason lookup by name and type-ahead over the reason and material indexes
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ResolutionBenchmark {
+	@Param({ "1000", "100000" })
+	public int entries;
+
+	private ReasonCatalog reasonCatalog;
+	private PrefixIndex<String> materialIndex;
+
+	@Setup
+	public void setup() {
+		// every name is in the catalog, the database is never asked
+		reasonCatalog = new ReasonCatalog(() -> BenchmarkFixtures.createReasons(entries), () -> 1L, name -> null);
+		reasonCatalog.getSnapshot();
+		materialIndex = BenchmarkFixtures.createMaterialIndex(entries);
+	}
+
+	@Benchmark
+	public Reason reasonByName() {
+		return reasonCatalog.findByName("R" + ThreadLocalRandom.current().nextInt(entries));
+	}
+
+	@Benchmark
+	public Object reasonTypeAhead() {
+		return reasonCatalog.getSnapshot().search("r1", 20);
+	}
+
+	@Benchmark
+	public Object materialTypeAhead() {
+		return materialIndex.search("sku-0" + ThreadLocalRandom.current().nextInt(10), 20);
+	}
+}
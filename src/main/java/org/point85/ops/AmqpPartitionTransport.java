@@ -0,0 +1,343 @@
+package org.point85.ops;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.BuiltinExchangeType;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.MessageProperties;
+import com.rabbitmq.client.Recoverable;
+import com.rabbitmq.client.RecoveryListener;
+import com.rabbitmq.client.ShutdownSignalException;
+
+// partitions as durable RabbitMQ queues with a single active consumer
+// (RabbitMQ 3.8 or later), so one node at a time writes the events of an
+// equipment in order. Sends complete on the publisher confirm. An event that
+// can never be written is moved to the rejected queue, with the failure in its
+// headers, before it is acknowledged.
+class AmqpPartitionTransport implements PartitionTransport {
+	// logger
+	private static final Logger logger = LoggerFactory.getLogger(AmqpPartitionTransport.class);
+
+	private static final String QUEUE_PREFIX = "oee.events.";
+	private static final String RECORDED_EXCHANGE = "oee.events.recorded";
+	private static final String REJECTED_QUEUE = "oee.events.rejected";
+
+	// wait for the broker to take a rejected event (msec)
+	private static final long REJECT_CONFIRM_TIMEOUT = 10000;
+
+	// retry back off (msec)
+	private static final long INITIAL_RETRY = 1000;
+	private static final long MAX_RETRY = 60000;
+
+	private final String brokerUri;
+
+	private final int partitionCount;
+
+	private Connection connection;
+
+	// publishing with confirms, guarded by itself
+	private volatile Channel publishChannel;
+
+	// unconfirmed sends by publish sequence number of the current channel
+	private final ConcurrentNavigableMap<Long, PendingConfirm> unconfirmed = new ConcurrentSkipListMap<>();
+
+	private final List<Channel> consumerChannels = new ArrayList<>();
+
+	private ExecutorService consumerExecutor;
+
+	private final AtomicLong retryCount = new AtomicLong();
+	private final AtomicLong rejectedCount = new AtomicLong();
+
+	AmqpPartitionTransport(String brokerUri, int partitionCount) {
+		this.brokerUri = brokerUri;
+		this.partitionCount = partitionCount;
+	}
+
+	@Override
+	public synchronized void start(PayloadConsumer partitionConsumer, PayloadConsumer recordedConsumer)
+			throws Exception {
+		ConnectionFactory factory = new ConnectionFactory();
+		factory.setUri(brokerUri);
+		factory.setAutomaticRecoveryEnabled(true);
+
+		// a blocked partition does not hold up the others
+		consumerExecutor = Executors.newFixedThreadPool(partitionCount + 1, runnable -> {
+			Thread thread = new Thread(runnable, "oee-partition-consumer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		connection = factory.newConnection(consumerExecutor, "oee-operator");
+
+		publishChannel = connection.createChannel();
+		publishChannel.confirmSelect();
+		publishChannel.addConfirmListener((sequence, multiple) -> onConfirm(sequence, multiple, null),
+				(sequence, multiple) -> onConfirm(sequence, multiple,
+						new Exception("The broker did not accept the event.")));
+
+		// publish sequence numbers start again on a recovered channel, and
+		// nothing sent before the loss will be confirmed
+		publishChannel.addShutdownListener(cause -> failUnconfirmed("The broker connection was lost."));
+		((Recoverable) publishChannel).addRecoveryListener(new RecoveryListener() {
+			@Override
+			public void handleRecoveryStarted(Recoverable recoverable) {
+				failUnconfirmed("The broker connection was lost.");
+			}
+
+			@Override
+			public void handleRecovery(Recoverable recoverable) {
+				// sends resume with new sequence numbers
+			}
+		});
+
+		publishChannel.queueDeclare(REJECTED_QUEUE, true, false, false, null);
+
+		Map<String, Object> arguments = Collections.singletonMap("x-single-active-consumer", true);
+
+		for (int i = 0; i < partitionCount; i++) {
+			String queue = QUEUE_PREFIX + i;
+
+			Channel channel = connection.createChannel();
+			channel.queueDeclare(queue, true, false, false, arguments);
+
+			// one unacknowledged event at a time keeps the order
+			channel.basicQos(1);
+
+			// rejected events are confirmed before the original is acknowledged
+			channel.confirmSelect();
+			channel.basicConsume(queue, false, new PartitionConsumer(channel, partitionConsumer));
+			consumerChannels.add(channel);
+		}
+
+		// every node gets its own queue of recorded announcements
+		Channel recordedChannel = connection.createChannel();
+		recordedChannel.exchangeDeclare(RECORDED_EXCHANGE, BuiltinExchangeType.FANOUT, true);
+		String recordedQueue = recordedChannel.queueDeclare().getQueue();
+		recordedChannel.queueBind(recordedQueue, RECORDED_EXCHANGE, "");
+		recordedChannel.basicConsume(recordedQueue, true, new DefaultConsumer(recordedChannel) {
+			@Override
+			public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties,
+					byte[] body) {
+				try {
+					recordedConsumer.accept(body);
+				} catch (Exception e) {
+					logger.error("Recorded announcement failed: " + e.getMessage());
+				}
+			}
+		});
+		consumerChannels.add(recordedChannel);
+
+		if (logger.isInfoEnabled()) {
+			logger.info("Connected to broker for " + partitionCount + " event partitions");
+		}
+	}
+
+	@Override
+	public CompletableFuture<Void> send(int partition, byte[] payload) {
+		CompletableFuture<Void> future = new CompletableFuture<>();
+
+		if (publishChannel == null) {
+			future.completeExceptionally(new Exception("The partition transport is not running."));
+			return future;
+		}
+
+		synchronized (publishChannel) {
+			long sequence = publishChannel.getNextPublishSeqNo();
+			PendingConfirm pending = new PendingConfirm(future);
+			unconfirmed.put(sequence, pending);
+
+			try {
+				publishChannel.basicPublish("", QUEUE_PREFIX + partition, MessageProperties.PERSISTENT_BASIC,
+						payload);
+			} catch (IOException | ShutdownSignalException e) {
+				// e.g. while recovering
+				unconfirmed.remove(sequence, pending);
+				future.completeExceptionally(e);
+			}
+		}
+		return future;
+	}
+
+	// sent on a channel that is gone, the sender records them again
+	private void failUnconfirmed(String reason) {
+		Channel channel = publishChannel;
+
+		if (channel == null) {
+			return;
+		}
+
+		synchronized (channel) {
+			for (PendingConfirm pending : unconfirmed.values()) {
+				pending.future.completeExceptionally(new Exception(reason));
+			}
+			unconfirmed.clear();
+		}
+	}
+
+	private void onConfirm(long sequence, boolean multiple, Exception failure) {
+		Map<Long, PendingConfirm> confirmed = multiple ? unconfirmed.headMap(sequence, true)
+				: unconfirmed.subMap(sequence, true, sequence, true);
+
+		for (PendingConfirm pending : confirmed.values()) {
+			// submit to durable in the broker
+			Metrics.RECORD_EVENT.recordSince(pending.sent);
+
+			if (failure == null) {
+				pending.future.complete(null);
+			} else {
+				pending.future.completeExceptionally(failure);
+			}
+		}
+		confirmed.clear();
+	}
+
+	@Override
+	public void announce(byte[] payload) {
+		if (publishChannel == null) {
+			return;
+		}
+
+		synchronized (publishChannel) {
+			try {
+				publishChannel.basicPublish(RECORDED_EXCHANGE, "", null, payload);
+			} catch (IOException e) {
+				logger.error("Unable to announce recorded event: " + e.getMessage());
+			}
+		}
+	}
+
+	@Override
+	public int getPartitionCount() {
+		return partitionCount;
+	}
+
+	@Override
+	public long getRetryCount() {
+		return retryCount.get();
+	}
+
+	@Override
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+	int getUnconfirmedCount() {
+		return unconfirmed.size();
+	}
+
+	@Override
+	public synchronized void close() {
+		try {
+			if (connection != null) {
+				connection.close();
+			}
+		} catch (Exception e) {
+			logger.error(e.getMessage());
+		}
+
+		if (consumerExecutor != null) {
+			consumerExecutor.shutdownNow();
+		}
+
+		for (PendingConfirm pending : unconfirmed.values()) {
+			pending.future.completeExceptionally(new Exception("The broker connection was closed."));
+		}
+		unconfirmed.clear();
+		consumerChannels.clear();
+	}
+
+	// writes a partition's events one at a time, redelivered in place on a
+	// transient failure and otherwise moved to the rejected queue
+	private class PartitionConsumer extends DefaultConsumer {
+		private final PayloadConsumer consumer;
+
+		private long wait = INITIAL_RETRY;
+
+		private PartitionConsumer(Channel channel, PayloadConsumer consumer) {
+			super(channel);
+			this.consumer = consumer;
+		}
+
+		@Override
+		public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties,
+				byte[] body) throws IOException {
+			try {
+				consumer.accept(body);
+				wait = INITIAL_RETRY;
+				getChannel().basicAck(envelope.getDeliveryTag(), false);
+			} catch (Exception e) {
+				if (!TransientFailures.isTransient(e) && reject(envelope, body, e)) {
+					return;
+				}
+
+				retryCount.incrementAndGet();
+				logger.error("Unable to consume partition event, retrying in " + wait + " ms: " + e.getMessage());
+
+				try {
+					Thread.sleep(wait);
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+				}
+				wait = Math.min(wait * 2, MAX_RETRY);
+
+				// back to the head of the queue
+				getChannel().basicNack(envelope.getDeliveryTag(), false, true);
+			}
+		}
+
+		// true once the event is in the rejected queue and acknowledged
+		private boolean reject(Envelope envelope, byte[] body, Exception failure) {
+			Map<String, Object> headers = Collections.singletonMap("x-rejected-reason",
+					String.valueOf(failure.getMessage()));
+			AMQP.BasicProperties rejected = MessageProperties.PERSISTENT_BASIC.builder().headers(headers).build();
+
+			try {
+				getChannel().basicPublish("", REJECTED_QUEUE, rejected, body);
+
+				if (!getChannel().waitForConfirms(REJECT_CONFIRM_TIMEOUT)) {
+					throw new IOException("The broker did not accept the rejected event.");
+				}
+				getChannel().basicAck(envelope.getDeliveryTag(), false);
+			} catch (IOException | TimeoutException | ShutdownSignalException e) {
+				// retried as if transient
+				logger.error("Unable to move partition event to " + REJECTED_QUEUE + ": " + e.getMessage());
+				return false;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+
+			wait = INITIAL_RETRY;
+			rejectedCount.incrementAndGet();
+			logger.error("Rejected partition event to " + REJECTED_QUEUE + ": " + failure.getMessage());
+			return true;
+		}
+	}
+
+	private static final class PendingConfirm {
+		private final CompletableFuture<Void> future;
+		private final long sent = System.nanoTime();
+
+		private PendingConfirm(CompletableFuture<Void> future) {
+			this.future = future;
+		}
+	}
+}
@@ -1,12 +1,32 @@
 package org.point85.ops;
 
-import javax.servlet.ServletConfig;
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.servlet.Registration;
 import javax.servlet.ServletContext;
 
 import org.apache.log4j.PropertyConfigurator;
 import org.point85.domain.collector.CollectorService;
 import org.point85.domain.collector.OeeEvent;
+import org.point85.domain.oee.TimeLoss;
 import org.point85.domain.persistence.PersistenceService;
+import org.point85.domain.plant.Equipment;
+import org.point85.domain.plant.Reason;
+import org.point85.domain.schedule.WorkSchedule;
+import org.point85.domain.script.OeeEventType;
+import org.point85.ops.EventRecorder.EventWriter;
 import org.point85.ops.OperationsUI.OEEOperationsServlet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -18,44 +38,291 @@ public final class AppServices {
 	// event data collector
 	private final CollectorService collectorService;
 
-	// singleton
-	private static AppServices services = new AppServices();
+	// current material and job by equipment
+	private final SetupCache setupCache;
+
+	// shared reason tree
+	private final ReasonCatalog reasonCatalog;
+
+	// shift attribution
+	private final ShiftResolver shiftResolver;
+
+	// running KPIs of the current shift
+	private final KpiAggregator kpiAggregator;
+
+	// pages of materials
+	private final MaterialCatalog materialCatalog = new MaterialCatalog();
+
+	// plant entity tree nodes
+	private final EntityNodeRegistry entityNodeRegistry = new EntityNodeRegistry();
+
+	// equipment by name for the ingest API
+	private final ExpiringCache<String, Equipment> equipmentCache = new ExpiringCache<>(EQUIPMENT_TIME_TO_LIVE,
+			MAX_CACHED_EQUIPMENT);
+
+	// repeated submissions
+	private final IdempotencyRegistry idempotencyRegistry = new IdempotencyRegistry(
+			IdempotencyRegistry.DEFAULT_TIME_TO_LIVE, IdempotencyRegistry.DEFAULT_MAX_KEYS);
+
+	// asynchronous event recording
+	private volatile EventRecorder eventRecorder;
+
+	// durable local journal of recorded events, if configured
+	private volatile EventJournal eventJournal;
+
+	// drains the journal into the collector
+	private JournalReplayer journalReplayer;
+
+	// writes to the database for the recorder and replayer
+	private final EventWriter databaseWriter = new EventWriter() {
+		@Override
+		public void write(OeeEvent event) throws Exception {
+			writeEvent(event);
+		}
+
+		@Override
+		public void writeAll(List<OeeEvent> events) throws Exception {
+			writeEvents(events);
+		}
+	};
+
+	// recorded events to the UI sessions
+	private volatile EventBus eventBus;
+
+	// UI queries off of the request thread
+	private volatile FetchExecutor fetchExecutor;
+
+	// idle UI data release
+	private volatile SessionMonitor sessionMonitor;
+
+	// reference data change detection
+	private volatile ReferenceDataMonitor referenceDataMonitor;
+
+	// open-ended downtime by equipment
+	private volatile DowntimeTracker downtimeTracker;
 
-	private static boolean isInitialized = false;
+	// deployment problems found at startup
+	private volatile int selfCheckProblems;
+
+	// partitioned recording across nodes, if configured
+	private volatile ClusterRecorder clusterRecorder;
+
+	// max time to wait for queued events at shutdown (msec)
+	private long flushTimeout = EventRecorder.DEFAULT_FLUSH_TIMEOUT;
+
+	// singleton, replaced by startForLoadTest
+	private static volatile AppServices services = new AppServices();
+
+	// startup state
+	enum State {
+		STOPPED, STARTING, READY, FAILED
+	}
+
+	private static final int STARTUP_THREADS = 3;
+
+	// equipment name cache entry lifetime (msec) and size
+	private static final long EQUIPMENT_TIME_TO_LIVE = 10 * 60 * 1000;
+	private static final int MAX_CACHED_EQUIPMENT = 10000;
+
+	// in-process partitions instead of a broker
+	private static final String CLUSTER_LOCAL = "local";
+
+	// under the user's home, for files that must survive a restart when no
+	// folder is configured
+	private static final String DEFAULT_DATA_FOLDER = ".point85-operations";
+
+	private volatile State state = State.STOPPED;
+
+	// completes when all startup stages are done
+	private final CompletableFuture<Void> readiness = new CompletableFuture<>();
+
+	// elapsed time by startup stage (msec)
+	private final Map<String, Long> stageTimes = Collections.synchronizedMap(new LinkedHashMap<>());
+
+	// the queries the services make, of the database unless replaced for a
+	// load test
+	interface Backend {
+		List<Reason> fetchTopReasons();
+
+		long fetchReasonVersion();
+
+		// null if not found
+		Reason fetchReasonByName(String name);
+
+		// the last MATL_CHANGE event, null if none
+		OeeEvent fetchLastSetup(Equipment equipment);
+
+		long fetchScheduleVersion();
+
+		// null if none
+		WorkSchedule fetchWorkSchedule(Equipment equipment) throws Exception;
+
+		List<OeeEvent> fetchShiftEvents(Equipment equipment, OffsetDateTime from);
+	}
 
 	private AppServices() {
 		// collector server
-		collectorService = new CollectorService();
+		this(new CollectorService(), new DatabaseBackend());
+	}
+
+	// no collector if null
+	private AppServices(CollectorService collectorService, Backend backend) {
+		this.collectorService = collectorService;
+
+		// setup cache loaded on demand
+		setupCache = new SetupCache(backend::fetchLastSetup);
+
+		// reasons loaded on first use
+		reasonCatalog = new ReasonCatalog(backend::fetchTopReasons, backend::fetchReasonVersion,
+				backend::fetchReasonByName);
+
+		// shift instances indexed per work schedule
+		shiftResolver = new ShiftResolver(backend::fetchScheduleVersion, backend::fetchWorkSchedule);
+
+		// seeded per equipment when first shown, the downtime tracker is
+		// created at startup
+		kpiAggregator = new KpiAggregator(shiftResolver, backend::fetchShiftEvents,
+				equipmentKey -> downtimeTracker != null ? downtimeTracker.getOpen(equipmentKey) : null);
+
+		registerGauges();
 	}
 
 	public static AppServices instance() {
 		return services;
 	}
 
-	synchronized void initialize() {
-		if (isInitialized) {
-			return;
+	// test hook: replaces the instance with services that query the backend and
+	// record through an event recorder to the writer, with no database,
+	// collector or UI push. Returned ready.
+	static AppServices startForLoadTest(Backend backend, EventWriter writer, int queueCapacity, int batchSize) {
+		AppServices loadTest = new AppServices(null, backend);
+
+		loadTest.eventRecorder = new EventRecorder(writer, queueCapacity, batchSize);
+		loadTest.eventRecorder.start();
+
+		loadTest.state = State.READY;
+		loadTest.readiness.complete(null);
+
+		services = loadTest;
+		return loadTest;
+	}
+
+	// start up in parallel stages off of the request thread. Logging is
+	// configured first, then the EMF, then the collector with event recording
+	// alongside the reference data warm-up.
+	synchronized CompletableFuture<Void> initialize(ServletContext context) {
+		if (state != State.STOPPED) {
+			return readiness;
 		}
+		state = State.STARTING;
 
-		// see web.xml for JDBC connection properties
-		ServletConfig config = OEEOperationsServlet.getCurrent().getServletConfig();
-		String jdbcConn = config.getInitParameter("jdbcConn");
-		String userName = config.getInitParameter("userName");
-		String password = config.getInitParameter("password");
+		// see web.xml for JDBC connection and recording properties
+		Registration config = context.getServletRegistration(OEEOperationsServlet.class.getSimpleName());
+
+		timeStage("logging", () -> configureLogging(context));
+
+		timeStage("self check", () -> selfCheckProblems = SelfCheck.run(config).size());
+
+		startupEventBus(config);
+
+		fetchExecutor = new FetchExecutor(
+				getIntParameter(config, "fetchMaxConcurrent", FetchExecutor.DEFAULT_MAX_CONCURRENT),
+				getIntParameter(config, "fetchQueueCapacity", FetchExecutor.DEFAULT_QUEUE_CAPACITY));
+
+		sessionMonitor = new SessionMonitor(
+				getIntParameter(config, "sessionIdleTimeout", SessionMonitor.DEFAULT_IDLE_TIMEOUT));
+		sessionMonitor.start();
+
+		referenceDataMonitor = new ReferenceDataMonitor(reasonCatalog, materialCatalog, entityNodeRegistry,
+				shiftResolver,
+				getIntParameter(config, "referencePollInterval", ReferenceDataMonitor.DEFAULT_POLL_INTERVAL));
+
+		downtimeTracker = new DowntimeTracker(getDowntimeSnapshot(config),
+				getIntParameter(config, "downtimeClockInterval", DowntimeTracker.DEFAULT_CLOCK_INTERVAL),
+				this::recordEvent);
+
+		ExecutorService startupExecutor = Executors.newFixedThreadPool(STARTUP_THREADS, runnable -> {
+			Thread thread = new Thread(runnable, "oee-startup");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		CompletableFuture<Void> persistence = CompletableFuture
+				.runAsync(() -> timeStage("persistence", () -> startupPersistence(config)), startupExecutor);
+
+		CompletableFuture<Void> collector = persistence.thenRunAsync(() -> timeStage("collector", () -> {
+			startupCollector();
+			startupRecording(config);
+		}), startupExecutor);
+
+		CompletableFuture<Void> warmUp = persistence
+				.thenRunAsync(() -> timeStage("reference data", this::warmUpReferenceData), startupExecutor);
+
+		CompletableFuture<Void> downtime = persistence
+				.thenRunAsync(() -> timeStage("open downtime", this::restoreDowntime), startupExecutor);
+
+		CompletableFuture.allOf(collector, warmUp, downtime).whenComplete((result, failure) -> {
+			startupExecutor.shutdown();
+
+			if (failure != null) {
+				state = State.FAILED;
+				logger.error("Startup failed: " + failure.getMessage());
+				readiness.completeExceptionally(failure);
+			} else {
+				state = State.READY;
+
+				// before any UI is open
+				sessionMonitor.recordBaseline();
+
+				// versions are taken after the warm-up
+				referenceDataMonitor.start();
+
+				downtimeTracker.start();
+
+				if (logger.isInfoEnabled()) {
+					logger.info("Operations app is ready. Startup stages (ms): " + stageTimes);
+				}
+				readiness.complete(null);
+			}
+		});
+
+		return readiness;
+	}
+
+	private void timeStage(String stage, Runnable task) {
+		long start = System.currentTimeMillis();
 
+		task.run();
+
+		long elapsed = System.currentTimeMillis() - start;
+		stageTimes.put(stage, elapsed);
+
+		if (logger.isInfoEnabled()) {
+			logger.info("Startup stage " + stage + " took " + elapsed + " ms");
+		}
+	}
+
+	private void configureLogging(ServletContext context) {
 		// configure log4j
-		ServletContext context = OEEOperationsServlet.getCurrent().getServletContext();
 		String realPath = context.getRealPath("");
 		String log4jProps = realPath + "/log4j.properties";
 		PropertyConfigurator.configure(log4jProps);
+	}
+
+	private void startupPersistence(Registration config) {
+		String jdbcConn = config.getInitParameter("jdbcConn");
+		String userName = config.getInitParameter("userName");
+		String password = config.getInitParameter("password");
 
 		if (logger.isInfoEnabled()) {
 			logger.info("Initializing persistence service for connection " + jdbcConn + " and user " + userName);
 		}
 
-		// create the EMF on background thread
+		// create the EMF
 		PersistenceService.instance().initialize(jdbcConn, userName, password);
+	}
 
+	private void startupCollector() {
 		// start the collector
 		if (logger.isInfoEnabled()) {
 			logger.info("Starting collector.");
@@ -63,7 +330,7 @@ public final class AppServices {
 
 		try {
 			// start the data collector
-			startupCollector();
+			collectorService.startup();
 		} catch (Exception e) {
 			logger.error(e.getMessage());
 			try {
@@ -72,13 +339,273 @@ public final class AppServices {
 				logger.error(any.getMessage());
 			}
 		}
+	}
+
+	private void startupRecording(Registration config) {
+		// recording settings
+		int queueCapacity = getIntParameter(config, "recordQueueCapacity", EventRecorder.DEFAULT_QUEUE_CAPACITY);
+		int batchSize = getIntParameter(config, "recordBatchSize", EventRecorder.DEFAULT_BATCH_SIZE);
+		flushTimeout = getIntParameter(config, "recordFlushTimeout", EventRecorder.DEFAULT_FLUSH_TIMEOUT);
+
+		String clusterBroker = config.getInitParameter("clusterBroker");
+
+		if (clusterBroker != null && clusterBroker.trim().length() > 0) {
+			// events are partitioned by equipment across the operator nodes
+			int partitions = getIntParameter(config, "clusterPartitions", ClusterRecorder.DEFAULT_PARTITIONS);
+			startupCluster(clusterBroker.trim(), partitions);
+			return;
+		}
+
+		String journalDirectory = config.getInitParameter("journalDirectory");
+
+		if (journalDirectory != null && journalDirectory.trim().length() > 0) {
+			// events are written to the local journal first
+			int segmentSize = getIntParameter(config, "journalSegmentSize", EventJournal.DEFAULT_SEGMENT_SIZE);
+			int syncInterval = getIntParameter(config, "journalSyncInterval", EventJournal.DEFAULT_SYNC_INTERVAL);
+
+			startupJournal(new File(journalDirectory.trim()), segmentSize, syncInterval);
+		}
+
+		if (eventJournal == null) {
+			// start the event recorder
+			if (logger.isInfoEnabled()) {
+				logger.info(
+						"Starting event recorder with queue capacity " + queueCapacity + " and batch size " + batchSize);
+			}
+
+			eventRecorder = new EventRecorder(databaseWriter, queueCapacity, batchSize);
+			eventRecorder.start();
+		}
+	}
+
+	private void restoreDowntime() {
+		try {
+			downtimeTracker.restore();
+		} catch (Exception e) {
+			// the snapshot is left as it is for the next start
+			throw new IllegalStateException("Unable to restore the open downtime: " + e.getMessage(), e);
+		}
+	}
+
+	// as configured, else next to the event journal, else in the data folder
+	// under the user's home so that it survives a restart
+	static File getDowntimeSnapshot(Registration config) {
+		String snapshot = config.getInitParameter("downtimeSnapshot");
+
+		if (snapshot != null && snapshot.trim().length() > 0) {
+			return new File(snapshot.trim());
+		}
+
+		String journalDirectory = config.getInitParameter("journalDirectory");
 
-		isInitialized = true;
+		if (journalDirectory != null && journalDirectory.trim().length() > 0) {
+			return new File(journalDirectory.trim(), DowntimeTracker.SNAPSHOT_NAME);
+		}
+		return new File(new File(System.getProperty("user.home"), DEFAULT_DATA_FOLDER), DowntimeTracker.SNAPSHOT_NAME);
 	}
 
-	private void startupCollector() throws Exception {
-		// startup server
-		collectorService.startup();
+	private void startupEventBus(Registration config) {
+		// UI push settings
+		int pushInterval = getIntParameter(config, "pushInterval", EventBus.DEFAULT_PUSH_INTERVAL);
+		int maxPushes = getIntParameter(config, "maxPushesPerInterval", EventBus.DEFAULT_MAX_PUSHES);
+
+		eventBus = new EventBus(pushInterval, maxPushes);
+		eventBus.start();
+	}
+
+	private void warmUpReferenceData() {
+		// a failure here only means the first UI loads the data itself
+		try {
+			reasonCatalog.getSnapshot();
+			materialCatalog.getCategories();
+			materialCatalog.buildSearchIndex();
+			OperationsQueries.countChildEntities(null);
+		} catch (Exception e) {
+			logger.error("Reference data warm-up failed: " + e.getMessage());
+		}
+	}
+
+	private void startupCluster(String broker, int partitions) {
+		PartitionTransport transport = CLUSTER_LOCAL.equals(broker) ? new LocalPartitionTransport(partitions)
+				: new AmqpPartitionTransport(broker, partitions);
+
+		if (logger.isInfoEnabled()) {
+			logger.info("Starting clustered recording with " + partitions + " partitions on "
+					+ transport.getClass().getSimpleName());
+		}
+
+		ClusterRecorder recorder = new ClusterRecorder(transport, databaseWriter, this::onRecordedInCluster);
+
+		try {
+			recorder.start();
+		} catch (Exception e) {
+			// recording is the point of the application
+			throw new IllegalStateException("Unable to start clustered recording: " + e.getMessage(), e);
+		}
+		clusterRecorder = recorder;
+	}
+
+	// written by whichever node consumes the partition, including this one
+	private void onRecordedInCluster(List<OeeEvent> events) {
+		for (OeeEvent event : events) {
+			if (event.getEventType() == OeeEventType.MATL_CHANGE) {
+				setupCache.onSetupRecorded(event);
+			}
+			onWritten(event);
+		}
+	}
+
+	// written to the database by the journal replayer, including events
+	// journaled before a restart
+	private void onReplayed(List<OeeEvent> events) {
+		for (OeeEvent event : events) {
+			onWritten(event);
+		}
+	}
+
+	// other sessions on the same equipment see it and its effect on the KPIs
+	private void onWritten(OeeEvent event) {
+		kpiAggregator.fold(event);
+
+		EventBus bus = eventBus;
+		if (bus != null) {
+			bus.publish(event);
+		}
+	}
+
+	private void startupJournal(File directory, int segmentSize, int syncInterval) {
+		if (logger.isInfoEnabled()) {
+			logger.info("Opening event journal in " + directory);
+		}
+
+		EventJournal journal = new EventJournal(directory, segmentSize, syncInterval);
+
+		try {
+			// replays anything left from the last run
+			journal.open();
+
+			journalReplayer = new JournalReplayer(journal, databaseWriter, this::onReplayed);
+			journalReplayer.start();
+
+			eventJournal = journal;
+		} catch (IOException e) {
+			logger.error("Unable to open the event journal, recording directly: " + e.getMessage());
+		}
+	}
+
+	// called on the writer or replayer thread
+	private void writeEvent(OeeEvent event) throws Exception {
+		long start = System.nanoTime();
+
+		try {
+			collectorService.recordResolution(event);
+		} finally {
+			Metrics.RECORD_RESOLUTION.recordSince(start);
+		}
+	}
+
+	// a group of production events is saved in one transaction. Unlike an
+	// availability or setup event, which closes off the previous one of its type,
+	// a production event is saved on its own, so nothing else the collector
+	// would write is left out. Any other group, e.g. from a node of another
+	// version, is resolved by the collector one event at a time.
+	private void writeEvents(List<OeeEvent> events) throws Exception {
+		if (events.size() == 1 || !isProduction(events)) {
+			for (OeeEvent event : events) {
+				writeEvent(event);
+			}
+			return;
+		}
+
+		long start = System.nanoTime();
+
+		try {
+			OperationsQueries.saveEvents(events);
+		} finally {
+			Metrics.RECORD_RESOLUTION.recordSince(start);
+		}
+	}
+
+	static boolean isProduction(List<OeeEvent> events) {
+		for (OeeEvent event : events) {
+			OeeEventType type = event.getEventType();
+
+			if (type != OeeEventType.PROD_GOOD && type != OeeEventType.PROD_REJECT
+					&& type != OeeEventType.PROD_STARTUP) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void registerGauges() {
+		Metrics.gauge("setup_cache_hits", setupCache::getHitCount);
+		Metrics.gauge("setup_cache_misses", setupCache::getMissCount);
+		Metrics.gauge("material_cache_hits", materialCatalog::getHitCount);
+		Metrics.gauge("material_cache_misses", materialCatalog::getMissCount);
+		Metrics.gauge("entity_nodes", entityNodeRegistry::size);
+		Metrics.gauge("kpi_equipment", kpiAggregator::size);
+		Metrics.gauge("downtime_open", () -> downtimeTracker != null ? downtimeTracker.size() : 0);
+		Metrics.gauge("downtime_watchers", () -> downtimeTracker != null ? downtimeTracker.getWatcherCount() : 0);
+		Metrics.gauge("downtime_snapshot_failures",
+				() -> downtimeTracker != null ? downtimeTracker.getSnapshotFailures() : 0);
+		Metrics.gauge("downtime_unrecorded", () -> downtimeTracker != null ? downtimeTracker.getUnrecordedCount() : 0);
+		Metrics.gauge("downtime_summary_retries",
+				() -> downtimeTracker != null ? downtimeTracker.getSummaryRetries() : 0);
+		Metrics.gauge("downtime_unresolved", () -> downtimeTracker != null ? downtimeTracker.getUnresolvedCount() : 0);
+		Metrics.gauge("downtime_abandoned", () -> downtimeTracker != null ? downtimeTracker.getAbandonedCount() : 0);
+		Metrics.gauge("duplicate_submissions", idempotencyRegistry::getHitCount);
+		Metrics.gauge("idempotency_conflicts", idempotencyRegistry::getConflictCount);
+		Metrics.gauge("idempotency_keys", idempotencyRegistry::size);
+		Metrics.gauge("ready", () -> state == State.READY ? 1 : 0);
+		Metrics.gauge("self_check_problems", () -> selfCheckProblems);
+
+		Metrics.gauge("record_queue_depth", () -> eventRecorder != null ? eventRecorder.getQueueDepth() : 0);
+		Metrics.gauge("record_failed", () -> eventRecorder != null ? eventRecorder.getFailedCount() : 0);
+		Metrics.gauge("record_rejected", () -> eventRecorder != null ? eventRecorder.getRejectedCount() : 0);
+		Metrics.gauge("journal_pending", () -> eventJournal != null ? eventJournal.getPendingCount() : 0);
+		Metrics.gauge("journal_retries", () -> journalReplayer != null ? journalReplayer.getRetryCount() : 0);
+		Metrics.gauge("journal_rejected", () -> journalReplayer != null ? journalReplayer.getRejectedCount() : 0);
+
+		Metrics.gauge("cluster_written", () -> clusterRecorder != null ? clusterRecorder.getWrittenCount() : 0);
+		Metrics.gauge("cluster_rejected", () -> clusterRecorder != null ? clusterRecorder.getRejectedCount() : 0);
+		Metrics.gauge("cluster_retries",
+				() -> clusterRecorder != null ? clusterRecorder.getTransport().getRetryCount() : 0);
+
+		Metrics.gauge("event_bus_subscribers", () -> eventBus != null ? eventBus.getSubscriberCount() : 0);
+		Metrics.gauge("event_bus_ready", () -> eventBus != null ? eventBus.getReadyCount() : 0);
+		Metrics.gauge("event_bus_coalesced", () -> eventBus != null ? eventBus.getCoalescedCount() : 0);
+		Metrics.gauge("event_bus_delivered", () -> eventBus != null ? eventBus.getDeliveredCount() : 0);
+
+		Metrics.gauge("sessions_open", () -> sessionMonitor != null ? sessionMonitor.getSessionCount() : 0);
+		Metrics.gauge("sessions_released", () -> sessionMonitor != null ? sessionMonitor.getReleasedCount() : 0);
+		Metrics.gauge("heap_per_session_bytes",
+				() -> sessionMonitor != null ? sessionMonitor.getHeapPerSession() : 0);
+		Metrics.gauge("heap_collected_bytes", SessionMonitor::getCollectedHeap);
+
+		Metrics.gauge("fetch_active", () -> fetchExecutor != null ? fetchExecutor.getActiveCount() : 0);
+		Metrics.gauge("fetch_pending", () -> fetchExecutor != null ? fetchExecutor.getPendingCount() : 0);
+		Metrics.gauge("fetch_rejected", () -> fetchExecutor != null ? fetchExecutor.getRejectedCount() : 0);
+
+		Metrics.gauge("reference_polls",
+				() -> referenceDataMonitor != null ? referenceDataMonitor.getPollCount() : 0);
+		Metrics.gauge("reference_changes",
+				() -> referenceDataMonitor != null ? referenceDataMonitor.getChangeCount() : 0);
+	}
+
+	private static int getIntParameter(Registration config, String name, int defaultValue) {
+		String value = config.getInitParameter(name);
+
+		if (value == null || value.trim().length() == 0) {
+			return defaultValue;
+		}
+
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			logger.error("Invalid value " + value + " for parameter " + name + ", using " + defaultValue);
+			return defaultValue;
+		}
 	}
 
 	void shutdownCollector() throws Exception {
@@ -87,8 +614,336 @@ public final class AppServices {
 		}
 	}
 
-	synchronized void recordEvent(OeeEvent event) throws Exception {
-		collectorService.recordResolution(event);
+	void shutdownEventBus() {
+		if (eventBus != null) {
+			eventBus.stop();
+		}
+	}
+
+	void shutdownFetchExecutor() {
+		if (fetchExecutor != null) {
+			fetchExecutor.shutdown();
+		}
+	}
+
+	void shutdownSessionMonitor() {
+		if (sessionMonitor != null) {
+			sessionMonitor.stop();
+		}
+
+		if (referenceDataMonitor != null) {
+			referenceDataMonitor.stop();
+		}
+	}
+
+	void shutdownDowntimeTracker() {
+		// the snapshot is current, nothing to write
+		if (downtimeTracker != null) {
+			downtimeTracker.stop();
+		}
+	}
+
+	void shutdownRecorder() {
+		if (clusterRecorder != null) {
+			clusterRecorder.stop();
+		}
+
+		if (eventRecorder != null) {
+			eventRecorder.flush(flushTimeout);
+		}
+
+		if (eventJournal != null) {
+			// whatever is not replayed in time is kept for the next start
+			journalReplayer.stop(flushTimeout);
+			eventJournal.close();
+
+			if (logger.isInfoEnabled()) {
+				logger.info(journalReplayer.getStatistics());
+			}
+		}
+	}
+
+	State getState() {
+		return state;
+	}
+
+	CompletableFuture<Void> getReadiness() {
+		return readiness;
+	}
+
+	Map<String, Long> getStageTimes() {
+		return stageTimes;
+	}
+
+	EventBus getEventBus() {
+		return eventBus;
+	}
+
+	SessionMonitor getSessionMonitor() {
+		return sessionMonitor;
+	}
+
+	FetchExecutor getFetchExecutor() {
+		return fetchExecutor;
+	}
+
+	ReferenceDataMonitor getReferenceDataMonitor() {
+		return referenceDataMonitor;
+	}
+
+	DowntimeTracker getDowntimeTracker() {
+		return downtimeTracker;
+	}
+
+	EventRecorder getEventRecorder() {
+		return eventRecorder;
+	}
+
+	EventJournal getEventJournal() {
+		return eventJournal;
+	}
+
+	JournalReplayer getJournalReplayer() {
+		return journalReplayer;
+	}
+
+	SetupCache getSetupCache() {
+		return setupCache;
+	}
+
+	KpiAggregator getKpiAggregator() {
+		return kpiAggregator;
+	}
+
+	ReasonCatalog getReasonCatalog() {
+		return reasonCatalog;
 	}
 
+	ShiftResolver getShiftResolver() {
+		return shiftResolver;
+	}
+
+	MaterialCatalog getMaterialCatalog() {
+		return materialCatalog;
+	}
+
+	EntityNodeRegistry getEntityNodeRegistry() {
+		return entityNodeRegistry;
+	}
+
+	// record once per idempotency key, a repeat gets the first result
+	CompletableFuture<OeeEvent> recordEvent(OeeEvent event, String idempotencyKey) {
+		return idempotencyRegistry.submitOnce(idempotencyKey, () -> recordEvent(event));
+	}
+
+	CompletableFuture<List<OeeEvent>> recordEvents(List<OeeEvent> events, String idempotencyKey) {
+		return idempotencyRegistry.submitOnce(idempotencyKey, () -> recordEvents(events));
+	}
+
+	// the submit to durable latency is recorded by the recorder, journal or
+	// transport when the write completes
+	CompletableFuture<OeeEvent> recordEvent(OeeEvent event) {
+		CompletableFuture<OeeEvent> future;
+
+		if (clusterRecorder != null) {
+			future = clusterRecorder.submit(Collections.singletonList(event)).thenApply(recorded -> event);
+		} else if (eventJournal != null) {
+			future = journalEvent(event);
+		} else if (eventRecorder != null) {
+			future = eventRecorder.submit(event);
+		} else {
+			future = new CompletableFuture<>();
+			future.completeExceptionally(new Exception("The application services have not been initialized."));
+			return future;
+		}
+
+		onSubmitted(event, future);
+
+		return future;
+	}
+
+	// independent events, each recorded as if entered on its own. Completes
+	// with the failure of each event, null if recorded, so that a repeated key
+	// never records the successful ones twice. A repeated key with another
+	// fingerprint, i.e. other content, fails with a ConflictException.
+	CompletableFuture<List<Throwable>> recordEach(List<OeeEvent> events, String idempotencyKey,
+			String fingerprint) {
+		return idempotencyRegistry.submitOnce(idempotencyKey, fingerprint, () -> {
+			Throwable[] failures = new Throwable[events.size()];
+			CompletableFuture<?>[] futures = new CompletableFuture<?>[events.size()];
+
+			for (int i = 0; i < events.size(); i++) {
+				int index = i;
+				futures[i] = recordEvent(events.get(i)).whenComplete((recorded, failure) -> failures[index] = failure);
+			}
+
+			return CompletableFuture.allOf(futures).handle((result, failure) -> Arrays.asList(failures));
+		});
+	}
+
+	// a By Event availability entry. It ends the downtime open on the equipment
+	// at its event time and opens a new one, unless the reason is not a loss,
+	// i.e. the equipment is running again. Completes with the summary of the
+	// downtime ended, null if none.
+	CompletableFuture<OeeEvent> openDowntime(OeeEvent event) throws Exception {
+		OeeEvent previous = downtimeTracker.getOpen(event.getEquipment().getKey());
+
+		if (previous != null && previous.getReason().equals(event.getReason())) {
+			// already down for the reason, e.g. a repeated click
+			return CompletableFuture.completedFuture(null);
+		}
+
+		CompletableFuture<OeeEvent> closed = CompletableFuture.completedFuture(null);
+
+		if (previous != null) {
+			LocalDateTime endTime = event.getStartTime().atZoneSameInstant(ZoneId.systemDefault()).toLocalDateTime();
+			closed = closeDowntime(previous, endTime);
+		}
+
+		if (event.getReason().getLossCategory() != TimeLoss.NO_LOSS) {
+			downtimeTracker.open(event);
+		}
+		return closed;
+	}
+
+	// records the downtime open on the equipment as one summarized availability
+	// event up to the end time. Only the first of several sessions closing it
+	// records it. Completes with the summary, null if none.
+	CompletableFuture<OeeEvent> closeDowntime(Equipment equipment, LocalDateTime endTime) throws Exception {
+		OeeEvent opened = downtimeTracker.getOpen(equipment.getKey());
+		return opened != null ? closeDowntime(opened, endTime) : CompletableFuture.completedFuture(null);
+	}
+
+	// the summary is kept in the snapshot and retried until it is recorded, a
+	// failure is still reported to the operator
+	private CompletableFuture<OeeEvent> closeDowntime(OeeEvent opened, LocalDateTime endTime) throws Exception {
+		return downtimeTracker.close(opened, EventFactory.createDowntimeSummary(opened, endTime));
+	}
+
+	// null if not found
+	Equipment findEquipment(String name) {
+		Equipment equipment = equipmentCache.get(name, OperationsQueries::fetchEquipmentByName);
+
+		if (equipment == null) {
+			// may be added later
+			equipmentCache.invalidate(name);
+		}
+		return equipment;
+	}
+
+	// record a group of events all or none, e.g. end of shift production
+	// summaries, in one round trip. Production events only, see writeEvents.
+	CompletableFuture<List<OeeEvent>> recordEvents(List<OeeEvent> events) {
+		CompletableFuture<List<OeeEvent>> future;
+
+		if (!isProduction(events)) {
+			future = new CompletableFuture<>();
+			future.completeExceptionally(new Exception("Only production events can be recorded as a group."));
+			return future;
+		}
+
+		if (clusterRecorder != null) {
+			future = clusterRecorder.submit(events);
+		} else if (eventJournal != null) {
+			future = journalEvents(events);
+		} else if (eventRecorder != null) {
+			future = eventRecorder.submitAll(events);
+		} else {
+			future = new CompletableFuture<>();
+			future.completeExceptionally(new Exception("The application services have not been initialized."));
+			return future;
+		}
+
+		for (OeeEvent event : events) {
+			onSubmitted(event, future);
+		}
+
+		return future;
+	}
+
+	private void onSubmitted(OeeEvent event, CompletableFuture<?> future) {
+		// published once in the database. In a cluster every node is told when
+		// it is written, and the journal replayer tells this node, as the future
+		// of a journaled event completes when it is on local disk.
+		if (clusterRecorder == null && eventJournal == null) {
+			future.thenRun(() -> onWritten(event));
+		}
+
+		if (event.getEventType() == OeeEventType.MATL_CHANGE) {
+			// visible to the next event right away, reloaded if the write fails
+			SetupCache.CurrentSetup setup = setupCache.onSetupRecorded(event);
+
+			future.whenComplete((recorded, failure) -> {
+				if (failure != null) {
+					setupCache.invalidate(event.getEquipment(), setup);
+				}
+			});
+		}
+	}
+
+	// complete once the event is on local disk, the replayer writes it to the
+	// database
+	private CompletableFuture<OeeEvent> journalEvent(OeeEvent event) {
+		try {
+			return eventJournal.append(EventCodec.encode(event), event).thenApply(sequence -> event);
+		} catch (IOException e) {
+			CompletableFuture<OeeEvent> future = new CompletableFuture<>();
+			future.completeExceptionally(e);
+			return future;
+		}
+	}
+
+	// one journal record for the group
+	private CompletableFuture<List<OeeEvent>> journalEvents(List<OeeEvent> events) {
+		try {
+			return eventJournal.append(EventCodec.encodeAll(events), events).thenApply(sequence -> events);
+		} catch (IOException e) {
+			CompletableFuture<List<OeeEvent>> future = new CompletableFuture<>();
+			future.completeExceptionally(e);
+			return future;
+		}
+	}
+
+	private static final class DatabaseBackend implements Backend {
+		@Override
+		public List<Reason> fetchTopReasons() {
+			return PersistenceService.instance().fetchTopReasons();
+		}
+
+		@Override
+		public long fetchReasonVersion() {
+			return OperationsQueries.fetchReasonVersion();
+		}
+
+		@Override
+		public Reason fetchReasonByName(String name) {
+			return OperationsQueries.fetchReasonByName(name);
+		}
+
+		@Override
+		public OeeEvent fetchLastSetup(Equipment equipment) {
+			long start = System.nanoTime();
+
+			try {
+				return PersistenceService.instance().fetchLastEvent(equipment, OeeEventType.MATL_CHANGE);
+			} finally {
+				Metrics.FETCH_LAST_EVENT.recordSince(start);
+			}
+		}
+
+		@Override
+		public long fetchScheduleVersion() {
+			return OperationsQueries.fetchEntityVersion("WorkSchedule");
+		}
+
+		@Override
+		public WorkSchedule fetchWorkSchedule(Equipment equipment) throws Exception {
+			return OperationsQueries.fetchWorkSchedule(equipment);
+		}
+
+		@Override
+		public List<OeeEvent> fetchShiftEvents(Equipment equipment, OffsetDateTime from) {
+			return OperationsQueries.fetchShiftEvents(equipment, from);
+		}
+	}
 }
@@ -0,0 +1,264 @@
+package org.point85.ops;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.point85.domain.collector.OeeEvent;
+import org.point85.domain.plant.Equipment;
+import org.point85.domain.plant.Material;
+import org.point85.domain.plant.Reason;
+import org.point85.domain.script.OeeEventType;
+
+import com.vaadin.icons.VaadinIcons;
+import com.vaadin.ui.Button;
+import com.vaadin.ui.ComboBox;
+import com.vaadin.ui.DateTimeField;
+import com.vaadin.ui.Grid;
+import com.vaadin.ui.Grid.SelectionMode;
+import com.vaadin.ui.HorizontalLayout;
+import com.vaadin.ui.Notification;
+import com.vaadin.ui.TextField;
+import com.vaadin.ui.VerticalLayout;
+import com.vaadin.ui.renderers.LocalDateTimeRenderer;
+import com.vaadin.ui.themes.ValoTheme;
+
+// grid of end of shift production summaries, validated together and
+// recorded in one call
+class BulkProductionLayout extends VerticalLayout {
+	private static final long serialVersionUID = -2316815418064372925L;
+
+	private static final String DATE_TIME_FORMAT = "yyyy-MM-dd HH:mm";
+
+	private static final String VALID = "OK";
+
+	// rows per session
+	private static final int MAX_ENTRIES = 200;
+
+	private final OperationsView operationsView;
+	private final OperationsPresenter operationsPresenter;
+	private final OperationsUI ui;
+
+	private final List<ProductionEntry> entries = new ArrayList<>();
+
+	// idempotency key of the entries, renewed on any change
+	private final SubmissionKey submissionKey = new SubmissionKey();
+
+	private Grid<ProductionEntry> gridEntries;
+	private Button btnRecordAll;
+
+	BulkProductionLayout(OperationsView view, OperationsPresenter presenter, OperationsUI ui) {
+		this.operationsView = view;
+		this.operationsPresenter = presenter;
+		this.ui = ui;
+
+		setMargin(true);
+		setSizeFull();
+
+		HorizontalLayout buttonLayout = createButtonLayout();
+		addComponents(buttonLayout, createEntryGrid());
+		setExpandRatio(gridEntries, 1.0f);
+	}
+
+	private HorizontalLayout createButtonLayout() {
+		Button btnAdd = new Button("Add Row");
+		btnAdd.setIcon(VaadinIcons.PLUS);
+		btnAdd.setDescription("Add a production summary");
+		btnAdd.addClickListener(event -> {
+			try {
+				addEntry();
+			} catch (Exception e) {
+				operationsView.onException(e);
+			}
+		});
+
+		Button btnRemove = new Button("Remove Row");
+		btnRemove.setIcon(VaadinIcons.MINUS);
+		btnRemove.setDescription("Remove the selected production summary");
+		btnRemove.addClickListener(event -> removeEntry());
+
+		Button btnClear = new Button("Clear");
+		btnClear.setIcon(VaadinIcons.ERASER);
+		btnClear.setDescription("Remove all production summaries");
+		btnClear.addClickListener(event -> clearEntries());
+
+		btnRecordAll = new Button("Record All");
+		btnRecordAll.setIcon(VaadinIcons.NOTEBOOK);
+		btnRecordAll.setEnabled(false);
+		btnRecordAll.setStyleName(ValoTheme.BUTTON_PRIMARY);
+		btnRecordAll.setDescription("Validate and record all production summaries");
+		btnRecordAll.addClickListener(event -> {
+			try {
+				recordEntries();
+			} catch (Exception e) {
+				operationsView.onException(e);
+			}
+		});
+
+		HorizontalLayout layout = new HorizontalLayout();
+		layout.setMargin(false);
+		layout.addComponents(btnAdd, btnRemove, btnClear, btnRecordAll);
+		return layout;
+	}
+
+	private Grid<ProductionEntry> createEntryGrid() {
+		gridEntries = new Grid<>();
+		gridEntries.setCaption("Production Summaries (double-click a row to edit)");
+		gridEntries.setSizeFull();
+		gridEntries.setSelectionMode(SelectionMode.SINGLE);
+		gridEntries.setItems(entries);
+
+		ComboBox<String> cbType = new ComboBox<>();
+		cbType.setItems(OperationsView.PROD_GOOD, OperationsView.PROD_REJECT, OperationsView.PROD_STARTUP);
+		cbType.setEmptySelectionAllowed(false);
+
+		gridEntries.addColumn(ProductionEntry::getProductionType).setCaption("Production Type")
+				.setEditorComponent(cbType, ProductionEntry::setProductionType);
+
+		gridEntries.addColumn(ProductionEntry::getAmount).setCaption("Quantity")
+				.setEditorComponent(new TextField(), ProductionEntry::setAmount);
+
+		gridEntries.addColumn(ProductionEntry::getReasonName).setCaption("Reason")
+				.setEditorComponent(new TextField(), ProductionEntry::setReasonName);
+
+		gridEntries.addColumn(ProductionEntry::getStartTime, new LocalDateTimeRenderer(DATE_TIME_FORMAT))
+				.setCaption(OperationsView.FROM_TIME)
+				.setEditorComponent(new DateTimeField(), ProductionEntry::setStartTime);
+
+		gridEntries.addColumn(ProductionEntry::getEndTime, new LocalDateTimeRenderer(DATE_TIME_FORMAT))
+				.setCaption(OperationsView.TO_TIME).setEditorComponent(new DateTimeField(), ProductionEntry::setEndTime);
+
+		gridEntries.addColumn(ProductionEntry::getStatus).setCaption("Status");
+
+		gridEntries.getEditor().setEnabled(true);
+		gridEntries.getEditor().setBuffered(false);
+		gridEntries.getEditor().addOpenListener(event -> submissionKey.renew());
+
+		return gridEntries;
+	}
+
+	// enable for equipment
+	void setEquipmentSelected(boolean selected) {
+		btnRecordAll.setEnabled(selected);
+		submissionKey.renew();
+	}
+
+	private void addEntry() throws Exception {
+		if (entries.size() >= MAX_ENTRIES) {
+			throw new Exception("No more than " + MAX_ENTRIES + " production summaries can be entered at once.");
+		}
+
+		// continue from the previous period
+		LocalDateTime startTime;
+		LocalDateTime endTime;
+		String type = OperationsView.PROD_GOOD;
+
+		if (entries.isEmpty()) {
+			endTime = LocalDateTime.now().withSecond(0).withNano(0);
+			startTime = endTime.minusHours(1);
+		} else {
+			ProductionEntry last = entries.get(entries.size() - 1);
+			startTime = last.getStartTime();
+			endTime = last.getEndTime();
+			type = last.getProductionType();
+		}
+
+		entries.add(new ProductionEntry(type, startTime, endTime));
+		submissionKey.renew();
+		gridEntries.getDataProvider().refreshAll();
+	}
+
+	private void removeEntry() {
+		gridEntries.getSelectedItems().forEach(entries::remove);
+		submissionKey.renew();
+		gridEntries.getDataProvider().refreshAll();
+	}
+
+	private void clearEntries() {
+		entries.clear();
+		submissionKey.renew();
+		gridEntries.getDataProvider().refreshAll();
+	}
+
+	private void recordEntries() throws Exception {
+		if (entries.isEmpty()) {
+			throw new Exception("There are no production summaries to record.");
+		}
+
+		Equipment equipment = operationsView.getSelectedEquipment();
+
+		if (equipment == null) {
+			throw new Exception("Equipment must be selected.");
+		}
+
+		// validate every row before recording any of them
+		Material material = operationsPresenter.getCurrentSetup(equipment).getMaterial();
+		List<OeeEvent> events = new ArrayList<>(entries.size());
+		int invalid = 0;
+
+		for (ProductionEntry entry : entries) {
+			try {
+				events.add(createEvent(equipment, material, entry));
+				entry.setStatus(VALID);
+			} catch (Exception e) {
+				entry.setStatus(e.getMessage());
+				invalid++;
+			}
+		}
+		gridEntries.getDataProvider().refreshAll();
+
+		if (invalid > 0) {
+			throw new Exception(invalid + " of " + entries.size() + " production summaries are not valid.");
+		}
+
+		btnRecordAll.setEnabled(false);
+
+		AppServices.instance().recordEvents(events, submissionKey.get()).whenComplete((recorded, failure) -> ui.push(() -> {
+			btnRecordAll.setEnabled(true);
+
+			if (failure != null) {
+				showException(failure);
+			} else {
+				Notification.show("Recorded " + recorded.size() + " production summaries.",
+						Notification.Type.TRAY_NOTIFICATION);
+				clearEntries();
+			}
+		}));
+	}
+
+	private OeeEvent createEvent(Equipment equipment, Material material, ProductionEntry entry) throws Exception {
+		OeeEventType type = OperationsView.toProductionType(entry.getProductionType());
+
+		// quantity produced
+		Double amount = null;
+		String value = entry.getAmount();
+
+		if (value != null && value.trim().length() > 0) {
+			try {
+				amount = Double.valueOf(value.trim());
+			} catch (NumberFormatException e) {
+				throw new Exception("The quantity " + value + " is not a number.");
+			}
+		}
+
+		// reason
+		Reason reason = null;
+		String reasonName = entry.getReasonName();
+
+		if (reasonName != null && reasonName.trim().length() > 0) {
+			reason = operationsPresenter.findReason(reasonName.trim());
+
+			if (reason == null) {
+				throw new Exception("The reason '" + reasonName + "' was not found in the database.");
+			}
+		}
+
+		return EventFactory.createProductionEvent(type, equipment, material, amount, reason, entry.getStartTime(),
+				entry.getEndTime());
+	}
+
+	private void showException(Throwable failure) {
+		Throwable cause = failure.getCause() != null ? failure.getCause() : failure;
+		Notification.show(cause.getMessage(), Notification.Type.ERROR_MESSAGE);
+	}
+}
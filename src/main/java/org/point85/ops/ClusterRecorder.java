@@ -0,0 +1,121 @@
+package org.point85.ops;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.point85.domain.collector.OeeEvent;
+import org.point85.ops.EventRecorder.EventWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// clustered recording: any node accepts an event and sends it to the
+// partition of its equipment. The node consuming that partition writes it to
+// the database and announces it to all nodes.
+class ClusterRecorder {
+	// logger
+	private static final Logger logger = LoggerFactory.getLogger(ClusterRecorder.class);
+
+	// defaults
+	static final int DEFAULT_PARTITIONS = 16;
+
+	private final PartitionTransport transport;
+
+	private final EventWriter eventWriter;
+
+	// events written by any node
+	private final Consumer<List<OeeEvent>> recordedListener;
+
+	// of the entities referenced by a payload
+	private final EventCodec.EntityFinder entityFinder;
+
+	// statistics
+	private final AtomicLong sentCount = new AtomicLong();
+	private final AtomicLong writtenCount = new AtomicLong();
+
+	ClusterRecorder(PartitionTransport transport, EventWriter eventWriter,
+			Consumer<List<OeeEvent>> recordedListener) {
+		this(transport, eventWriter, OperationsQueries::findByKey, recordedListener);
+	}
+
+	ClusterRecorder(PartitionTransport transport, EventWriter eventWriter, EventCodec.EntityFinder entityFinder,
+			Consumer<List<OeeEvent>> recordedListener) {
+		this.transport = transport;
+		this.eventWriter = eventWriter;
+		this.entityFinder = entityFinder;
+		this.recordedListener = recordedListener;
+	}
+
+	void start() throws Exception {
+		transport.start(this::write, this::onRecorded);
+	}
+
+	// complete once the transport has the events. A group must be for one
+	// equipment.
+	CompletableFuture<List<OeeEvent>> submit(List<OeeEvent> events) {
+		try {
+			byte[] payload = events.size() == 1 ? EventCodec.encode(events.get(0)) : EventCodec.encodeAll(events);
+			int partition = partitionOf(events.get(0).getEquipment().getKey());
+
+			sentCount.addAndGet(events.size());
+			return transport.send(partition, payload).thenApply(sent -> events);
+		} catch (Exception e) {
+			CompletableFuture<List<OeeEvent>> future = new CompletableFuture<>();
+			future.completeExceptionally(e);
+			return future;
+		}
+	}
+
+	int partitionOf(Long equipmentKey) {
+		// spread sequential keys
+		int hash = Long.hashCode(equipmentKey) * 0x9E3779B9;
+		return Math.floorMod(hash, transport.getPartitionCount());
+	}
+
+	// on the consuming node, a thrown exception redelivers the payload if
+	// transient and otherwise has the transport set it aside, e.g. an
+	// undecodable payload
+	private void write(byte[] payload) throws Exception {
+		List<OeeEvent> events = EventCodec.decodeAll(payload, entityFinder);
+
+		eventWriter.writeAll(events);
+		writtenCount.addAndGet(events.size());
+
+		transport.announce(payload);
+	}
+
+	private void onRecorded(byte[] payload) throws Exception {
+		recordedListener.accept(EventCodec.decodeAll(payload, entityFinder));
+	}
+
+	void stop() {
+		transport.close();
+
+		if (logger.isInfoEnabled()) {
+			logger.info(getStatistics());
+		}
+	}
+
+	PartitionTransport getTransport() {
+		return transport;
+	}
+
+	long getSentCount() {
+		return sentCount.get();
+	}
+
+	long getWrittenCount() {
+		return writtenCount.get();
+	}
+
+	long getRejectedCount() {
+		return transport.getRejectedCount();
+	}
+
+	String getStatistics() {
+		return String.format("Cluster recorder: %d partitions, sent %d, written %d, retries %d, rejected %d",
+				transport.getPartitionCount(), getSentCount(), getWrittenCount(), transport.getRetryCount(),
+				getRejectedCount());
+	}
+}
@@ -0,0 +1,51 @@
+package org.point85.ops;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Vaadin servlet settings filtered in from the Maven build profile
+final class DeploymentSettings {
+	// logger
+	private static final Logger logger = LoggerFactory.getLogger(DeploymentSettings.class);
+
+	private static final String RESOURCE = "/deployment.properties";
+
+	static final String PRODUCTION_MODE = "productionMode";
+	static final String RESOURCE_CACHE_TIME = "resourceCacheTime";
+
+	private DeploymentSettings() {
+		// static methods only
+	}
+
+	static Properties load() {
+		Properties settings = new Properties();
+
+		try (InputStream in = DeploymentSettings.class.getResourceAsStream(RESOURCE)) {
+			if (in != null) {
+				settings.load(in);
+			}
+		} catch (IOException e) {
+			logger.error("Unable to read " + RESOURCE + ": " + e.getMessage());
+		}
+
+		// not filtered, e.g. run from an IDE
+		settings.entrySet().removeIf(entry -> entry.getValue().toString().startsWith("${"));
+
+		return settings;
+	}
+
+	// settings not already given as servlet init-params
+	static void applyDefaults(Properties initParameters) {
+		Properties settings = load();
+
+		for (String name : settings.stringPropertyNames()) {
+			if (!initParameters.containsKey(name)) {
+				initParameters.setProperty(name, settings.getProperty(name));
+			}
+		}
+	}
+}
@@ -0,0 +1,522 @@
+package org.point85.ops;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.point85.domain.collector.OeeEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// downtime of each equipment that has been opened with a By Event availability
+// entry and not yet closed. It is shared by the UI sessions of the node, and
+// the sessions watching an equipment are told of it once per clock interval so
+// they can show the time elapsed. The open downtime is kept in a snapshot file
+// so that it survives a restart without a database query. A summary is kept in
+// the snapshot too until it has been recorded, and retried with back off if
+// recording it fails. Every attempt uses the same idempotency key, and a
+// summary still failing after MAX_ATTEMPTS is moved aside with the entries
+// that could not be restored.
+class DowntimeTracker {
+	// logger
+	private static final Logger logger = LoggerFactory.getLogger(DowntimeTracker.class);
+
+	// default clock interval (msec)
+	static final int DEFAULT_CLOCK_INTERVAL = 1000;
+
+	// snapshot in the journal folder unless configured
+	static final String SNAPSHOT_NAME = "open-downtime.bin";
+
+	// snapshot entries that could not be restored are kept in a file with this
+	// suffix and the time, in the snapshot format
+	private static final String UNRESOLVED_SUFFIX = ".unresolved-";
+
+	// snapshot format, then the entry count and the entries
+	private static final byte SNAPSHOT_FORMAT = 1;
+
+	// snapshot entry kinds
+	private static final byte OPEN_ENTRY = 1;
+	private static final byte SUMMARY_ENTRY = 2;
+
+	// summary retry back off (msec)
+	private static final long INITIAL_RETRY = 1000;
+	private static final long MAX_RETRY = 60000;
+
+	// attempts to record a summary before it is moved aside, several minutes
+	// with the back off
+	static final int MAX_ATTEMPTS = 10;
+
+	// receives the open downtime of the watched equipment on the clock thread,
+	// null once it is closed
+	interface DowntimeListener {
+		void onDowntime(Long equipmentKey, OeeEvent opened);
+	}
+
+	// records a downtime summary under an idempotency key, completing once it
+	// is durable
+	interface SummaryRecorder {
+		CompletableFuture<OeeEvent> record(OeeEvent summary, String idempotencyKey);
+	}
+
+	// the opening event by equipment key
+	private final ConcurrentMap<Long, OeeEvent> openDowntime = new ConcurrentHashMap<>();
+
+	// summaries of closed downtime not recorded yet
+	private final Queue<Unrecorded> unrecorded = new ConcurrentLinkedQueue<>();
+
+	// watchers by equipment key
+	private final ConcurrentMap<Long, Set<Watcher>> watchers = new ConcurrentHashMap<>();
+
+	// null if kept in memory only
+	private final File snapshotFile;
+
+	// (msec)
+	private final long clockInterval;
+
+	private final SummaryRecorder summaryRecorder;
+
+	// of the entities referenced by a snapshot entry
+	private final EventCodec.EntityFinder entityFinder;
+
+	private ScheduledExecutorService clock;
+
+	// the snapshot is not rewritten before it has been restored
+	private volatile boolean restored = false;
+
+	// statistics
+	private final AtomicLong openedCount = new AtomicLong();
+	private final AtomicLong closedCount = new AtomicLong();
+	private final AtomicLong snapshotFailures = new AtomicLong();
+	private final AtomicLong summaryRetries = new AtomicLong();
+	private final AtomicLong unresolvedCount = new AtomicLong();
+	private final AtomicLong abandonedCount = new AtomicLong();
+
+	DowntimeTracker(File snapshotFile, long clockInterval, SummaryRecorder summaryRecorder) {
+		this(snapshotFile, clockInterval, summaryRecorder, OperationsQueries::findByKey);
+	}
+
+	DowntimeTracker(File snapshotFile, long clockInterval, SummaryRecorder summaryRecorder,
+			EventCodec.EntityFinder entityFinder) {
+		this.snapshotFile = snapshotFile;
+		this.clockInterval = clockInterval;
+		this.summaryRecorder = summaryRecorder;
+		this.entityFinder = entityFinder;
+	}
+
+	// the downtime still open and the summaries not recorded at the last
+	// shutdown. Entities are looked up again by key, one entry at a time. An
+	// entry whose equipment or reason no longer exists is moved aside, any other
+	// failure leaves the snapshot as it is and fails the restore.
+	synchronized void restore() throws Exception {
+		if (snapshotFile == null || !snapshotFile.exists()) {
+			restored = true;
+			return;
+		}
+
+		byte[] snapshot = Files.readAllBytes(snapshotFile.toPath());
+		List<SnapshotEntry> entries;
+
+		try {
+			entries = decodeEntries(snapshot);
+		} catch (IOException e) {
+			// the whole snapshot is kept aside
+			logger.error("Unable to read the open downtime from " + snapshotFile + ": " + e.getMessage());
+			moveAside(snapshot);
+			unresolvedCount.incrementAndGet();
+			entries = new ArrayList<>();
+		}
+
+		List<SnapshotEntry> unresolved = new ArrayList<>();
+
+		for (SnapshotEntry entry : entries) {
+			try {
+				restore(entry.kind, EventCodec.decode(entry.payload, entityFinder));
+			} catch (EventCodec.UndecodableException e) {
+				logger.error("Unable to restore a downtime entry from " + snapshotFile + ": " + e.getMessage());
+				unresolved.add(entry);
+			}
+		}
+
+		if (!unresolved.isEmpty()) {
+			moveAside(encodeEntries(unresolved));
+			unresolvedCount.addAndGet(unresolved.size());
+		}
+
+		restored = true;
+		writeSnapshot();
+
+		if (logger.isInfoEnabled()) {
+			logger.info("Restored " + (entries.size() - unresolved.size()) + " downtime entries from " + snapshotFile);
+		}
+	}
+
+	private void restore(byte kind, OeeEvent event) {
+		if (kind == OPEN_ENTRY) {
+			openDowntime.putIfAbsent(event.getEquipment().getKey(), event);
+		} else {
+			// recorded on the next clock tick
+			unrecorded.add(new Unrecorded(event, false));
+		}
+	}
+
+	private void moveAside(byte[] entries) throws IOException {
+		File aside = new File(snapshotFile.getAbsoluteFile().getParentFile(),
+				snapshotFile.getName() + UNRESOLVED_SUFFIX + System.currentTimeMillis());
+		Files.write(aside.toPath(), entries);
+
+		logger.warn("Downtime entries that could not be restored or recorded were moved to " + aside);
+	}
+
+	synchronized void start() {
+		if (clock != null) {
+			return;
+		}
+
+		clock = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "oee-downtime-clock");
+			thread.setDaemon(true);
+			return thread;
+		});
+		clock.scheduleWithFixedDelay(this::tick, clockInterval, clockInterval, TimeUnit.MILLISECONDS);
+	}
+
+	synchronized void stop() {
+		if (clock != null) {
+			clock.shutdownNow();
+			clock = null;
+		}
+	}
+
+	Watcher register(DowntimeListener listener) {
+		return new Watcher(listener);
+	}
+
+	// the opening event, null if the equipment is not down
+	OeeEvent getOpen(Long equipmentKey) {
+		return openDowntime.get(equipmentKey);
+	}
+
+	// replaces any downtime open on the equipment
+	void open(OeeEvent event) {
+		Long equipmentKey = event.getEquipment().getKey();
+
+		openDowntime.put(equipmentKey, event);
+		openedCount.incrementAndGet();
+
+		writeSnapshot();
+		notifyWatchers(equipmentKey, event);
+	}
+
+	// records the summary of the downtime closed. The summary replaces the open
+	// downtime in the snapshot and stays there until it is recorded, a failure
+	// is retried on the clock thread. Completes with null if the downtime was
+	// closed or replaced meanwhile, e.g. by another session.
+	CompletableFuture<OeeEvent> close(OeeEvent opened, OeeEvent summary) {
+		Long equipmentKey = opened.getEquipment().getKey();
+
+		if (!openDowntime.remove(equipmentKey, opened)) {
+			return CompletableFuture.completedFuture(null);
+		}
+		closedCount.incrementAndGet();
+
+		Unrecorded entry = new Unrecorded(summary, true);
+		unrecorded.add(entry);
+
+		writeSnapshot();
+		notifyWatchers(equipmentKey, null);
+
+		return record(entry);
+	}
+
+	// the same for every attempt and after a restart
+	static String summaryKey(OeeEvent summary) {
+		return "downtime:" + summary.getEquipment().getKey() + ":" + summary.getStartTime().toInstant().toEpochMilli();
+	}
+
+	private CompletableFuture<OeeEvent> record(Unrecorded entry) {
+		CompletableFuture<OeeEvent> future;
+		entry.attempts++;
+
+		try {
+			future = summaryRecorder.record(entry.summary, summaryKey(entry.summary));
+		} catch (Exception e) {
+			future = new CompletableFuture<>();
+			future.completeExceptionally(e);
+		}
+
+		return future.whenComplete((recorded, failure) -> {
+			if (failure == null) {
+				unrecorded.remove(entry);
+				writeSnapshot();
+			} else if (entry.attempts >= MAX_ATTEMPTS) {
+				logger.error("Unable to record the downtime summary of " + entry.summary.getEquipment().getName()
+						+ " after " + entry.attempts + " attempts: " + failure.getMessage());
+				abandon(entry);
+			} else {
+				logger.error("Unable to record the downtime summary of " + entry.summary.getEquipment().getName()
+						+ ", retrying in " + entry.wait + " ms: " + failure.getMessage());
+
+				entry.nextAttempt = System.currentTimeMillis() + entry.wait;
+				entry.wait = Math.min(entry.wait * 2, MAX_RETRY);
+				entry.recording.set(false);
+			}
+		});
+	}
+
+	// moved aside to be recorded by hand, retried if that fails
+	private void abandon(Unrecorded entry) {
+		if (snapshotFile != null) {
+			try {
+				List<SnapshotEntry> entries = new ArrayList<>();
+				entries.add(new SnapshotEntry(SUMMARY_ENTRY, EventCodec.encode(entry.summary)));
+				moveAside(encodeEntries(entries));
+			} catch (IOException e) {
+				logger.error("Unable to move the downtime summary aside: " + e.getMessage());
+
+				entry.nextAttempt = System.currentTimeMillis() + entry.wait;
+				entry.recording.set(false);
+				return;
+			}
+		}
+
+		abandonedCount.incrementAndGet();
+		unrecorded.remove(entry);
+		writeSnapshot();
+	}
+
+	// the whole snapshot is rewritten, there are only as many entries as
+	// equipment that is down or summaries waiting to be recorded
+	private synchronized void writeSnapshot() {
+		if (snapshotFile == null || !restored) {
+			// written once restored
+			return;
+		}
+
+		List<SnapshotEntry> entries = new ArrayList<>();
+
+		try {
+			for (OeeEvent event : openDowntime.values()) {
+				entries.add(new SnapshotEntry(OPEN_ENTRY, EventCodec.encode(event)));
+			}
+
+			for (Unrecorded entry : unrecorded) {
+				entries.add(new SnapshotEntry(SUMMARY_ENTRY, EventCodec.encode(entry.summary)));
+			}
+
+			if (entries.isEmpty()) {
+				Files.deleteIfExists(snapshotFile.toPath());
+				return;
+			}
+
+			File parent = snapshotFile.getAbsoluteFile().getParentFile();
+			if (!parent.exists() && !parent.mkdirs()) {
+				throw new IOException("Unable to create folder " + parent);
+			}
+
+			// replaced in one step so a crash leaves the previous snapshot
+			File temp = new File(parent, snapshotFile.getName() + ".tmp");
+			Files.write(temp.toPath(), encodeEntries(entries));
+			Files.move(temp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			// still tracked in memory
+			snapshotFailures.incrementAndGet();
+			logger.error("Unable to write the open downtime to " + snapshotFile + ": " + e.getMessage());
+		}
+	}
+
+	private static List<SnapshotEntry> decodeEntries(byte[] snapshot) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(snapshot));
+
+		byte format = in.readByte();
+		if (format != SNAPSHOT_FORMAT) {
+			throw new IOException("Unsupported snapshot format " + format);
+		}
+
+		int count = in.readInt();
+		List<SnapshotEntry> entries = new ArrayList<>(count);
+
+		for (int i = 0; i < count; i++) {
+			byte kind = in.readByte();
+			if (kind != OPEN_ENTRY && kind != SUMMARY_ENTRY) {
+				throw new IOException("Unknown downtime entry kind " + kind);
+			}
+
+			SnapshotEntry entry = new SnapshotEntry(kind, new byte[in.readInt()]);
+			in.readFully(entry.payload);
+			entries.add(entry);
+		}
+		return entries;
+	}
+
+	private static byte[] encodeEntries(List<SnapshotEntry> entries) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(128 * entries.size());
+		DataOutputStream out = new DataOutputStream(bytes);
+
+		out.writeByte(SNAPSHOT_FORMAT);
+		out.writeInt(entries.size());
+
+		for (SnapshotEntry entry : entries) {
+			out.writeByte(entry.kind);
+			out.writeInt(entry.payload.length);
+			out.write(entry.payload);
+		}
+
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	private void tick() {
+		try {
+			for (Map.Entry<Long, OeeEvent> entry : openDowntime.entrySet()) {
+				notifyWatchers(entry.getKey(), entry.getValue());
+			}
+
+			long now = System.currentTimeMillis();
+
+			for (Unrecorded entry : unrecorded) {
+				if (entry.nextAttempt <= now && entry.recording.compareAndSet(false, true)) {
+					summaryRetries.incrementAndGet();
+					record(entry);
+				}
+			}
+		} catch (Exception e) {
+			// keep the schedule running
+			logger.error("Downtime clock failed: " + e.getMessage());
+		}
+	}
+
+	private void notifyWatchers(Long equipmentKey, OeeEvent opened) {
+		Set<Watcher> watching = watchers.get(equipmentKey);
+
+		if (watching == null) {
+			return;
+		}
+
+		for (Watcher watcher : watching) {
+			watcher.listener.onDowntime(equipmentKey, opened);
+		}
+	}
+
+	int size() {
+		return openDowntime.size();
+	}
+
+	int getWatcherCount() {
+		int count = 0;
+		for (Set<Watcher> watching : watchers.values()) {
+			count += watching.size();
+		}
+		return count;
+	}
+
+	long getOpenedCount() {
+		return openedCount.get();
+	}
+
+	long getClosedCount() {
+		return closedCount.get();
+	}
+
+	long getSnapshotFailures() {
+		return snapshotFailures.get();
+	}
+
+	int getUnrecordedCount() {
+		return unrecorded.size();
+	}
+
+	long getSummaryRetries() {
+		return summaryRetries.get();
+	}
+
+	long getUnresolvedCount() {
+		return unresolvedCount.get();
+	}
+
+	// summaries moved aside after MAX_ATTEMPTS
+	long getAbandonedCount() {
+		return abandonedCount.get();
+	}
+
+	// an entry of the snapshot file
+	private static final class SnapshotEntry {
+		private final byte kind;
+		private final byte[] payload;
+
+		private SnapshotEntry(byte kind, byte[] payload) {
+			this.kind = kind;
+			this.payload = payload;
+		}
+	}
+
+	// a downtime summary waiting to be recorded
+	private static final class Unrecorded {
+		private final OeeEvent summary;
+
+		// a record is in progress
+		private final AtomicBoolean recording;
+
+		// (msec)
+		private volatile long nextAttempt;
+		private volatile long wait = INITIAL_RETRY;
+
+		// since it was closed or restored, one at a time
+		private volatile int attempts;
+
+		private Unrecorded(OeeEvent summary, boolean recording) {
+			this.summary = summary;
+			this.recording = new AtomicBoolean(recording);
+		}
+	}
+
+	// a UI session watching the selected equipment
+	final class Watcher {
+		private final DowntimeListener listener;
+
+		private Long equipmentKey;
+
+		private Watcher(DowntimeListener listener) {
+			this.listener = listener;
+		}
+
+		// in place of the equipment watched before, null for none
+		synchronized void watch(Long key) {
+			if (equipmentKey != null) {
+				watchers.computeIfPresent(equipmentKey, (k, watching) -> {
+					watching.remove(this);
+					return watching.isEmpty() ? null : watching;
+				});
+			}
+
+			if (key != null) {
+				// in the compute, as for the event bus
+				watchers.compute(key, (k, watching) -> {
+					Set<Watcher> added = watching != null ? watching : ConcurrentHashMap.newKeySet();
+					added.add(this);
+					return added;
+				});
+			}
+			equipmentKey = key;
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package org.point85.ops;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.point85.domain.plant.EntityLevel;
+import org.point85.domain.plant.PlantEntity;
+
+import com.vaadin.data.provider.AbstractBackEndHierarchicalDataProvider;
+import com.vaadin.data.provider.HierarchicalQuery;
+
+// plant entity tree loaded a page of children at a time
+class EntityDataProvider extends AbstractBackEndHierarchicalDataProvider<EntityNode, Void> {
+	private static final long serialVersionUID = -2870519316371834457L;
+
+	// top level entities fetched up front, more are queried a page at a time
+	static final int MAX_TOP_ENTITIES = 500;
+
+	// canonical nodes
+	private final EntityNodeRegistry nodeRegistry;
+
+	// top level entities fetched up front, null to query them a page at a time
+	private volatile List<PlantEntity> topEntities;
+
+	EntityDataProvider(EntityNodeRegistry nodeRegistry, List<PlantEntity> topEntities) {
+		this.nodeRegistry = nodeRegistry;
+		this.topEntities = topEntities;
+	}
+
+	// null if there are too many to fetch up front
+	static List<PlantEntity> fetchTopEntities() {
+		int count = OperationsQueries.countChildEntities(null);
+		return count <= MAX_TOP_ENTITIES ? OperationsQueries.fetchChildEntities(null, 0, count) : null;
+	}
+
+	// after a plant entity change, before the provider is refreshed
+	void setTopEntities(List<PlantEntity> topEntities) {
+		this.topEntities = topEntities;
+	}
+
+	@Override
+	public int getChildCount(HierarchicalQuery<EntityNode, Void> query) {
+		EntityNode parent = query.getParentOptional().orElse(null);
+
+		if (parent == null) {
+			return topEntities != null ? topEntities.size() : OperationsQueries.countChildEntities(null);
+		}
+		return getChildCount(parent);
+	}
+
+	@Override
+	public boolean hasChildren(EntityNode item) {
+		return getChildCount(item) > 0;
+	}
+
+	@Override
+	protected Stream<EntityNode> fetchChildrenFromBackEnd(HierarchicalQuery<EntityNode, Void> query) {
+		long start = System.nanoTime();
+
+		PlantEntity parent = query.getParentOptional().map(EntityNode::getEntity).orElse(null);
+		List<PlantEntity> children;
+
+		if (parent == null && topEntities != null) {
+			int from = Math.min(query.getOffset(), topEntities.size());
+			int to = Math.min(from + query.getLimit(), topEntities.size());
+			children = topEntities.subList(from, to);
+		} else {
+			children = OperationsQueries.fetchChildEntities(parent, query.getOffset(), query.getLimit());
+		}
+
+		Metrics.FETCH_ENTITIES.recordSince(start);
+
+		return children.stream().map(nodeRegistry::nodeFor);
+	}
+
+	@Override
+	public Object getId(EntityNode item) {
+		return item.getKey();
+	}
+
+	private int getChildCount(EntityNode node) {
+		int count = node.getChildCount();
+
+		if (count < 0) {
+			// equipment is the lowest level
+			if (node.getEntity().getLevel().equals(EntityLevel.EQUIPMENT)) {
+				count = 0;
+			} else {
+				count = OperationsQueries.countChildEntities(node.getEntity());
+			}
+			node.setChildCount(count);
+		}
+		return count;
+	}
+}
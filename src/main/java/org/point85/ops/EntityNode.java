@@ -1,38 +1,71 @@
 package org.point85.ops;
 
-import java.util.HashSet;
-import java.util.Set;
-
 import org.point85.domain.plant.PlantEntity;
 
 public class EntityNode {
 	private final PlantEntity entity;
 
+	// display text computed once
+	private final String text;
+
+	// number of children, -1 until counted
+	private volatile int childCount = -1;
+
 	EntityNode(PlantEntity entity) {
 		this.entity = entity;
+		this.text = createText(entity);
+	}
+
+	private static String createText(PlantEntity entity) {
+		String text = "";
+
+		if (entity != null) {
+			text = entity.getName() + " (" + entity.getDescription() + ")";
+		}
+
+		return text;
 	}
 
 	PlantEntity getEntity() {
 		return entity;
 	}
 
-	Set<EntityNode> getChildren() {
-		Set<EntityNode> children = new HashSet<>();
+	Long getKey() {
+		return entity.getKey();
+	}
 
-		for (PlantEntity childEntity : entity.getChildren()) {
-			children.add(new EntityNode(childEntity));
-		}
-		return children;
+	int getChildCount() {
+		return childCount;
+	}
+
+	void setChildCount(int childCount) {
+		this.childCount = childCount;
+	}
+
+	// true if the display text is still that of this entity
+	boolean isCurrent(PlantEntity other) {
+		return text.equals(createText(other));
 	}
 
 	@Override
-	public String toString() {
-		String text = "";
+	public boolean equals(Object other) {
+		if (this == other) {
+			return true;
+		}
 
-		if (entity != null) {
-			text = entity.getName() + " (" + entity.getDescription() + ")";
+		if (!(other instanceof EntityNode)) {
+			return false;
 		}
+		return getKey().equals(((EntityNode) other).getKey());
+	}
 
+	@Override
+	public int hashCode() {
+		return getKey().hashCode();
+	}
+
+	@Override
+	public String toString() {
 		return text;
 	}
 }
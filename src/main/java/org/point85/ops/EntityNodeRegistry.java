@@ -0,0 +1,34 @@
+package org.point85.ops;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.point85.domain.plant.PlantEntity;
+
+// one canonical tree node per plant entity, shared by all sessions and keyed
+// by the entity primary key
+class EntityNodeRegistry {
+	private final ConcurrentMap<Long, EntityNode> nodes = new ConcurrentHashMap<>();
+
+	EntityNode nodeFor(PlantEntity entity) {
+		EntityNode node = nodes.get(entity.getKey());
+
+		if (node != null && node.isCurrent(entity)) {
+			return node;
+		}
+
+		// new, or renamed since it was registered
+		return nodes.compute(entity.getKey(),
+				(key, existing) -> existing != null && existing.isCurrent(entity) ? existing : new EntityNode(entity));
+	}
+
+	// re-query children and names on next access, once the reference data
+	// monitor sees the plant entities change
+	void clear() {
+		nodes.clear();
+	}
+
+	int size() {
+		return nodes.size();
+	}
+}
@@ -0,0 +1,239 @@
+package org.point85.ops;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.point85.domain.collector.OeeEvent;
+import org.point85.domain.script.OeeEventType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// fans recorded events out to the UI sessions watching the equipment. Events
+// for the same equipment and type are coalesced to the latest, and each
+// subscriber is delivered at most one batch per interval.
+class EventBus {
+	// logger
+	private static final Logger logger = LoggerFactory.getLogger(EventBus.class);
+
+	// defaults for the delivery settings
+	static final int DEFAULT_PUSH_INTERVAL = 500;
+	static final int DEFAULT_MAX_PUSHES = 100;
+
+	// receives a batch of events on the bus thread
+	interface EventListener {
+		void onEvents(List<OeeEvent> events);
+	}
+
+	// subscribers by equipment key
+	private final ConcurrentMap<Long, Set<Subscriber>> subscriptions = new ConcurrentHashMap<>();
+
+	// subscribers with undelivered events
+	private final ConcurrentLinkedQueue<Subscriber> ready = new ConcurrentLinkedQueue<>();
+
+	// delivery interval (msec)
+	private final long pushInterval;
+
+	// deliveries per interval, the rest wait for the next
+	private final int maxPushes;
+
+	private ScheduledExecutorService dispatcher;
+
+	// statistics
+	private final AtomicLong publishedCount = new AtomicLong();
+	private final AtomicLong coalescedCount = new AtomicLong();
+	private final AtomicLong deliveredCount = new AtomicLong();
+
+	EventBus(long pushInterval, int maxPushes) {
+		this.pushInterval = pushInterval;
+		this.maxPushes = maxPushes;
+	}
+
+	synchronized void start() {
+		if (dispatcher != null) {
+			return;
+		}
+
+		dispatcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "oee-event-bus");
+			thread.setDaemon(true);
+			return thread;
+		});
+		dispatcher.scheduleWithFixedDelay(this::dispatch, pushInterval, pushInterval, TimeUnit.MILLISECONDS);
+	}
+
+	synchronized void stop() {
+		if (dispatcher != null) {
+			dispatcher.shutdownNow();
+			dispatcher = null;
+		}
+	}
+
+	Subscriber register(EventListener listener) {
+		return new Subscriber(listener);
+	}
+
+	void publish(OeeEvent event) {
+		publishedCount.incrementAndGet();
+
+		Set<Subscriber> subscribers = subscriptions.get(event.getEquipment().getKey());
+
+		if (subscribers == null) {
+			return;
+		}
+
+		for (Subscriber subscriber : subscribers) {
+			subscriber.offer(event);
+		}
+	}
+
+	private void dispatch() {
+		try {
+			Subscriber subscriber;
+			int pushes = 0;
+
+			while (pushes < maxPushes && (subscriber = ready.poll()) != null) {
+				if (subscriber.deliver()) {
+					pushes++;
+				}
+			}
+		} catch (Exception e) {
+			// keep the schedule running
+			logger.error("Event delivery failed: " + e.getMessage());
+		}
+	}
+
+	int getSubscriberCount() {
+		int count = 0;
+		for (Set<Subscriber> subscribers : subscriptions.values()) {
+			count += subscribers.size();
+		}
+		return count;
+	}
+
+	int getReadyCount() {
+		return ready.size();
+	}
+
+	long getPublishedCount() {
+		return publishedCount.get();
+	}
+
+	long getCoalescedCount() {
+		return coalescedCount.get();
+	}
+
+	long getDeliveredCount() {
+		return deliveredCount.get();
+	}
+
+	// a UI session's subscriptions and its undelivered events
+	final class Subscriber {
+		private final EventListener listener;
+
+		private final Set<Long> equipmentKeys = ConcurrentHashMap.newKeySet();
+
+		// latest event by equipment and type
+		private final ConcurrentMap<PendingKey, OeeEvent> pending = new ConcurrentHashMap<>();
+
+		// on the ready queue
+		private final AtomicBoolean queued = new AtomicBoolean();
+
+		private Subscriber(EventListener listener) {
+			this.listener = listener;
+		}
+
+		void subscribe(Long equipmentKey) {
+			if (equipmentKeys.add(equipmentKey)) {
+				// in the compute, so a concurrent removal of the empty set cannot
+				// drop it
+				subscriptions.compute(equipmentKey, (key, subscribers) -> {
+					Set<Subscriber> added = subscribers != null ? subscribers : ConcurrentHashMap.newKeySet();
+					added.add(this);
+					return added;
+				});
+			}
+		}
+
+		void unsubscribe(Long equipmentKey) {
+			if (equipmentKeys.remove(equipmentKey)) {
+				subscriptions.computeIfPresent(equipmentKey, (key, subscribers) -> {
+					subscribers.remove(this);
+					return subscribers.isEmpty() ? null : subscribers;
+				});
+			}
+		}
+
+		void unsubscribeAll() {
+			for (Long equipmentKey : equipmentKeys) {
+				unsubscribe(equipmentKey);
+			}
+			pending.clear();
+		}
+
+		private void offer(OeeEvent event) {
+			if (pending.put(new PendingKey(event.getEquipment().getKey(), event.getEventType()), event) != null) {
+				coalescedCount.incrementAndGet();
+			}
+
+			if (queued.compareAndSet(false, true)) {
+				ready.add(this);
+			}
+		}
+
+		private boolean deliver() {
+			queued.set(false);
+
+			List<OeeEvent> events = new ArrayList<>(pending.size());
+
+			for (PendingKey key : pending.keySet()) {
+				OeeEvent event = pending.remove(key);
+
+				if (event != null) {
+					events.add(event);
+				}
+			}
+
+			if (events.isEmpty()) {
+				return false;
+			}
+
+			deliveredCount.addAndGet(events.size());
+			listener.onEvents(events);
+			return true;
+		}
+	}
+
+	private static final class PendingKey {
+		private final Long equipmentKey;
+		private final OeeEventType eventType;
+
+		private PendingKey(Long equipmentKey, OeeEventType eventType) {
+			this.equipmentKey = equipmentKey;
+			this.eventType = eventType;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof PendingKey)) {
+				return false;
+			}
+			PendingKey key = (PendingKey) other;
+			return Objects.equals(equipmentKey, key.equipmentKey) && eventType == key.eventType;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(equipmentKey, eventType);
+		}
+	}
+}
@@ -0,0 +1,251 @@
+package org.point85.ops;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.point85.domain.collector.OeeEvent;
+import org.point85.domain.plant.Equipment;
+import org.point85.domain.plant.Material;
+import org.point85.domain.plant.Reason;
+import org.point85.domain.schedule.Shift;
+import org.point85.domain.schedule.Team;
+import org.point85.domain.script.OeeEventType;
+import org.point85.domain.uom.UnitOfMeasure;
+
+// compact binary form of an event. Referenced entities are written by primary
+// key and looked up again when decoded.
+final class EventCodec {
+	// format version
+	private static final byte VERSION = 1;
+
+	// a group of events written all or none
+	private static final byte GROUP = 2;
+
+	// null key
+	private static final long NO_KEY = -1;
+
+	private EventCodec() {
+		// static methods only
+	}
+
+	// looks up a referenced entity by primary key, null if it no longer exists
+	interface EntityFinder {
+		Object find(Class<?> entityClass, Long key) throws Exception;
+	}
+
+	// a payload that can never be decoded, e.g. malformed or referring to an
+	// entity that has been deleted. Any other failure, e.g. the database being
+	// unreachable, may pass when retried.
+	static final class UndecodableException extends Exception {
+		private static final long serialVersionUID = -3645710958367011620L;
+
+		UndecodableException(String message) {
+			super(message);
+		}
+	}
+
+	static byte[] encode(OeeEvent event) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+		DataOutputStream out = new DataOutputStream(bytes);
+
+		out.writeByte(VERSION);
+		writeEvent(out, event);
+
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	static byte[] encodeAll(List<OeeEvent> events) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(128 * events.size());
+		DataOutputStream out = new DataOutputStream(bytes);
+
+		out.writeByte(GROUP);
+		out.writeInt(events.size());
+
+		for (OeeEvent event : events) {
+			writeEvent(out, event);
+		}
+
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	private static void writeEvent(DataOutputStream out, OeeEvent event) throws IOException {
+		writeKey(out, event.getEquipment().getKey());
+		out.writeUTF(event.getEventType().name());
+		writeTime(out, event.getStartTime());
+		writeTime(out, event.getEndTime());
+
+		Duration duration = event.getDuration();
+		out.writeBoolean(duration != null);
+		if (duration != null) {
+			out.writeLong(duration.getSeconds());
+			out.writeInt(duration.getNano());
+		}
+
+		Double amount = event.getAmount();
+		out.writeBoolean(amount != null);
+		if (amount != null) {
+			out.writeDouble(amount);
+		}
+
+		writeKey(out, event.getUOM() != null ? event.getUOM().getKey() : null);
+		writeKey(out, event.getReason() != null ? event.getReason().getKey() : null);
+		writeKey(out, event.getMaterial() != null ? event.getMaterial().getKey() : null);
+		writeKey(out, event.getShift() != null ? event.getShift().getKey() : null);
+		writeKey(out, event.getTeam() != null ? event.getTeam().getKey() : null);
+		writeString(out, event.getJob());
+
+		Object inputValue = event.getInputValue();
+		writeString(out, inputValue != null ? inputValue.toString() : null);
+	}
+
+	static OeeEvent decode(byte[] payload) throws Exception {
+		return decode(payload, OperationsQueries::findByKey);
+	}
+
+	static OeeEvent decode(byte[] payload, EntityFinder entityFinder) throws Exception {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+
+		try {
+			byte version = in.readByte();
+			if (version != VERSION) {
+				throw new UndecodableException("Unsupported event format version " + version);
+			}
+
+			return readEvent(in, entityFinder);
+		} catch (IOException e) {
+			throw new UndecodableException("Malformed event: " + e.getMessage());
+		}
+	}
+
+	// a single event or a group
+	static List<OeeEvent> decodeAll(byte[] payload) throws Exception {
+		return decodeAll(payload, OperationsQueries::findByKey);
+	}
+
+	static List<OeeEvent> decodeAll(byte[] payload, EntityFinder entityFinder) throws Exception {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+
+		try {
+			byte version = in.readByte();
+
+			if (version == VERSION) {
+				return Collections.singletonList(readEvent(in, entityFinder));
+			} else if (version != GROUP) {
+				throw new UndecodableException("Unsupported event format version " + version);
+			}
+
+			int count = in.readInt();
+			List<OeeEvent> events = new ArrayList<>(count);
+
+			for (int i = 0; i < count; i++) {
+				events.add(readEvent(in, entityFinder));
+			}
+			return events;
+		} catch (IOException e) {
+			throw new UndecodableException("Malformed event: " + e.getMessage());
+		}
+	}
+
+	private static OeeEvent readEvent(DataInputStream in, EntityFinder entityFinder) throws Exception {
+		OeeEvent event = new OeeEvent(readEntity(in, Equipment.class, entityFinder));
+
+		String type = in.readUTF();
+		try {
+			event.setEventType(OeeEventType.valueOf(type));
+		} catch (IllegalArgumentException e) {
+			throw new UndecodableException("Unknown event type " + type);
+		}
+
+		event.setStartTime(readTime(in));
+		event.setEndTime(readTime(in));
+
+		if (in.readBoolean()) {
+			event.setDuration(Duration.ofSeconds(in.readLong(), in.readInt()));
+		}
+
+		if (in.readBoolean()) {
+			event.setAmount(in.readDouble());
+		}
+
+		event.setUOM(readEntity(in, UnitOfMeasure.class, entityFinder));
+		event.setReason(readEntity(in, Reason.class, entityFinder));
+		event.setMaterial(readEntity(in, Material.class, entityFinder));
+		event.setShift(readEntity(in, Shift.class, entityFinder));
+		event.setTeam(readEntity(in, Team.class, entityFinder));
+		event.setJob(readString(in));
+		event.setInputValue(readString(in));
+
+		return event;
+	}
+
+	// the equipment key of an encoded event, of the first event of a group
+	static long readEquipmentKey(byte[] payload) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+
+		if (in.readByte() == GROUP) {
+			in.readInt();
+		}
+		return in.readLong();
+	}
+
+	private static void writeKey(DataOutputStream out, Long key) throws IOException {
+		out.writeLong(key != null ? key : NO_KEY);
+	}
+
+	private static <T> T readEntity(DataInputStream in, Class<T> entityClass, EntityFinder entityFinder)
+			throws Exception {
+		long key = in.readLong();
+
+		if (key == NO_KEY) {
+			return null;
+		}
+
+		// a database failure is thrown as is, to be retried
+		T entity = entityClass.cast(entityFinder.find(entityClass, key));
+
+		if (entity == null) {
+			throw new UndecodableException(entityClass.getSimpleName() + " with key " + key + " no longer exists.");
+		}
+		return entity;
+	}
+
+	private static void writeTime(DataOutputStream out, OffsetDateTime time) throws IOException {
+		out.writeBoolean(time != null);
+		if (time != null) {
+			out.writeLong(time.toEpochSecond());
+			out.writeInt(time.getNano());
+			out.writeInt(time.getOffset().getTotalSeconds());
+		}
+	}
+
+	private static OffsetDateTime readTime(DataInputStream in) throws IOException {
+		if (!in.readBoolean()) {
+			return null;
+		}
+		Instant instant = Instant.ofEpochSecond(in.readLong(), in.readInt());
+		return OffsetDateTime.ofInstant(instant, ZoneOffset.ofTotalSeconds(in.readInt()));
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) {
+			out.writeUTF(value);
+		}
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+}
@@ -0,0 +1,147 @@
+package org.point85.ops;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+import org.point85.domain.DomainUtils;
+import org.point85.domain.collector.OeeEvent;
+import org.point85.domain.plant.Equipment;
+import org.point85.domain.plant.Material;
+import org.point85.domain.plant.Reason;
+import org.point85.domain.schedule.ShiftInstance;
+import org.point85.domain.script.OeeEventType;
+import org.point85.domain.uom.UnitOfMeasure;
+
+// builds and validates events from operator input for all of the entry forms
+// and the ingest API
+final class EventFactory {
+
+	private EventFactory() {
+		// static methods only
+	}
+
+	static OeeEvent createEvent(OeeEventType type, Equipment equipment, LocalDateTime startTime,
+			LocalDateTime endTime) throws Exception {
+		if (type == null) {
+			throw new Exception("The event type must be specified.");
+		}
+
+		if (equipment == null) {
+			throw new Exception("Equipment must be selected.");
+		}
+
+		if (startTime == null) {
+			throw new Exception("The event time must be specified.");
+		}
+
+		OeeEvent event = new OeeEvent(equipment);
+		event.setEventType(type);
+		event.setStartTime(DomainUtils.fromLocalDateTime(startTime));
+		event.setEndTime(DomainUtils.fromLocalDateTime(endTime));
+
+		// get the shift from the work schedule
+		ShiftInstance shift = AppServices.instance().getShiftResolver().resolve(equipment, startTime);
+
+		if (shift != null) {
+			event.setShift(shift.getShift());
+			event.setTeam(shift.getTeam());
+		}
+		return event;
+	}
+
+	// time lost for a reason while running the material. A null end time is a
+	// single event, otherwise a summary over the period.
+	static OeeEvent createAvailabilityEvent(Equipment equipment, Reason reason, Material material,
+			LocalDateTime startTime, LocalDateTime endTime, Duration duration) throws Exception {
+		if (reason == null) {
+			throw new Exception("A reason must be selected.");
+		}
+
+		if (startTime != null && endTime != null && endTime.isBefore(startTime)) {
+			throw new Exception("The end time cannot be before the start time.");
+		}
+
+		if (duration != null && duration.isNegative()) {
+			throw new Exception("The duration cannot be negative.");
+		}
+
+		OeeEvent event = createEvent(OeeEventType.AVAILABILITY, equipment, startTime, endTime);
+		event.setReason(reason);
+		event.setDuration(duration);
+		event.setInputValue(reason.getName());
+
+		// material being produced
+		event.setMaterial(material);
+
+		return event;
+	}
+
+	// the summary of downtime opened by a By Event entry, from its start to the
+	// end time
+	static OeeEvent createDowntimeSummary(OeeEvent opened, LocalDateTime endTime) throws Exception {
+		if (endTime == null) {
+			throw new Exception("The end time must be specified.");
+		}
+
+		LocalDateTime startTime = opened.getStartTime().atZoneSameInstant(ZoneId.systemDefault()).toLocalDateTime();
+
+		if (endTime.isBefore(startTime)) {
+			throw new Exception("The end time cannot be before the downtime started at " + startTime + ".");
+		}
+
+		return createAvailabilityEvent(opened.getEquipment(), opened.getReason(), opened.getMaterial(), startTime,
+				endTime, Duration.between(startTime, endTime));
+	}
+
+	// a change of the material being run and the job
+	static OeeEvent createSetupEvent(Equipment equipment, Material material, String job, LocalDateTime startTime)
+			throws Exception {
+		if (material == null) {
+			throw new Exception("Material must be specified.");
+		}
+
+		OeeEvent event = createEvent(OeeEventType.MATL_CHANGE, equipment, startTime, null);
+		event.setJob(job);
+		event.setMaterial(material);
+		event.setInputValue(material.getName());
+
+		return event;
+	}
+
+	// a good, reject or startup quantity of the material being run. A null end
+	// time is a single event, otherwise a summary over the period.
+	static OeeEvent createProductionEvent(OeeEventType type, Equipment equipment, Material material, Double amount,
+			Reason reason, LocalDateTime startTime, LocalDateTime endTime) throws Exception {
+		if (amount == null) {
+			throw new Exception("An amount must be specified.");
+		}
+
+		OeeEvent event = createEvent(type, equipment, startTime, endTime);
+
+		if (material == null) {
+			throw new Exception("The material being processed must be defined.");
+		}
+
+		UnitOfMeasure uom = equipment.getUOM(material, type);
+		if (uom == null) {
+			throw new Exception("The unit of measure has not been defined for material " + material.getName()
+					+ " for this type of production.");
+		}
+
+		if (endTime != null) {
+			if (endTime.isBefore(startTime)) {
+				throw new Exception("The end time cannot be before the start time.");
+			}
+			event.setDuration(Duration.between(startTime, endTime));
+		}
+
+		event.setAmount(amount);
+		event.setUOM(uom);
+		event.setReason(reason);
+		event.setMaterial(material);
+		event.setInputValue(String.valueOf(amount));
+
+		return event;
+	}
+}
@@ -0,0 +1,158 @@
+package org.point85.ops;
+
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.EnumSet;
+import java.util.Set;
+
+import org.point85.domain.collector.OeeEvent;
+import org.point85.domain.plant.Equipment;
+import org.point85.domain.script.OeeEventType;
+
+import com.vaadin.data.provider.ConfigurableFilterDataProvider;
+import com.vaadin.ui.CheckBoxGroup;
+import com.vaadin.ui.Grid;
+import com.vaadin.ui.Grid.SelectionMode;
+import com.vaadin.ui.VerticalLayout;
+import com.vaadin.ui.themes.ValoTheme;
+
+// events recorded for the selected equipment, newest first, filtered by type.
+// The grid reads the rows a page at a time as it is scrolled.
+class EventHistoryLayout extends VerticalLayout {
+	private static final long serialVersionUID = 3318437402178836120L;
+
+	private static final String EVENTS_CAPTION = "Recorded Events";
+
+	private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+	private CheckBoxGroup<OeeEventType> groupTypes;
+	private Grid<OeeEvent> gridEvents;
+
+	// of the selected equipment, null if none
+	private EventHistoryProvider historyProvider;
+	private ConfigurableFilterDataProvider<OeeEvent, Void, Set<OeeEventType>> filteredProvider;
+
+	// events were recorded while the tab was hidden
+	private boolean stale;
+
+	EventHistoryLayout() {
+		setMargin(true);
+		setSizeFull();
+
+		addComponents(createTypeGroup(), createEventGrid());
+		setExpandRatio(gridEvents, 1.0f);
+	}
+
+	private CheckBoxGroup<OeeEventType> createTypeGroup() {
+		groupTypes = new CheckBoxGroup<>("Event Types");
+		groupTypes.setItems(EventHistoryProvider.HISTORY_TYPES);
+		groupTypes.addStyleName(ValoTheme.OPTIONGROUP_HORIZONTAL);
+		groupTypes.setValue(EventHistoryProvider.HISTORY_TYPES);
+
+		groupTypes.addValueChangeListener(event -> {
+			if (filteredProvider != null) {
+				filteredProvider.setFilter(getSelectedTypes());
+				updateCaption();
+			}
+		});
+
+		return groupTypes;
+	}
+
+	private Grid<OeeEvent> createEventGrid() {
+		gridEvents = new Grid<>();
+		gridEvents.setCaption(EVENTS_CAPTION);
+		gridEvents.setSizeFull();
+		gridEvents.setSelectionMode(SelectionMode.NONE);
+
+		gridEvents.addColumn(event -> formatTime(event.getStartTime())).setCaption("Time");
+		gridEvents.addColumn(event -> formatTime(event.getEndTime())).setCaption(OperationsView.TO_TIME);
+		gridEvents.addColumn(OeeEvent::getEventType).setCaption("Type");
+		gridEvents.addColumn(event -> event.getReason() != null ? event.getReason().getName() : "")
+				.setCaption("Reason");
+		gridEvents.addColumn(event -> event.getAmount() != null ? String.valueOf(event.getAmount()) : "")
+				.setCaption("Amount");
+		gridEvents.addColumn(event -> event.getUOM() != null ? event.getUOM().getSymbol() : "").setCaption("UOM");
+		gridEvents.addColumn(event -> formatDuration(event.getDuration())).setCaption("Duration");
+		gridEvents.addColumn(event -> event.getMaterial() != null ? event.getMaterial().getName() : "")
+				.setCaption("Material");
+		gridEvents.addColumn(event -> event.getJob() != null ? event.getJob() : "").setCaption("Job");
+		gridEvents.addColumn(event -> event.getShift() != null ? event.getShift().getName() : "")
+				.setCaption("Shift");
+
+		// always in time order
+		gridEvents.getColumns().forEach(column -> column.setSortable(false));
+
+		return gridEvents;
+	}
+
+	// null for none
+	void setEquipment(Equipment equipment) {
+		stale = false;
+
+		if (equipment == null) {
+			historyProvider = null;
+			filteredProvider = null;
+			gridEvents.setItems();
+			gridEvents.setCaption(EVENTS_CAPTION);
+			return;
+		}
+
+		historyProvider = new EventHistoryProvider(equipment);
+		filteredProvider = historyProvider.withConfigurableFilter();
+		filteredProvider.setFilter(getSelectedTypes());
+		gridEvents.setDataProvider(filteredProvider);
+		updateCaption();
+	}
+
+	// events were recorded for the equipment, the rows are read again now if
+	// shown or else when next shown
+	void onEventsRecorded(boolean shown) {
+		if (shown) {
+			refresh();
+		} else {
+			stale = true;
+		}
+	}
+
+	void onShown() {
+		if (stale) {
+			refresh();
+		}
+	}
+
+	private void refresh() {
+		stale = false;
+
+		if (filteredProvider != null) {
+			filteredProvider.refreshAll();
+			updateCaption();
+		}
+	}
+
+	// older events are not listed
+	private void updateCaption() {
+		gridEvents.setCaption(historyProvider.isCapped(getSelectedTypes())
+				? EVENTS_CAPTION + " (newest " + EventHistoryProvider.MAX_ROWS + ")"
+				: EVENTS_CAPTION);
+	}
+
+	private Set<OeeEventType> getSelectedTypes() {
+		Set<OeeEventType> types = groupTypes.getValue();
+		return types.isEmpty() ? EnumSet.noneOf(OeeEventType.class) : EnumSet.copyOf(types);
+	}
+
+	private static String formatTime(OffsetDateTime time) {
+		return time != null ? time.format(TIME_FORMAT) : "";
+	}
+
+	private static String formatDuration(Duration duration) {
+		if (duration == null) {
+			return "";
+		}
+
+		long seconds = duration.getSeconds();
+		return String.format("%d:%02d:%02d", seconds / 3600, (seconds % 3600) / 60, seconds % 60);
+	}
+}
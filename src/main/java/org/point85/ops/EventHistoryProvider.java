@@ -0,0 +1,163 @@
+package org.point85.ops;
+
+import java.io.Serializable;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import org.point85.domain.collector.OeeEvent;
+import org.point85.domain.plant.Equipment;
+import org.point85.domain.script.OeeEventType;
+
+import com.vaadin.data.provider.AbstractBackEndDataProvider;
+import com.vaadin.data.provider.Query;
+
+// recorded events of an equipment, newest first, filtered by type, up to
+// MAX_ROWS of them. The size query reads only the time and key of those rows
+// and keeps those of the last row before each page as its cursor. A fetch then
+// seeks from the cursor of its page, wherever the grid jumps to, and skips
+// less than a page. Neither query counts or offsets into the whole history of
+// the equipment. The cursors and the row count of each filter are kept until
+// refreshed.
+class EventHistoryProvider extends AbstractBackEndDataProvider<OeeEvent, Set<OeeEventType>> {
+	private static final long serialVersionUID = -5206722934154468309L;
+
+	// rows between cursors
+	static final int PAGE_SIZE = 100;
+
+	// newest rows shown at most
+	static final int MAX_ROWS = 10000;
+
+	// types shown in the history
+	static final Set<OeeEventType> HISTORY_TYPES = Collections
+			.unmodifiableSet(EnumSet.of(OeeEventType.AVAILABILITY, OeeEventType.PROD_GOOD, OeeEventType.PROD_REJECT,
+					OeeEventType.PROD_STARTUP, OeeEventType.MATL_CHANGE));
+
+	private final Equipment equipment;
+
+	// by filter
+	private final Map<Set<OeeEventType>, Cursors> cursorsByFilter = new HashMap<>();
+
+	EventHistoryProvider(Equipment equipment) {
+		this.equipment = equipment;
+	}
+
+	@Override
+	protected int sizeInBackEnd(Query<OeeEvent, Set<OeeEventType>> query) {
+		Set<OeeEventType> types = getTypes(query);
+
+		if (types.isEmpty()) {
+			return 0;
+		}
+		return cursorsFor(types).count;
+	}
+
+	@Override
+	protected Stream<OeeEvent> fetchFromBackEnd(Query<OeeEvent, Set<OeeEventType>> query) {
+		Set<OeeEventType> types = getTypes(query);
+
+		if (types.isEmpty()) {
+			return Stream.empty();
+		}
+
+		long start = System.nanoTime();
+
+		Cursors cursors = cursorsFor(types);
+		int offset = query.getOffset();
+
+		// page 0 needs no cursor
+		int page = offset / PAGE_SIZE;
+		Cursor cursor = page > 0 ? cursors.byPage.get(page - 1) : null;
+
+		// not past the capped rows
+		int limit = Math.min(query.getLimit(), cursors.count - offset);
+
+		if (limit <= 0) {
+			return Stream.empty();
+		}
+
+		List<OeeEvent> events = OperationsQueries.fetchEventHistory(equipment, types,
+				cursor != null ? cursor.time : null, cursor != null ? cursor.key : null, offset - page * PAGE_SIZE,
+				limit);
+
+		Metrics.FETCH_HISTORY.recordSince(start);
+
+		return events.stream();
+	}
+
+	@Override
+	public Object getId(OeeEvent item) {
+		return item.getKey();
+	}
+
+	// newer events shift every row down
+	@Override
+	public void refreshAll() {
+		cursorsByFilter.clear();
+		super.refreshAll();
+	}
+
+	// the newest rows were capped
+	boolean isCapped(Set<OeeEventType> types) {
+		return !types.isEmpty() && cursorsFor(types).count == MAX_ROWS;
+	}
+
+	private static Set<OeeEventType> getTypes(Query<OeeEvent, Set<OeeEventType>> query) {
+		return query.getFilter().orElse(HISTORY_TYPES);
+	}
+
+	private Cursors cursorsFor(Set<OeeEventType> types) {
+		return cursorsByFilter.computeIfAbsent(EnumSet.copyOf(types), this::loadCursors);
+	}
+
+	private Cursors loadCursors(Set<OeeEventType> types) {
+		long start = System.nanoTime();
+
+		List<Object[]> keys = OperationsQueries.fetchEventHistoryKeys(equipment, types, MAX_ROWS);
+
+		Cursors cursors = new Cursors(keys.size());
+
+		// the last row of each page is the cursor of the next
+		for (int row = PAGE_SIZE; row < keys.size(); row += PAGE_SIZE) {
+			Object[] last = keys.get(row - 1);
+			cursors.byPage.add(new Cursor((OffsetDateTime) last[0], (Long) last[1]));
+		}
+
+		Metrics.FETCH_HISTORY.recordSince(start);
+
+		return cursors;
+	}
+
+	// the time and key of the last event before a page
+	private static final class Cursor implements Serializable {
+		private static final long serialVersionUID = 2472718591320975826L;
+
+		private final OffsetDateTime time;
+		private final Long key;
+
+		private Cursor(OffsetDateTime time, Long key) {
+			this.time = time;
+			this.key = key;
+		}
+	}
+
+	// the cursors and row count of one filter
+	private static final class Cursors implements Serializable {
+		private static final long serialVersionUID = 8015093216429411473L;
+
+		// of page 1 onwards
+		private final List<Cursor> byPage = new ArrayList<>();
+
+		private final int count;
+
+		private Cursors(int count) {
+			this.count = count;
+		}
+	}
+}
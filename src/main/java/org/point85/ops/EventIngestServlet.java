@@ -0,0 +1,421 @@
+package org.point85.ops;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.point85.domain.collector.OeeEvent;
+import org.point85.domain.plant.Equipment;
+import org.point85.domain.plant.Material;
+import org.point85.domain.plant.Reason;
+import org.point85.domain.script.OeeEventType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+// headless entry of availability, production and setup events as JSON, e.g.
+// from PLC gateways and scanner stations. The body is a single event object or
+// an array of them:
+//
+// {"type": "AVAILABILITY", "equipment": "Line 1", "reason": "Jam",
+// "start": "2018-11-20T08:00:00", "end": "2018-11-20T08:15:00", "duration": 900}
+// {"type": "PROD_GOOD", "equipment": "Line 1", "amount": 120,
+// "start": "2018-11-20T08:00:00", "end": "2018-11-20T09:00:00"}
+// {"type": "MATL_CHANGE", "equipment": "Line 1", "material": "Widget",
+// "job": "J-100", "start": "2018-11-20T08:00:00"}
+//
+// Every event is validated as in the entry forms before any is recorded. An
+// Idempotency-Key header makes a retried request record the events only once.
+// The key is scoped to the client, the remote user or else address, and a key
+// reused with another body is rejected (422) rather than answered with the
+// result of the first request.
+@WebServlet(urlPatterns = { "/api/events" }, name = "EventIngestServlet", asyncSupported = true)
+public class EventIngestServlet extends HttpServlet {
+	private static final long serialVersionUID = 2694316087155207386L;
+
+	// logger
+	private static final Logger logger = LoggerFactory.getLogger(EventIngestServlet.class);
+
+	// events per request
+	static final int MAX_EVENTS = 10000;
+
+	// max time to wait for the events to be recorded (msec)
+	private static final long RECORD_TIMEOUT = 60000;
+
+	private static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+
+	private static final String JSON_CONTENT = "application/json; charset=utf-8";
+
+	// a key reused with another body, not in HttpServletResponse
+	private static final int SC_UNPROCESSABLE_ENTITY = 422;
+
+	// of the body
+	private static final String FINGERPRINT_ALGORITHM = "SHA-256";
+
+	@Override
+	protected void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		long start = System.nanoTime();
+
+		if (AppServices.instance().getState() != AppServices.State.READY) {
+			writeError(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE, "The operations app is starting.");
+			return;
+		}
+
+		List<OeeEvent> events;
+		MessageDigest digest;
+
+		try {
+			digest = MessageDigest.getInstance(FINGERPRINT_ALGORITHM);
+			events = readEvents(request, digest);
+		} catch (IOException | JsonParseException | IllegalStateException | NumberFormatException e) {
+			writeError(response, HttpServletResponse.SC_BAD_REQUEST, "Malformed JSON: " + e.getMessage());
+			return;
+		} catch (Exception e) {
+			writeError(response, HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+			return;
+		} finally {
+			Metrics.INGEST_PARSE.recordSince(start);
+		}
+
+		if (events.isEmpty()) {
+			writeError(response, HttpServletResponse.SC_BAD_REQUEST, "There are no events to record.");
+			return;
+		}
+
+		// the request thread is released while the events are written
+		AsyncContext async = request.startAsync();
+		async.setTimeout(RECORD_TIMEOUT);
+
+		String idempotencyKey = getIdempotencyKey(request);
+		String fingerprint = Base64.getEncoder().encodeToString(digest.digest());
+
+		AppServices.instance().recordEach(events, idempotencyKey, fingerprint).whenComplete((failures, failure) -> {
+			HttpServletResponse asyncResponse = (HttpServletResponse) async.getResponse();
+
+			try {
+				if (failure instanceof IdempotencyRegistry.ConflictException) {
+					writeError(asyncResponse, SC_UNPROCESSABLE_ENTITY, failure.getMessage());
+				} else if (failure != null) {
+					writeError(asyncResponse, HttpServletResponse.SC_SERVICE_UNAVAILABLE, failure.getMessage());
+				} else {
+					writeResult(asyncResponse, failures);
+				}
+			} catch (IOException | IllegalStateException e) {
+				// e.g. timed out
+				logger.error("Unable to write the ingest response: " + e.getMessage());
+			} finally {
+				async.complete();
+				Metrics.INGEST_REQUEST.recordSince(start);
+			}
+		});
+	}
+
+	// the client key prefixed with the client, so that clients cannot answer
+	// each other's requests. Null if none.
+	private static String getIdempotencyKey(HttpServletRequest request) {
+		String key = request.getHeader(IDEMPOTENCY_KEY);
+
+		if (key == null) {
+			return null;
+		}
+
+		String client = request.getRemoteUser() != null ? "user:" + request.getRemoteUser()
+				: "address:" + request.getRemoteAddr();
+		return client + " " + key;
+	}
+
+	// streams the body into one reusable set of fields, in the charset of the
+	// request or else UTF-8 as JSON requires. The digest is updated with every
+	// byte of the body.
+	private List<OeeEvent> readEvents(HttpServletRequest request, MessageDigest digest) throws Exception {
+		List<OeeEvent> events = new ArrayList<>();
+		EventFields fields = new EventFields();
+
+		String encoding = request.getCharacterEncoding();
+		Charset charset = StandardCharsets.UTF_8;
+
+		if (encoding != null) {
+			try {
+				charset = Charset.forName(encoding);
+			} catch (IllegalArgumentException e) {
+				throw new Exception("The charset " + encoding + " is not supported.");
+			}
+		}
+
+		InputStream body = new DigestInputStream(request.getInputStream(), digest);
+
+		try (JsonReader reader = new JsonReader(new InputStreamReader(body, charset))) {
+			if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+				reader.beginArray();
+
+				while (reader.hasNext()) {
+					if (events.size() == MAX_EVENTS) {
+						throw new Exception("No more than " + MAX_EVENTS + " events can be sent at once.");
+					}
+					events.add(readEvent(reader, fields, events.size()));
+				}
+				reader.endArray();
+			} else {
+				events.add(readEvent(reader, fields, 0));
+			}
+
+			// e.g. trailing white space, so that the same body has the same
+			// fingerprint however far the reader buffered
+			byte[] rest = new byte[4096];
+			while (body.read(rest) != -1) {
+				// digested
+			}
+		}
+		return events;
+	}
+
+	private OeeEvent readEvent(JsonReader reader, EventFields fields, int index) throws Exception {
+		fields.clear();
+
+		reader.beginObject();
+
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+
+			if (reader.peek() == JsonToken.NULL) {
+				reader.nextNull();
+				continue;
+			}
+
+			switch (name) {
+			case "type":
+				fields.type = reader.nextString();
+				break;
+			case "equipment":
+				fields.equipment = reader.nextString();
+				break;
+			case "reason":
+				fields.reason = reader.nextString();
+				break;
+			case "material":
+				fields.material = reader.nextString();
+				break;
+			case "job":
+				fields.job = reader.nextString();
+				break;
+			case "amount":
+				fields.amount = reader.nextDouble();
+				fields.hasAmount = true;
+				break;
+			case "duration":
+				fields.duration = reader.nextLong();
+				fields.hasDuration = true;
+				break;
+			case "start":
+				fields.start = reader.nextString();
+				break;
+			case "end":
+				fields.end = reader.nextString();
+				break;
+			default:
+				reader.skipValue();
+				break;
+			}
+		}
+		reader.endObject();
+
+		try {
+			return createEvent(fields);
+		} catch (Exception e) {
+			throw new Exception("Event " + index + ": " + e.getMessage());
+		}
+	}
+
+	// the same validation and shift attribution as the entry forms
+	private OeeEvent createEvent(EventFields fields) throws Exception {
+		if (fields.type == null) {
+			throw new Exception("The event type must be specified.");
+		}
+
+		OeeEventType type;
+		try {
+			type = OeeEventType.valueOf(fields.type);
+		} catch (IllegalArgumentException e) {
+			throw new Exception("The event type " + fields.type + " is not valid.");
+		}
+
+		if (fields.equipment == null) {
+			throw new Exception("The equipment must be specified.");
+		}
+
+		Equipment equipment = AppServices.instance().findEquipment(fields.equipment);
+
+		if (equipment == null) {
+			throw new Exception("The equipment '" + fields.equipment + "' was not found in the database.");
+		}
+
+		LocalDateTime startTime = toLocalDateTime(fields.start);
+		LocalDateTime endTime = toLocalDateTime(fields.end);
+
+		switch (type) {
+		case AVAILABILITY:
+			return EventFactory.createAvailabilityEvent(equipment, findReason(fields.reason),
+					findMaterial(equipment, null), startTime, endTime, getDuration(fields, startTime, endTime));
+
+		case PROD_GOOD:
+		case PROD_REJECT:
+		case PROD_STARTUP:
+			return EventFactory.createProductionEvent(type, equipment, findMaterial(equipment, fields.material),
+					fields.hasAmount ? fields.amount : null, findReason(fields.reason), startTime, endTime);
+
+		case MATL_CHANGE:
+			return EventFactory.createSetupEvent(equipment, findMaterial(null, fields.material), fields.job,
+					startTime);
+
+		default:
+			throw new Exception("Events of type " + type + " cannot be recorded here.");
+		}
+	}
+
+	// as given, else the period between the start and end times
+	private static Duration getDuration(EventFields fields, LocalDateTime startTime, LocalDateTime endTime) {
+		if (fields.hasDuration) {
+			return Duration.ofSeconds(fields.duration);
+		}
+		return startTime != null && endTime != null ? Duration.between(startTime, endTime) : null;
+	}
+
+	// null if not given
+	private Reason findReason(String name) throws Exception {
+		if (name == null) {
+			return null;
+		}
+
+		Reason reason = AppServices.instance().getReasonCatalog().findByName(name);
+
+		if (reason == null) {
+			throw new Exception("The reason '" + name + "' was not found in the database.");
+		}
+		return reason;
+	}
+
+	// by name if given, else the material being run on the equipment
+	private Material findMaterial(Equipment equipment, String name) throws Exception {
+		if (name == null) {
+			return equipment != null ? AppServices.instance().getSetupCache().getCurrentSetup(equipment).getMaterial()
+					: null;
+		}
+
+		Material material = AppServices.instance().getMaterialCatalog().findByName(name);
+
+		if (material == null) {
+			throw new Exception("The material '" + name + "' was not found in the database.");
+		}
+		return material;
+	}
+
+	// local time, or converted from an offset
+	private static LocalDateTime toLocalDateTime(String value) throws Exception {
+		if (value == null) {
+			return null;
+		}
+
+		try {
+			return LocalDateTime.parse(value);
+		} catch (DateTimeParseException e) {
+			try {
+				return OffsetDateTime.parse(value).atZoneSameInstant(ZoneId.systemDefault()).toLocalDateTime();
+			} catch (DateTimeParseException any) {
+				throw new Exception("The time " + value + " is not an ISO-8601 date and time.");
+			}
+		}
+	}
+
+	// {"recorded": 2, "failed": 1, "errors": [{"index": 1, "message": "..."}]}
+	private void writeResult(HttpServletResponse response, List<Throwable> failures) throws IOException {
+		int failed = 0;
+		for (Throwable failure : failures) {
+			if (failure != null) {
+				failed++;
+			}
+		}
+
+		Metrics.INGESTED_EVENTS.addAndGet(failures.size() - failed);
+		Metrics.INGEST_FAILURES.addAndGet(failed);
+
+		// failed events are resent under a new key
+		response.setStatus(failed == 0 ? HttpServletResponse.SC_OK : HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+		response.setContentType(JSON_CONTENT);
+
+		try (JsonWriter writer = new JsonWriter(response.getWriter())) {
+			writer.beginObject();
+			writer.name("recorded").value(failures.size() - failed);
+			writer.name("failed").value(failed);
+			writer.name("errors").beginArray();
+
+			for (int i = 0; i < failures.size(); i++) {
+				Throwable failure = failures.get(i);
+
+				if (failure != null) {
+					Throwable cause = failure.getCause() != null ? failure.getCause() : failure;
+					writer.beginObject().name("index").value(i).name("message").value(cause.getMessage()).endObject();
+				}
+			}
+			writer.endArray();
+			writer.endObject();
+		}
+	}
+
+	private static void writeError(HttpServletResponse response, int status, String message) throws IOException {
+		response.setStatus(status);
+		response.setContentType(JSON_CONTENT);
+
+		try (JsonWriter writer = new JsonWriter(response.getWriter())) {
+			writer.beginObject().name("error").value(message).endObject();
+		}
+	}
+
+	// fields of the event being read, reused for every event of a request
+	private static final class EventFields {
+		private String type;
+		private String equipment;
+		private String reason;
+		private String material;
+		private String job;
+		private double amount;
+		private boolean hasAmount;
+		private long duration;
+		private boolean hasDuration;
+		private String start;
+		private String end;
+
+		private void clear() {
+			type = null;
+			equipment = null;
+			reason = null;
+			material = null;
+			job = null;
+			hasAmount = false;
+			hasDuration = false;
+			start = null;
+			end = null;
+		}
+	}
+}
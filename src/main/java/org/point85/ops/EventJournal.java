@@ -0,0 +1,546 @@
+package org.point85.ops;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// local append-only journal of encoded events in memory-mapped segment files.
+// Appends are forced to disk in groups by a sync thread. A single reader
+// consumes the records in sequence and acknowledges them in a checkpoint file.
+//
+// Record layout: payload length (int), sequence (long), payload, CRC32 of
+// sequence and payload (int). A zero length marks the end of a segment.
+//
+// A consumed segment is unmapped by the sync thread before its file is
+// deleted, since a mapped file cannot be deleted on Windows. A delete that
+// still fails is tried again on the following passes.
+class EventJournal {
+	// logger
+	private static final Logger logger = LoggerFactory.getLogger(EventJournal.class);
+
+	static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+	static final int DEFAULT_SYNC_INTERVAL = 5;
+
+	private static final int HEADER_SIZE = 12;
+	private static final int TRAILER_SIZE = 4;
+
+	// room for the end marker
+	private static final int END_MARKER_SIZE = 4;
+
+	private static final String SEGMENT_PREFIX = "events-";
+	private static final String SEGMENT_SUFFIX = ".journal";
+	private static final String CHECKPOINT_FILE = "checkpoint";
+
+	// in-memory events handed to the reader instead of decoding
+	private static final int MAX_ATTACHMENTS = 10000;
+
+	private final File directory;
+	private final int segmentSize;
+
+	// time between forces (msec)
+	private final long syncInterval;
+
+	// segments not yet fully consumed, guarded by this
+	private final List<Segment> segments = new ArrayList<>();
+	private Segment writeSegment;
+	private long nextSequence;
+	private List<PendingSync> pendingSyncs = new ArrayList<>();
+
+	// read cursor, guarded by this
+	private Segment readSegment;
+	private int readPosition;
+
+	// consumed segments still to be deleted, guarded by this
+	private final List<Segment> retired = new ArrayList<>();
+
+	// held while a segment buffer is forced or unmapped, before this
+	private final Object syncLock = new Object();
+
+	// unmapping not supported by the JVM, logged once
+	private static volatile boolean unmapUnsupported = false;
+
+	private final Map<Long, Object> attachments = new ConcurrentHashMap<>();
+
+	// last sequence delivered by the reader
+	private MappedByteBuffer checkpointBuffer;
+	private volatile long acknowledged;
+
+	private volatile boolean open = false;
+	private Thread syncThread;
+
+	EventJournal(File directory, int segmentSize, long syncInterval) {
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.syncInterval = syncInterval;
+	}
+
+	synchronized void open() throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Unable to create journal directory " + directory);
+		}
+
+		openCheckpoint();
+		recoverSegments();
+
+		if (segments.isEmpty()) {
+			nextSequence = acknowledged + 1;
+			segments.add(createSegment(nextSequence));
+		}
+
+		writeSegment = segments.get(segments.size() - 1);
+		readSegment = segments.get(0);
+		readPosition = 0;
+
+		open = true;
+
+		syncThread = new Thread(this::syncLoop, "oee-journal-sync");
+		syncThread.setDaemon(true);
+		syncThread.start();
+
+		if (logger.isInfoEnabled()) {
+			logger.info("Opened event journal in " + directory + " with " + getPendingCount()
+					+ " events to replay after sequence " + acknowledged);
+		}
+	}
+
+	private void openCheckpoint() throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(new File(directory, CHECKPOINT_FILE), "rw")) {
+			if (file.length() < Long.BYTES) {
+				file.setLength(Long.BYTES);
+			}
+			checkpointBuffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, Long.BYTES);
+		}
+		acknowledged = checkpointBuffer.getLong(0);
+	}
+
+	private void recoverSegments() throws IOException {
+		File[] files = directory
+				.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+
+		if (files == null) {
+			return;
+		}
+
+		// names sort by first sequence
+		Arrays.sort(files);
+
+		long lastSequence = acknowledged;
+
+		for (int i = 0; i < files.length; i++) {
+			String name = files[i].getName();
+			long firstSequence = Long
+					.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+
+			Segment segment = mapSegment(files[i], firstSequence);
+			scan(segment);
+
+			boolean last = i == files.length - 1;
+
+			if (!last && segment.lastSequence <= acknowledged) {
+				// fully delivered
+				unmap(segment);
+				deleteSegment(segment);
+				continue;
+			}
+
+			segments.add(segment);
+			lastSequence = Math.max(lastSequence, segment.lastSequence);
+		}
+		nextSequence = lastSequence + 1;
+	}
+
+	// find the end of the valid records in a segment
+	private void scan(Segment segment) {
+		MappedByteBuffer buffer = segment.buffer;
+		int position = 0;
+
+		while (position + HEADER_SIZE + TRAILER_SIZE <= buffer.capacity()) {
+			int length = buffer.getInt(position);
+
+			if (length <= 0 || position + HEADER_SIZE + length + TRAILER_SIZE > buffer.capacity()) {
+				break;
+			}
+
+			if (checksum(buffer, position, length) != buffer.getInt(position + HEADER_SIZE + length)) {
+				logger.warn("Discarding torn journal record at " + position + " in " + segment.file);
+				break;
+			}
+
+			segment.lastSequence = buffer.getLong(position + Integer.BYTES);
+			position += HEADER_SIZE + length + TRAILER_SIZE;
+		}
+		segment.end = position;
+	}
+
+	private Segment createSegment(long firstSequence) throws IOException {
+		File file = new File(directory, String.format("%s%020d%s", SEGMENT_PREFIX, firstSequence, SEGMENT_SUFFIX));
+		return mapSegment(file, firstSequence);
+	}
+
+	private Segment mapSegment(File file, long firstSequence) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			if (raf.length() < segmentSize) {
+				raf.setLength(segmentSize);
+			}
+			MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+			return new Segment(file, firstSequence, buffer);
+		}
+	}
+
+	private static boolean deleteSegment(Segment segment) {
+		if (!segment.file.delete() && segment.file.exists()) {
+			// tried again on the next pass, or removed on a later start
+			logger.warn("Unable to delete journal segment " + segment.file);
+			return false;
+		}
+		return true;
+	}
+
+	// release the mapping so that the file can be deleted. The buffer must not
+	// be used afterwards.
+	private static void unmap(Segment segment) {
+		if (segment.unmapped) {
+			return;
+		}
+		segment.unmapped = true;
+
+		if (unmapUnsupported) {
+			return;
+		}
+
+		try {
+			try {
+				// Java 9 and later
+				Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+				Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+				Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+				theUnsafe.setAccessible(true);
+				invokeCleaner.invoke(theUnsafe.get(null), segment.buffer);
+			} catch (NoSuchMethodException e) {
+				// Java 8
+				Method cleanerMethod = segment.buffer.getClass().getMethod("cleaner");
+				cleanerMethod.setAccessible(true);
+				Object cleaner = cleanerMethod.invoke(segment.buffer);
+
+				if (cleaner != null) {
+					cleaner.getClass().getMethod("clean").invoke(cleaner);
+				}
+			}
+		} catch (Exception e) {
+			// unmapped once garbage collected
+			unmapUnsupported = true;
+			logger.warn("Unable to unmap journal segments: " + e);
+		}
+	}
+
+	// unmap and delete the consumed segments
+	private void releaseRetired() {
+		synchronized (syncLock) {
+			List<Segment> released;
+
+			synchronized (this) {
+				if (retired.isEmpty()) {
+					return;
+				}
+				released = new ArrayList<>(retired);
+			}
+
+			List<Segment> deleted = new ArrayList<>();
+
+			for (Segment segment : released) {
+				unmap(segment);
+
+				if (deleteSegment(segment)) {
+					deleted.add(segment);
+				}
+			}
+
+			synchronized (this) {
+				retired.removeAll(deleted);
+			}
+		}
+	}
+
+	// append an encoded event. The future completes with its sequence once the
+	// record is on disk. The attachment is handed to the reader with the record.
+	CompletableFuture<Long> append(byte[] payload, Object attachment) {
+		CompletableFuture<Long> future = new CompletableFuture<>();
+		int recordSize = HEADER_SIZE + payload.length + TRAILER_SIZE;
+
+		if (recordSize + END_MARKER_SIZE > segmentSize) {
+			future.completeExceptionally(new IOException("The event is too large for the journal."));
+			return future;
+		}
+
+		synchronized (this) {
+			if (!open) {
+				future.completeExceptionally(new IOException("The event journal is closed."));
+				return future;
+			}
+
+			try {
+				if (writeSegment.end + recordSize + END_MARKER_SIZE > segmentSize) {
+					roll();
+				}
+
+				long sequence = nextSequence++;
+				write(writeSegment, sequence, payload);
+
+				if (attachment != null && attachments.size() < MAX_ATTACHMENTS) {
+					attachments.put(sequence, attachment);
+				}
+
+				pendingSyncs.add(new PendingSync(sequence, future));
+
+				// wake the reader
+				notifyAll();
+			} catch (IOException e) {
+				future.completeExceptionally(e);
+			}
+		}
+		return future;
+	}
+
+	private void write(Segment segment, long sequence, byte[] payload) {
+		MappedByteBuffer buffer = segment.buffer;
+		int position = segment.end;
+
+		buffer.putLong(position + Integer.BYTES, sequence);
+
+		ByteBuffer view = buffer.duplicate();
+		view.position(position + HEADER_SIZE);
+		view.put(payload);
+
+		buffer.putInt(position + HEADER_SIZE + payload.length, checksum(buffer, position, payload.length));
+
+		// end marker, then the length to make the record valid
+		buffer.putInt(position + HEADER_SIZE + payload.length + TRAILER_SIZE, 0);
+		buffer.putInt(position, payload.length);
+
+		segment.end = position + HEADER_SIZE + payload.length + TRAILER_SIZE;
+		segment.lastSequence = sequence;
+	}
+
+	private static int checksum(MappedByteBuffer buffer, int position, int length) {
+		ByteBuffer view = buffer.duplicate();
+		view.position(position + Integer.BYTES);
+		view.limit(position + HEADER_SIZE + length);
+
+		CRC32 crc = new CRC32();
+		crc.update(view);
+		return (int) crc.getValue();
+	}
+
+	private void roll() throws IOException {
+		// records in the old segment are durable before moving on
+		writeSegment.buffer.force();
+
+		writeSegment = createSegment(nextSequence);
+		segments.add(writeSegment);
+	}
+
+	private void syncLoop() {
+		while (open) {
+			try {
+				Thread.sleep(syncInterval);
+			} catch (InterruptedException e) {
+				break;
+			}
+			sync();
+			releaseRetired();
+		}
+	}
+
+	private void sync() {
+		List<PendingSync> synced;
+
+		synchronized (syncLock) {
+			Segment segment;
+
+			synchronized (this) {
+				if (pendingSyncs.isEmpty()) {
+					return;
+				}
+				synced = pendingSyncs;
+				pendingSyncs = new ArrayList<>();
+				segment = writeSegment;
+			}
+
+			// one force for every append since the last one. The segment is not
+			// unmapped meanwhile.
+			segment.buffer.force();
+		}
+
+		long now = System.nanoTime();
+
+		for (PendingSync pending : synced) {
+			// submit to durable
+			Metrics.RECORD_EVENT.record(now - pending.appended);
+			pending.future.complete(pending.sequence);
+		}
+	}
+
+	// the next record after the acknowledged sequence, waiting up to the timeout
+	JournalRecord readNext(long timeout) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeout;
+
+		synchronized (this) {
+			while (true) {
+				if (readPosition < readSegment.end) {
+					MappedByteBuffer buffer = readSegment.buffer;
+
+					int length = buffer.getInt(readPosition);
+					long sequence = buffer.getLong(readPosition + Integer.BYTES);
+
+					byte[] payload = new byte[length];
+					ByteBuffer view = buffer.duplicate();
+					view.position(readPosition + HEADER_SIZE);
+					view.get(payload);
+
+					readPosition += HEADER_SIZE + length + TRAILER_SIZE;
+
+					if (sequence <= acknowledged) {
+						// delivered before a restart
+						continue;
+					}
+					return new JournalRecord(sequence, payload, attachments.remove(sequence));
+				}
+
+				if (readSegment != writeSegment) {
+					// fully consumed, deleted by the sync thread
+					Segment consumed = readSegment;
+					segments.remove(consumed);
+					readSegment = segments.get(0);
+					readPosition = 0;
+					retired.add(consumed);
+					continue;
+				}
+
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0 || !open) {
+					return null;
+				}
+				wait(remaining);
+			}
+		}
+	}
+
+	// the record with this sequence has been delivered
+	void acknowledge(long sequence) {
+		acknowledged = sequence;
+		checkpointBuffer.putLong(0, sequence);
+		checkpointBuffer.force();
+	}
+
+	synchronized long getPendingCount() {
+		return nextSequence - 1 - acknowledged;
+	}
+
+	long getAcknowledged() {
+		return acknowledged;
+	}
+
+	File getDirectory() {
+		return directory;
+	}
+
+	void close() {
+		synchronized (this) {
+			if (!open) {
+				return;
+			}
+			open = false;
+			notifyAll();
+		}
+
+		if (syncThread != null) {
+			syncThread.interrupt();
+			try {
+				syncThread.join(syncInterval * 10);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		sync();
+		releaseRetired();
+		checkpointBuffer.force();
+
+		if (logger.isInfoEnabled()) {
+			logger.info("Closed event journal with " + getPendingCount() + " events still to replay");
+		}
+	}
+
+	static final class JournalRecord {
+		private final long sequence;
+		private final byte[] payload;
+		private final Object attachment;
+
+		private JournalRecord(long sequence, byte[] payload, Object attachment) {
+			this.sequence = sequence;
+			this.payload = payload;
+			this.attachment = attachment;
+		}
+
+		long getSequence() {
+			return sequence;
+		}
+
+		byte[] getPayload() {
+			return payload;
+		}
+
+		Object getAttachment() {
+			return attachment;
+		}
+	}
+
+	private static final class Segment {
+		private final File file;
+		private final long firstSequence;
+		private final MappedByteBuffer buffer;
+		private int end;
+		private long lastSequence;
+
+		// guarded by the sync lock once open
+		private boolean unmapped;
+
+		private Segment(File file, long firstSequence, MappedByteBuffer buffer) {
+			this.file = file;
+			this.firstSequence = firstSequence;
+			this.buffer = buffer;
+			this.lastSequence = firstSequence - 1;
+		}
+
+		@Override
+		public String toString() {
+			return file.getName() + " from " + firstSequence;
+		}
+	}
+
+	private static final class PendingSync {
+		private final long sequence;
+		private final CompletableFuture<Long> future;
+		private final long appended = System.nanoTime();
+
+		private PendingSync(long sequence, CompletableFuture<Long> future) {
+			this.sequence = sequence;
+			this.future = future;
+		}
+	}
+}
@@ -0,0 +1,253 @@
+package org.point85.ops;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.point85.domain.collector.OeeEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// bounded recording pipeline: request threads submit events and get a future
+// back, a single writer thread drains up to a batch size of queued entries at
+// a time. A full queue fails the submission at once rather than holding the
+// request thread.
+//
+// A batch is not a transaction: each entry, an event or a group, is written
+// in its own writeAll so that a failure fails only its own submission. The
+// batch size bounds how much the writer takes from the queue in one drain.
+class EventRecorder {
+	// logger
+	private static final Logger logger = LoggerFactory.getLogger(EventRecorder.class);
+
+	// defaults for the backpressure settings
+	static final int DEFAULT_QUEUE_CAPACITY = 1000;
+	static final int DEFAULT_BATCH_SIZE = 50;
+	static final int DEFAULT_FLUSH_TIMEOUT = 30000;
+
+	// writer poll interval (msec)
+	private static final long POLL_INTERVAL = 250;
+
+	// log statistics every this many events
+	private static final long STATISTICS_INTERVAL = 1000;
+
+	// writes an event to the database
+	interface EventWriter {
+		void write(OeeEvent event) throws Exception;
+
+		// a group of events, all or none where the writer supports it
+		default void writeAll(List<OeeEvent> events) throws Exception {
+			for (OeeEvent event : events) {
+				write(event);
+			}
+		}
+	}
+
+	private final EventWriter eventWriter;
+
+	private final BlockingQueue<PendingEvent> queue;
+
+	private final int batchSize;
+
+	private volatile boolean accepting = false;
+
+	private Thread writerThread;
+
+	// statistics
+	private final AtomicLong recordedCount = new AtomicLong();
+	private final AtomicLong failedCount = new AtomicLong();
+	private final AtomicLong rejectedCount = new AtomicLong();
+	private final AtomicLong batchCount = new AtomicLong();
+	private final AtomicLong totalLatency = new AtomicLong();
+	private final AtomicLong maxLatency = new AtomicLong();
+
+	EventRecorder(EventWriter eventWriter, int queueCapacity, int batchSize) {
+		this.eventWriter = eventWriter;
+		this.queue = new ArrayBlockingQueue<>(queueCapacity);
+		this.batchSize = batchSize;
+	}
+
+	synchronized void start() {
+		if (accepting) {
+			return;
+		}
+		accepting = true;
+
+		writerThread = new Thread(this::drainQueue, "oee-event-writer");
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	CompletableFuture<OeeEvent> submit(OeeEvent event) {
+		return submitAll(Collections.singletonList(event)).thenApply(events -> event);
+	}
+
+	// a group is queued and written as one entry
+	CompletableFuture<List<OeeEvent>> submitAll(List<OeeEvent> events) {
+		CompletableFuture<List<OeeEvent>> future = new CompletableFuture<>();
+
+		if (!accepting) {
+			future.completeExceptionally(new Exception("The event recorder is not running."));
+			return future;
+		}
+
+		PendingEvent pending = new PendingEvent(events, future);
+
+		if (!queue.offer(pending)) {
+			rejectedCount.addAndGet(events.size());
+			future.completeExceptionally(
+					new Exception("The event recording queue is full.  Please try again in a moment."));
+		} else if (!accepting && queue.remove(pending)) {
+			// flushed meanwhile, neither the writer nor the flush will see it
+			failedCount.addAndGet(events.size());
+			future.completeExceptionally(new Exception("The event recorder is not running."));
+		}
+		return future;
+	}
+
+	private void drainQueue() {
+		List<PendingEvent> batch = new ArrayList<>(batchSize);
+
+		while (accepting || !queue.isEmpty()) {
+			try {
+				PendingEvent first = queue.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+
+				if (first == null) {
+					continue;
+				}
+
+				batch.add(first);
+				queue.drainTo(batch, batchSize - 1);
+
+				writeBatch(batch);
+			} catch (InterruptedException e) {
+				// flush what is left and exit
+				accepting = false;
+			} finally {
+				batch.clear();
+			}
+		}
+	}
+
+	private void writeBatch(List<PendingEvent> batch) {
+		batchCount.incrementAndGet();
+
+		for (PendingEvent pending : batch) {
+			try {
+				eventWriter.writeAll(pending.events);
+				onRecorded(pending);
+				pending.future.complete(pending.events);
+			} catch (Exception e) {
+				failedCount.addAndGet(pending.events.size());
+				Metrics.RECORD_EVENT.recordSince(pending.submitted);
+				logger.error(e.getMessage());
+				pending.future.completeExceptionally(e);
+			}
+		}
+	}
+
+	private void onRecorded(PendingEvent pending) {
+		long latency = System.nanoTime() - pending.submitted;
+
+		// submit to durable
+		Metrics.RECORD_EVENT.record(latency);
+		totalLatency.addAndGet(latency * pending.events.size());
+		maxLatency.accumulateAndGet(latency, Math::max);
+
+		long before = recordedCount.getAndAdd(pending.events.size());
+
+		if ((before + pending.events.size()) / STATISTICS_INTERVAL > before / STATISTICS_INTERVAL
+				&& logger.isInfoEnabled()) {
+			logger.info(getStatistics());
+		}
+	}
+
+	// stop accepting events and write out those already queued. A submission
+	// racing with the flush is failed by the submitting thread if it is queued
+	// after the last drain.
+	void flush(long timeout) {
+		Thread thread;
+		synchronized (this) {
+			accepting = false;
+			thread = writerThread;
+		}
+
+		if (thread != null) {
+			try {
+				thread.join(timeout);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		// anything still queued could not be written in time
+		PendingEvent pending = null;
+		while ((pending = queue.poll()) != null) {
+			failedCount.addAndGet(pending.events.size());
+			pending.future.completeExceptionally(new Exception("The event recorder was shut down."));
+		}
+
+		if (logger.isInfoEnabled()) {
+			logger.info(getStatistics());
+		}
+	}
+
+	int getQueueDepth() {
+		return queue.size();
+	}
+
+	int getQueueCapacity() {
+		return queue.size() + queue.remainingCapacity();
+	}
+
+	long getRecordedCount() {
+		return recordedCount.get();
+	}
+
+	long getFailedCount() {
+		return failedCount.get();
+	}
+
+	long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+	long getBatchCount() {
+		return batchCount.get();
+	}
+
+	// mean submit to write latency in msec
+	double getAverageLatency() {
+		long count = recordedCount.get();
+		return count > 0 ? (totalLatency.get() / (double) count) / 1.0E+06 : 0.0;
+	}
+
+	// max submit to write latency in msec
+	double getMaxLatency() {
+		return maxLatency.get() / 1.0E+06;
+	}
+
+	String getStatistics() {
+		return String.format(
+				"Event recorder: queue depth %d/%d, recorded %d in %d drains, failed %d, rejected %d, latency avg %.1f ms, max %.1f ms",
+				getQueueDepth(), getQueueCapacity(), getRecordedCount(), getBatchCount(), getFailedCount(),
+				getRejectedCount(), getAverageLatency(), getMaxLatency());
+	}
+
+	private static class PendingEvent {
+		private final List<OeeEvent> events;
+		private final CompletableFuture<List<OeeEvent>> future;
+		private final long submitted;
+
+		private PendingEvent(List<OeeEvent> events, CompletableFuture<List<OeeEvent>> future) {
+			this.events = events;
+			this.future = future;
+			this.submitted = System.nanoTime();
+		}
+	}
+}
@@ -0,0 +1,130 @@
+package org.point85.ops;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+// shared cache whose entries expire a fixed time after loading
+class ExpiringCache<K, V> {
+	private final ConcurrentMap<K, Entry<V>> entries = new ConcurrentHashMap<>();
+
+	// entry lifetime (msec)
+	private final long timeToLive;
+
+	// size above which expired entries are purged
+	private final int maxEntries;
+
+	// metrics
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+
+	ExpiringCache(long timeToLive, int maxEntries) {
+		this.timeToLive = timeToLive;
+		this.maxEntries = maxEntries;
+	}
+
+	V get(K key, Function<K, V> loader) {
+		long now = System.currentTimeMillis();
+		Entry<V> entry = entries.get(key);
+
+		if (entry != null && entry.expires <= now) {
+			// the caller that removes it reloads
+			entries.remove(key, entry);
+			entry = null;
+		}
+
+		if (entry == null) {
+			// one load per key, concurrent callers wait for it. The loader runs
+			// outside the map so that it holds no lock while it queries.
+			Entry<V> loading = new Entry<>();
+			entry = entries.computeIfAbsent(key, k -> loading);
+
+			if (entry == loading) {
+				missCount.incrementAndGet();
+				load(key, loading, loader);
+
+				if (entries.size() > maxEntries) {
+					purge(now);
+				}
+				return loading.value.join();
+			}
+		}
+		hitCount.incrementAndGet();
+		return await(entry);
+	}
+
+	private void load(K key, Entry<V> loading, Function<K, V> loader) {
+		try {
+			V value = loader.apply(key);
+			loading.expires = System.currentTimeMillis() + timeToLive;
+			loading.value.complete(value);
+		} catch (RuntimeException e) {
+			// not cached, the next caller loads again
+			entries.remove(key, loading);
+			loading.value.completeExceptionally(e);
+			throw e;
+		}
+	}
+
+	// the value of an entry, waiting if another caller is loading it
+	private V await(Entry<V> entry) {
+		try {
+			return entry.value.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	private void purge(long now) {
+		Iterator<Map.Entry<K, Entry<V>>> iter = entries.entrySet().iterator();
+
+		while (iter.hasNext()) {
+			Map.Entry<K, Entry<V>> next = iter.next();
+
+			// expired first, then arbitrary entries down to the limit
+			if (next.getValue().expires <= now || entries.size() > maxEntries) {
+				iter.remove();
+			}
+		}
+	}
+
+	void invalidate(K key) {
+		entries.remove(key);
+	}
+
+	void invalidateIf(Predicate<K> filter) {
+		entries.keySet().removeIf(filter);
+	}
+
+	void invalidateAll() {
+		entries.clear();
+	}
+
+	int size() {
+		return entries.size();
+	}
+
+	long getHitCount() {
+		return hitCount.get();
+	}
+
+	long getMissCount() {
+		return missCount.get();
+	}
+
+	private static final class Entry<V> {
+		private final CompletableFuture<V> value = new CompletableFuture<>();
+
+		// not expired while loading
+		private volatile long expires = Long.MAX_VALUE;
+	}
+}
@@ -0,0 +1,157 @@
+package org.point85.ops;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// runs blocking persistence queries off of the request thread that holds the
+// Vaadin session lock. Uses a virtual thread per query on JDKs that have them,
+// otherwise a fixed pool. Either way at most maxConcurrent queries run and at
+// most queueCapacity wait.
+class FetchExecutor {
+	// logger
+	private static final Logger logger = LoggerFactory.getLogger(FetchExecutor.class);
+
+	// defaults for the executor settings
+	static final int DEFAULT_MAX_CONCURRENT = 32;
+	static final int DEFAULT_QUEUE_CAPACITY = 1000;
+
+	// idle pool thread lifetime (sec)
+	private static final long KEEP_ALIVE = 60;
+
+	private final ExecutorService executor;
+
+	// limits the running queries on virtual threads, null for the pool
+	private final Semaphore permits;
+
+	private final int maxConcurrent;
+	private final int queueCapacity;
+
+	// statistics
+	private final AtomicInteger activeCount = new AtomicInteger();
+	private final AtomicInteger pendingCount = new AtomicInteger();
+	private final AtomicLong rejectedCount = new AtomicLong();
+
+	FetchExecutor(int maxConcurrent, int queueCapacity) {
+		this.maxConcurrent = maxConcurrent;
+		this.queueCapacity = queueCapacity;
+
+		ExecutorService virtual = newVirtualThreadExecutor();
+
+		if (virtual != null) {
+			executor = virtual;
+			permits = new Semaphore(maxConcurrent);
+		} else {
+			AtomicInteger threadCount = new AtomicInteger();
+
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(maxConcurrent, maxConcurrent, KEEP_ALIVE,
+					TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+						Thread thread = new Thread(runnable, "oee-fetch-" + threadCount.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					});
+			pool.allowCoreThreadTimeOut(true);
+
+			executor = pool;
+			permits = null;
+		}
+
+		if (logger.isInfoEnabled()) {
+			logger.info("Fetch executor uses " + (isVirtual() ? "virtual threads" : "a thread pool") + " for "
+					+ maxConcurrent + " concurrent queries");
+		}
+	}
+
+	// Executors.newVirtualThreadPerTaskExecutor() where available
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	<T> CompletableFuture<T> submit(Callable<T> query) {
+		CompletableFuture<T> future = new CompletableFuture<>();
+
+		if (pendingCount.incrementAndGet() > maxConcurrent + queueCapacity) {
+			pendingCount.decrementAndGet();
+			return reject(future);
+		}
+
+		try {
+			executor.execute(() -> run(query, future));
+		} catch (RejectedExecutionException e) {
+			pendingCount.decrementAndGet();
+			return reject(future);
+		}
+		return future;
+	}
+
+	private <T> void run(Callable<T> query, CompletableFuture<T> future) {
+		boolean acquired = false;
+
+		try {
+			if (permits != null) {
+				// parks the virtual thread, not a carrier
+				permits.acquire();
+				acquired = true;
+			}
+
+			activeCount.incrementAndGet();
+			try {
+				future.complete(query.call());
+			} finally {
+				activeCount.decrementAndGet();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			future.completeExceptionally(e);
+		} catch (Exception e) {
+			future.completeExceptionally(e);
+		} finally {
+			if (acquired) {
+				permits.release();
+			}
+			pendingCount.decrementAndGet();
+		}
+	}
+
+	private <T> CompletableFuture<T> reject(CompletableFuture<T> future) {
+		rejectedCount.incrementAndGet();
+		future.completeExceptionally(new Exception("The server is busy.  Please try again in a moment."));
+		return future;
+	}
+
+	void shutdown() {
+		executor.shutdownNow();
+	}
+
+	boolean isVirtual() {
+		return permits != null;
+	}
+
+	int getActiveCount() {
+		return activeCount.get();
+	}
+
+	// running and waiting
+	int getPendingCount() {
+		return pendingCount.get();
+	}
+
+	long getRejectedCount() {
+		return rejectedCount.get();
+	}
+}
@@ -0,0 +1,156 @@
+package org.point85.ops;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+// submissions by client idempotency key. A repeated key gets the result of the
+// first submission instead of recording again, unless the fingerprint of its
+// content differs. Keys expire a fixed time after first use and the number
+// of completed keys kept is bounded.
+class IdempotencyRegistry {
+	// defaults
+	static final int DEFAULT_TIME_TO_LIVE = 600000;
+	static final int DEFAULT_MAX_KEYS = 10000;
+
+	private final ConcurrentMap<String, Submission> submissions = new ConcurrentHashMap<>();
+
+	// key lifetime (msec)
+	private final long timeToLive;
+
+	// size above which keys are purged
+	private final int maxKeys;
+
+	// metrics
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong conflictCount = new AtomicLong();
+
+	IdempotencyRegistry(long timeToLive, int maxKeys) {
+		this.timeToLive = timeToLive;
+		this.maxKeys = maxKeys;
+	}
+
+	// a key reused for other content
+	static final class ConflictException extends Exception {
+		private static final long serialVersionUID = 6214935020147402741L;
+
+		private ConflictException(String message) {
+			super(message);
+		}
+	}
+
+	<T> CompletableFuture<T> submitOnce(String key, Supplier<CompletableFuture<T>> submission) {
+		return submitOnce(key, null, submission);
+	}
+
+	// run the submission unless the key was already submitted. A failed
+	// submission releases its key so that it can be retried. The fingerprint,
+	// e.g. a hash of the request body, must match that of the first submission
+	// if both have one.
+	@SuppressWarnings("unchecked")
+	<T> CompletableFuture<T> submitOnce(String key, String fingerprint, Supplier<CompletableFuture<T>> submission) {
+		if (key == null) {
+			return submission.get();
+		}
+
+		long now = System.currentTimeMillis();
+		CompletableFuture<T> result = new CompletableFuture<>();
+		Submission candidate = new Submission(result, fingerprint, now + timeToLive);
+
+		Submission existing = submissions.putIfAbsent(key, candidate);
+
+		if (existing != null) {
+			if (existing.expires > now) {
+				if (fingerprint != null && existing.fingerprint != null && !fingerprint.equals(existing.fingerprint)) {
+					conflictCount.incrementAndGet();
+
+					CompletableFuture<T> conflict = new CompletableFuture<>();
+					conflict.completeExceptionally(
+							new ConflictException("The idempotency key was already used for another request."));
+					return conflict;
+				}
+
+				hitCount.incrementAndGet();
+				return (CompletableFuture<T>) existing.result;
+			}
+
+			if (!submissions.replace(key, existing, candidate)) {
+				// another thread took the expired key
+				return submitOnce(key, fingerprint, submission);
+			}
+		}
+
+		missCount.incrementAndGet();
+
+		if (submissions.size() > maxKeys) {
+			purge(now);
+		}
+
+		try {
+			submission.get().whenComplete((value, failure) -> {
+				if (failure != null) {
+					submissions.remove(key, candidate);
+					result.completeExceptionally(failure);
+				} else {
+					result.complete(value);
+				}
+			});
+		} catch (RuntimeException e) {
+			submissions.remove(key, candidate);
+			result.completeExceptionally(e);
+		}
+		return result;
+	}
+
+	private void purge(long now) {
+		Iterator<Map.Entry<String, Submission>> iter = submissions.entrySet().iterator();
+
+		while (iter.hasNext()) {
+			Submission next = iter.next().getValue();
+
+			// expired first, then arbitrary completed keys down to the limit. A
+			// key still recording is kept, or a repeat would record it again.
+			if (next.expires <= now || (submissions.size() > maxKeys && next.result.isDone())) {
+				iter.remove();
+			}
+		}
+	}
+
+	int size() {
+		return submissions.size();
+	}
+
+	// duplicates not recorded
+	long getHitCount() {
+		return hitCount.get();
+	}
+
+	long getMissCount() {
+		return missCount.get();
+	}
+
+	// keys reused for other content
+	long getConflictCount() {
+		return conflictCount.get();
+	}
+
+	private static final class Submission {
+		private final CompletableFuture<?> result;
+
+		// null if not checked
+		private final String fingerprint;
+
+		private final long expires;
+
+		private Submission(CompletableFuture<?> result, String fingerprint, long expires) {
+			this.result = result;
+			this.fingerprint = fingerprint;
+			this.expires = expires;
+		}
+	}
+}
@@ -0,0 +1,227 @@
+package org.point85.ops;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.point85.domain.collector.OeeEvent;
+import org.point85.ops.EventJournal.JournalRecord;
+import org.point85.ops.EventRecorder.EventWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// drains the event journal into the database in sequence order. A write that
+// fails for a transient reason, such as a lost connection or a deadlock, is
+// retried until it succeeds so that events for an equipment are never
+// reordered or skipped. An event that can never be written is set aside in the
+// rejected folder so that it does not hold up the ones after it.
+class JournalReplayer {
+	// logger
+	private static final Logger logger = LoggerFactory.getLogger(JournalReplayer.class);
+
+	// reader wait (msec)
+	private static final long POLL_INTERVAL = 250;
+
+	// retry back off (msec)
+	private static final long INITIAL_RETRY = 1000;
+	private static final long MAX_RETRY = 60000;
+
+	// events that can never be written
+	private static final String REJECTED_FOLDER = "rejected";
+
+	private final EventJournal journal;
+
+	private final EventWriter eventWriter;
+
+	// events journaled before a restart
+	private final EventDecoder eventDecoder;
+
+	// events written to the database
+	private final Consumer<List<OeeEvent>> deliveredListener;
+
+	private volatile boolean running = false;
+
+	private Thread replayThread;
+
+	// statistics
+	private final AtomicLong deliveredCount = new AtomicLong();
+	private final AtomicLong retryCount = new AtomicLong();
+	private final AtomicLong rejectedCount = new AtomicLong();
+
+	// decodes a journaled payload, throwing UndecodableException if it never can
+	// be. Other failures are retried only if transient.
+	interface EventDecoder {
+		List<OeeEvent> decode(byte[] payload) throws Exception;
+	}
+
+	JournalReplayer(EventJournal journal, EventWriter eventWriter, Consumer<List<OeeEvent>> deliveredListener) {
+		this(journal, eventWriter, EventCodec::decodeAll, deliveredListener);
+	}
+
+	JournalReplayer(EventJournal journal, EventWriter eventWriter, EventDecoder eventDecoder,
+			Consumer<List<OeeEvent>> deliveredListener) {
+		this.journal = journal;
+		this.eventWriter = eventWriter;
+		this.eventDecoder = eventDecoder;
+		this.deliveredListener = deliveredListener;
+	}
+
+	synchronized void start() {
+		if (running) {
+			return;
+		}
+		running = true;
+
+		replayThread = new Thread(this::replay, "oee-journal-replayer");
+		replayThread.setDaemon(true);
+		replayThread.start();
+	}
+
+	private void replay() {
+		try {
+			while (running) {
+				JournalRecord record = journal.readNext(POLL_INTERVAL);
+
+				if (record == null) {
+					continue;
+				}
+
+				try {
+					List<OeeEvent> events = eventsOf(record);
+
+					if (events == null || !deliver(events)) {
+						// stopped, replayed on the next start
+						break;
+					}
+				} catch (InterruptedException e) {
+					throw e;
+				} catch (Exception e) {
+					// not to be retried
+					reject(record, e);
+				}
+				journal.acknowledge(record.getSequence());
+			}
+		} catch (InterruptedException e) {
+			// stopped
+		}
+	}
+
+	// null if stopped while the database is unreachable
+	@SuppressWarnings("unchecked")
+	private List<OeeEvent> eventsOf(JournalRecord record) throws Exception {
+		if (record.getAttachment() instanceof OeeEvent) {
+			return Collections.singletonList((OeeEvent) record.getAttachment());
+		} else if (record.getAttachment() instanceof List) {
+			return (List<OeeEvent>) record.getAttachment();
+		}
+
+		// recorded before a restart, the entities are looked up again
+		return retry("decode event", () -> eventDecoder.decode(record.getPayload()));
+	}
+
+	private boolean deliver(List<OeeEvent> events) throws Exception {
+		boolean delivered = retry("record event", () -> {
+			eventWriter.writeAll(events);
+			deliveredCount.addAndGet(events.size());
+			return Boolean.TRUE;
+		}) != null;
+
+		if (delivered) {
+			try {
+				deliveredListener.accept(events);
+			} catch (Exception e) {
+				// written, not to be written again
+				logger.error("Unable to publish journaled events: " + e.getMessage());
+			}
+		}
+		return delivered;
+	}
+
+	// until it succeeds, null if stopped meanwhile. A failure that is not
+	// transient is thrown without retrying.
+	private <T> T retry(String action, Callable<T> task) throws Exception {
+		long wait = INITIAL_RETRY;
+
+		while (true) {
+			try {
+				return task.call();
+			} catch (Exception e) {
+				if (!TransientFailures.isTransient(e)) {
+					throw e;
+				}
+
+				if (!running) {
+					return null;
+				}
+				retryCount.incrementAndGet();
+				logger.error("Unable to " + action + ", retrying in " + wait + " ms: " + e.getMessage());
+
+				Thread.sleep(wait);
+				wait = Math.min(wait * 2, MAX_RETRY);
+			}
+		}
+	}
+
+	private void reject(JournalRecord record, Exception e) {
+		rejectedCount.incrementAndGet();
+		logger.error("Rejecting journaled event " + record.getSequence() + ": " + e.getMessage());
+
+		File folder = new File(journal.getDirectory(), REJECTED_FOLDER);
+		try {
+			folder.mkdirs();
+			Files.write(new File(folder, "event-" + record.getSequence() + ".bin").toPath(), record.getPayload());
+		} catch (IOException io) {
+			logger.error(io.getMessage());
+		}
+	}
+
+	// wait for the journal to drain, then stop
+	void stop(long timeout) {
+		long deadline = System.currentTimeMillis() + timeout;
+
+		try {
+			while (journal.getPendingCount() > 0 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(POLL_INTERVAL);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		Thread thread;
+		synchronized (this) {
+			running = false;
+			thread = replayThread;
+		}
+
+		if (thread != null) {
+			thread.interrupt();
+			try {
+				thread.join(POLL_INTERVAL * 4);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	long getDeliveredCount() {
+		return deliveredCount.get();
+	}
+
+	long getRetryCount() {
+		return retryCount.get();
+	}
+
+	long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+	String getStatistics() {
+		return String.format("Journal replayer: pending %d, delivered %d, retries %d, rejected %d",
+				journal.getPendingCount(), getDeliveredCount(), getRetryCount(), getRejectedCount());
+	}
+}
@@ -0,0 +1,460 @@
+package org.point85.ops;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.point85.domain.collector.OeeEvent;
+import org.point85.domain.oee.TimeLoss;
+import org.point85.domain.plant.Equipment;
+import org.point85.domain.plant.Reason;
+import org.point85.domain.schedule.ShiftInstance;
+import org.point85.domain.script.OeeEventType;
+
+// running time losses and production counts of the current shift of each
+// equipment shown in a UI. Seeded once from the database, then each recorded
+// event is folded in without rescanning the history. At the end of a shift
+// the availability state is carried over into the next one, and downtime
+// that is open but not yet recorded counts against availability.
+class KpiAggregator {
+	// equipment with no work schedule is measured by the calendar day
+	private static final String DAY = "Today";
+
+	// loads the availability and production events of an equipment since a
+	// time, preceded by the availability state in effect at that time
+	interface EventLoader {
+		List<OeeEvent> loadSince(Equipment equipment, OffsetDateTime from);
+	}
+
+	// the opening event of the downtime open on an equipment, null if it is
+	// not down
+	interface OpenDowntime {
+		OeeEvent getOpen(Long equipmentKey);
+	}
+
+	private final ShiftResolver shiftResolver;
+
+	private final EventLoader eventLoader;
+
+	private final OpenDowntime openDowntime;
+
+	// by equipment key, only for equipment that has been shown
+	private final ConcurrentMap<Long, ShiftTotals> totals = new ConcurrentHashMap<>();
+
+	// held while seeding, by equipment key
+	private final ConcurrentMap<Long, Object> seedLocks = new ConcurrentHashMap<>();
+
+	KpiAggregator(ShiftResolver shiftResolver, EventLoader eventLoader, OpenDowntime openDowntime) {
+		this.shiftResolver = shiftResolver;
+		this.eventLoader = eventLoader;
+		this.openDowntime = openDowntime;
+	}
+
+	// the KPIs of the current shift, seeded from the database on first use
+	Kpis getKpis(Equipment equipment) throws Exception {
+		long now = toSeconds(LocalDateTime.now());
+		ShiftTotals current = totals.get(equipment.getKey());
+
+		if (current == null || !current.contains(now) || !current.isSeeded()) {
+			current = seed(equipment);
+		}
+		return current.toKpis(now, openDowntime.getOpen(equipment.getKey()));
+	}
+
+	// null if not yet seeded or the next shift could not be carried over, no
+	// database access
+	Kpis peekKpis(Equipment equipment) {
+		long now = toSeconds(LocalDateTime.now());
+		ShiftTotals current = totals.get(equipment.getKey());
+
+		if (current != null && !current.contains(now)) {
+			current = rollOver(equipment, current, now);
+		}
+
+		return current != null && current.contains(now) && current.isSeeded()
+				? current.toKpis(now, openDowntime.getOpen(equipment.getKey()))
+				: null;
+	}
+
+	// a recorded event
+	void fold(OeeEvent event) {
+		if (!isMeasured(event.getEventType())) {
+			return;
+		}
+
+		ShiftTotals current = totals.get(event.getEquipment().getKey());
+
+		if (current != null && toSeconds(event.getStartTime()) >= current.end) {
+			current = rollOver(event.getEquipment(), current, toSeconds(event.getStartTime()));
+		}
+
+		if (current != null) {
+			current.fold(event);
+		}
+	}
+
+	// the totals of the shift at the time, carried over from the previous
+	// shift without a database query. Dropped if the previous shift is still
+	// seeding or the next one does not follow it, e.g. a calendar day after a
+	// shift, then the next getKpis seeds it. Returns the current totals, null
+	// if none.
+	private ShiftTotals rollOver(Equipment equipment, ShiftTotals previous, long time) {
+		Long key = equipment.getKey();
+		ShiftTotals next = null;
+
+		try {
+			if (previous.isSeeded()) {
+				next = windowAt(equipment, toLocalDateTime(time));
+
+				if (!next.carryOver(previous)) {
+					next = null;
+				}
+			}
+		} catch (Exception e) {
+			// seeded from the database instead
+			next = null;
+		}
+
+		if (next == null) {
+			totals.remove(key, previous);
+		} else {
+			// unless another caller rolled it over or seeded it meanwhile
+			totals.replace(key, previous, next);
+		}
+		return totals.get(key);
+	}
+
+	// the empty totals of the shift at the time, the calendar day if none
+	private ShiftTotals windowAt(Equipment equipment, LocalDateTime time) throws Exception {
+		ShiftInstance shift = shiftResolver.resolve(equipment, time);
+
+		if (shift != null) {
+			return new ShiftTotals(shift.getShift().getName(), toSeconds(shift.getStartTime()),
+					toSeconds(shift.getEndTime()));
+		}
+
+		LocalDate today = time.toLocalDate();
+		return new ShiftTotals(DAY, toSeconds(today.atStartOfDay()), toSeconds(today.plusDays(1).atStartOfDay()));
+	}
+
+	// one at a time for each equipment, a seed is only needed at the start of a
+	// shift. Other equipment is seeded meanwhile.
+	private ShiftTotals seed(Equipment equipment) throws Exception {
+		synchronized (seedLocks.computeIfAbsent(equipment.getKey(), key -> new Object())) {
+			LocalDateTime now = LocalDateTime.now();
+			ShiftTotals current = totals.get(equipment.getKey());
+
+			if (current != null && current.contains(toSeconds(now)) && current.isSeeded()) {
+				// seeded by another UI meanwhile
+				return current;
+			}
+
+			ShiftTotals seeded = windowAt(equipment, now);
+
+			// events recorded while loading are held back until it is done
+			totals.put(equipment.getKey(), seeded);
+
+			OffsetDateTime from = OffsetDateTime.ofInstant(Instant.ofEpochSecond(seeded.start),
+					ZoneId.systemDefault());
+			try {
+				seeded.seed(eventLoader.loadSince(equipment, from));
+			} catch (RuntimeException e) {
+				// nothing more is held back for it
+				totals.remove(equipment.getKey(), seeded);
+				throw e;
+			}
+			return seeded;
+		}
+	}
+
+	int size() {
+		return totals.size();
+	}
+
+	private static boolean isMeasured(OeeEventType type) {
+		return type == OeeEventType.AVAILABILITY || type == OeeEventType.PROD_GOOD
+				|| type == OeeEventType.PROD_REJECT || type == OeeEventType.PROD_STARTUP;
+	}
+
+	private static long toSeconds(LocalDateTime time) {
+		return time.atZone(ZoneId.systemDefault()).toEpochSecond();
+	}
+
+	private static long toSeconds(OffsetDateTime time) {
+		return time.toEpochSecond();
+	}
+
+	private static LocalDateTime toLocalDateTime(long seconds) {
+		return LocalDateTime.ofInstant(Instant.ofEpochSecond(seconds), ZoneId.systemDefault());
+	}
+
+	// the running totals of one shift instance
+	private static final class ShiftTotals {
+		private final String shiftName;
+		private final long start;
+		private final long end;
+
+		// lost seconds by category
+		private final long[] losses = new long[TimeLoss.values().length];
+
+		// production amounts
+		private double good;
+		private double reject;
+		private double startup;
+
+		// the availability reason in effect since a time
+		private TimeLoss openLoss;
+		private long openSince;
+
+		// while seeding, null after
+		private List<OeeEvent> heldBack = new ArrayList<>();
+
+		private ShiftTotals(String shiftName, long start, long end) {
+			this.shiftName = shiftName;
+			this.start = start;
+			this.end = end;
+		}
+
+		private boolean contains(long time) {
+			return time >= start && time < end;
+		}
+
+		private synchronized boolean isSeeded() {
+			return heldBack == null;
+		}
+
+		// seeded with the availability state in effect at the end of the
+		// previous shift. False unless this shift starts at or after that end,
+		// otherwise the losses of the overlap are not known.
+		private boolean carryOver(ShiftTotals previous) {
+			if (start < previous.end) {
+				return false;
+			}
+
+			synchronized (previous) {
+				openLoss = previous.openLoss;
+				openSince = Math.max(start, previous.openSince);
+			}
+			heldBack = null;
+			return true;
+		}
+
+		private synchronized void seed(List<OeeEvent> events) {
+			// the same event may be loaded and held back
+			Set<String> loaded = new HashSet<>();
+
+			for (OeeEvent event : events) {
+				apply(event);
+				loaded.add(signatureOf(event));
+			}
+
+			for (OeeEvent event : heldBack) {
+				if (!loaded.contains(signatureOf(event))) {
+					apply(event);
+				}
+			}
+			heldBack = null;
+		}
+
+		private synchronized void fold(OeeEvent event) {
+			if (heldBack != null) {
+				heldBack.add(event);
+			} else {
+				apply(event);
+			}
+		}
+
+		private void apply(OeeEvent event) {
+			long time = toSeconds(event.getStartTime());
+
+			if (time < start && event.getEventType() == OeeEventType.AVAILABILITY && event.getDuration() == null) {
+				// in effect when the shift started
+				openLoss = lossOf(event);
+				openSince = start;
+				return;
+			}
+
+			if (!contains(time)) {
+				// another shift
+				return;
+			}
+
+			switch (event.getEventType()) {
+			case AVAILABILITY:
+				applyAvailability(event, time);
+				break;
+			case PROD_GOOD:
+				good += amountOf(event);
+				break;
+			case PROD_REJECT:
+				reject += amountOf(event);
+				break;
+			case PROD_STARTUP:
+				startup += amountOf(event);
+				break;
+			default:
+				break;
+			}
+		}
+
+		private void applyAvailability(OeeEvent event, long time) {
+			TimeLoss loss = lossOf(event);
+
+			if (event.getDuration() != null) {
+				// a summary
+				long duration = event.getDuration().getSeconds();
+				losses[loss.ordinal()] += duration;
+
+				// the open state did not run meanwhile
+				if (openLoss != null && time >= openSince) {
+					losses[openLoss.ordinal()] += time - openSince;
+					openSince = time + duration;
+				}
+				return;
+			}
+
+			// a change of state, the previous one lasted until now
+			if (openLoss != null && time > openSince) {
+				losses[openLoss.ordinal()] += time - openSince;
+			}
+
+			if (openLoss == null || time >= openSince) {
+				openLoss = loss;
+				openSince = time;
+			}
+		}
+
+		private static TimeLoss lossOf(OeeEvent event) {
+			Reason reason = event.getReason();
+			return reason != null && reason.getLossCategory() != null ? reason.getLossCategory() : TimeLoss.NO_LOSS;
+		}
+
+		private static double amountOf(OeeEvent event) {
+			return event.getAmount() != null ? event.getAmount() : 0.0;
+		}
+
+		private static String signatureOf(OeeEvent event) {
+			return event.getEventType() + "|" + event.getStartTime().toEpochSecond() + "|" + event.getAmount() + "|"
+					+ (event.getReason() != null ? event.getReason().getName() : "");
+		}
+
+		// with the downtime opened but not yet recorded, null if none
+		private synchronized Kpis toKpis(long now, OeeEvent downtime) {
+			Map<TimeLoss, Long> lost = new EnumMap<>(TimeLoss.class);
+
+			for (TimeLoss loss : TimeLoss.values()) {
+				lost.put(loss, losses[loss.ordinal()]);
+			}
+
+			long upTo = Math.min(now, end);
+			long openUntil = upTo;
+
+			// the open downtime so far, it ends the open state
+			if (downtime != null) {
+				long downSince = Math.max(start, toSeconds(downtime.getStartTime()));
+
+				if (upTo > downSince) {
+					lost.merge(lossOf(downtime), upTo - downSince, Long::sum);
+					openUntil = downSince;
+				}
+			}
+
+			// the open state so far
+			if (openLoss != null && openUntil > openSince) {
+				lost.merge(openLoss, openUntil - openSince, Long::sum);
+			}
+
+			return new Kpis(shiftName, upTo - start, Collections.unmodifiableMap(lost), good, reject, startup);
+		}
+	}
+
+	// availability, performance, quality and OEE of a shift so far, from the
+	// recorded time losses and production amounts
+	static final class Kpis {
+		private final String shiftName;
+		private final long elapsed;
+		private final Map<TimeLoss, Long> losses;
+		private final double good;
+		private final double reject;
+		private final double startup;
+
+		private Kpis(String shiftName, long elapsed, Map<TimeLoss, Long> losses, double good, double reject,
+				double startup) {
+			this.shiftName = shiftName;
+			this.elapsed = elapsed;
+			this.losses = losses;
+			this.good = good;
+			this.reject = reject;
+			this.startup = startup;
+		}
+
+		String getShiftName() {
+			return shiftName;
+		}
+
+		// seconds since the start of the shift
+		long getElapsed() {
+			return elapsed;
+		}
+
+		Map<TimeLoss, Long> getLosses() {
+			return losses;
+		}
+
+		// scheduled time less downtime, over scheduled time
+		double getAvailability() {
+			long scheduled = getScheduledTime();
+			return scheduled > 0 ? getAvailableTime() / (double) scheduled : 1.0;
+		}
+
+		// available time less speed losses, over available time
+		double getPerformance() {
+			long available = getAvailableTime();
+			long speedLoss = losses.get(TimeLoss.MINOR_STOPPAGES) + losses.get(TimeLoss.REDUCED_SPEED);
+			return available > 0 ? Math.max(0, available - speedLoss) / (double) available : 1.0;
+		}
+
+		// good over everything produced
+		double getQuality() {
+			double total = good + reject + startup;
+			return total > 0 ? good / total : 1.0;
+		}
+
+		double getOee() {
+			return getAvailability() * getPerformance() * getQuality();
+		}
+
+		double getGood() {
+			return good;
+		}
+
+		double getReject() {
+			return reject;
+		}
+
+		double getStartup() {
+			return startup;
+		}
+
+		private long getScheduledTime() {
+			return Math.max(0, elapsed - losses.get(TimeLoss.NOT_SCHEDULED) - losses.get(TimeLoss.UNSCHEDULED));
+		}
+
+		private long getAvailableTime() {
+			long downtime = losses.get(TimeLoss.PLANNED_DOWNTIME) + losses.get(TimeLoss.SETUP)
+					+ losses.get(TimeLoss.UNPLANNED_DOWNTIME);
+			return Math.max(0, getScheduledTime() - downtime);
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package org.point85.ops;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// lock and allocation free latency histogram in microseconds. Buckets are
+// log-linear as in HdrHistogram: exact below 32 us, then 16 sub-buckets per
+// power of two (about 6% resolution).
+class LatencyRecorder {
+	private static final int SUB_BITS = 5;
+	private static final int LINEAR_LIMIT = 1 << SUB_BITS;
+	private static final int SUB_BUCKETS = LINEAR_LIMIT / 2;
+
+	// up to 2^36 us (about 19 hours)
+	private static final int MAX_EXPONENT = 36 - SUB_BITS + 1;
+	private static final int BUCKET_COUNT = LINEAR_LIMIT + MAX_EXPONENT * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	void record(long nanos) {
+		long micros = Math.max(0, nanos / 1000);
+
+		counts.incrementAndGet(indexOf(micros));
+		count.incrementAndGet();
+		sum.addAndGet(micros);
+
+		long current = max.get();
+		while (micros > current && !max.compareAndSet(current, micros)) {
+			current = max.get();
+		}
+	}
+
+	// time since the start in nanoseconds
+	void recordSince(long startNanos) {
+		record(System.nanoTime() - startNanos);
+	}
+
+	private static int indexOf(long micros) {
+		if (micros < LINEAR_LIMIT) {
+			return (int) micros;
+		}
+
+		int exponent = (63 - Long.numberOfLeadingZeros(micros)) - (SUB_BITS - 1);
+		int mantissa = (int) (micros >>> exponent);
+		int index = LINEAR_LIMIT + (exponent - 1) * SUB_BUCKETS + (mantissa - SUB_BUCKETS);
+
+		return Math.min(index, BUCKET_COUNT - 1);
+	}
+
+	// upper bound of a bucket in microseconds
+	private static long upperBound(int index) {
+		if (index < LINEAR_LIMIT) {
+			return index;
+		}
+		int exponent = (index - LINEAR_LIMIT) / SUB_BUCKETS + 1;
+		int mantissa = (index - LINEAR_LIMIT) % SUB_BUCKETS + SUB_BUCKETS;
+
+		return ((long) (mantissa + 1) << exponent) - 1;
+	}
+
+	// latency in microseconds at the quantile (0 to 1)
+	long getQuantile(double quantile) {
+		long total = count.get();
+
+		if (total == 0) {
+			return 0;
+		}
+
+		long rank = Math.max(1, (long) Math.ceil(quantile * total));
+		long seen = 0;
+
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += counts.get(i);
+
+			if (seen >= rank) {
+				return Math.min(upperBound(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	long getCount() {
+		return count.get();
+	}
+
+	// total in microseconds
+	long getSum() {
+		return sum.get();
+	}
+
+	// in microseconds
+	long getMax() {
+		return max.get();
+	}
+}
@@ -0,0 +1,149 @@
+package org.point85.ops;
+
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// in-process stand-in for the broker: one thread per partition on a single
+// node. Nothing survives a restart, and a payload that can never be consumed
+// is only logged.
+class LocalPartitionTransport implements PartitionTransport {
+	// logger
+	private static final Logger logger = LoggerFactory.getLogger(LocalPartitionTransport.class);
+
+	// retry back off (msec)
+	private static final long INITIAL_RETRY = 1000;
+	private static final long MAX_RETRY = 60000;
+
+	private final ExecutorService[] partitions;
+
+	private volatile boolean running = false;
+
+	private PayloadConsumer partitionConsumer;
+	private PayloadConsumer recordedConsumer;
+
+	private final AtomicLong retryCount = new AtomicLong();
+	private final AtomicLong rejectedCount = new AtomicLong();
+
+	LocalPartitionTransport(int partitionCount) {
+		partitions = new ExecutorService[partitionCount];
+	}
+
+	@Override
+	public synchronized void start(PayloadConsumer partitionConsumer, PayloadConsumer recordedConsumer) {
+		this.partitionConsumer = partitionConsumer;
+		this.recordedConsumer = recordedConsumer;
+
+		for (int i = 0; i < partitions.length; i++) {
+			String name = "oee-partition-" + i;
+			partitions[i] = Executors.newSingleThreadExecutor(runnable -> {
+				Thread thread = new Thread(runnable, name);
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		running = true;
+	}
+
+	@Override
+	public CompletableFuture<Void> send(int partition, byte[] payload) {
+		CompletableFuture<Void> future = new CompletableFuture<>();
+
+		if (!running) {
+			future.completeExceptionally(new Exception("The partition transport is not running."));
+			return future;
+		}
+
+		try {
+			partitions[partition].execute(() -> consume(payload));
+
+			// in process, taken as durable once queued
+			Metrics.RECORD_EVENT.record(0);
+			future.complete(null);
+		} catch (RejectedExecutionException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	private void consume(byte[] payload) {
+		long wait = INITIAL_RETRY;
+
+		while (running) {
+			try {
+				partitionConsumer.accept(payload);
+				return;
+			} catch (Exception e) {
+				if (!TransientFailures.isTransient(e)) {
+					// kept in the log, the partition moves on
+					rejectedCount.incrementAndGet();
+					logger.error("Rejecting partition event " + Base64.getEncoder().encodeToString(payload) + ": "
+							+ e.getMessage());
+					return;
+				}
+
+				retryCount.incrementAndGet();
+				logger.error("Unable to consume partition event, retrying in " + wait + " ms: " + e.getMessage());
+
+				try {
+					Thread.sleep(wait);
+				} catch (InterruptedException ie) {
+					return;
+				}
+				wait = Math.min(wait * 2, MAX_RETRY);
+			}
+		}
+	}
+
+	@Override
+	public void announce(byte[] payload) {
+		try {
+			recordedConsumer.accept(payload);
+		} catch (Exception e) {
+			logger.error("Recorded announcement failed: " + e.getMessage());
+		}
+	}
+
+	@Override
+	public int getPartitionCount() {
+		return partitions.length;
+	}
+
+	@Override
+	public long getRetryCount() {
+		return retryCount.get();
+	}
+
+	@Override
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+	@Override
+	public synchronized void close() {
+		for (ExecutorService partition : partitions) {
+			if (partition != null) {
+				partition.shutdown();
+			}
+		}
+
+		// let queued events finish
+		for (ExecutorService partition : partitions) {
+			try {
+				if (partition != null && !partition.awaitTermination(5, TimeUnit.SECONDS)) {
+					partition.shutdownNow();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		running = false;
+	}
+}
@@ -0,0 +1,199 @@
+package org.point85.ops;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.point85.domain.persistence.PersistenceService;
+import org.point85.domain.plant.Material;
+
+// material categories and pages of materials shared by all UIs
+class MaterialCatalog {
+	// materials per page
+	static final int PAGE_SIZE = 100;
+
+	// entry lifetime (msec)
+	private static final long TIME_TO_LIVE = 10 * 60 * 1000;
+
+	// cached pages
+	private static final int MAX_PAGES = 2000;
+
+	// cache key for the category list
+	private static final String CATEGORIES = "";
+
+	private final ExpiringCache<String, List<MaterialCategory>> categoryCache = new ExpiringCache<>(TIME_TO_LIVE, 1);
+
+	private final ExpiringCache<String, Integer> countCache = new ExpiringCache<>(TIME_TO_LIVE, MAX_PAGES);
+
+	private final ExpiringCache<String, Material> nameCache = new ExpiringCache<>(TIME_TO_LIVE, MAX_PAGES);
+
+	private final ExpiringCache<PageKey, List<MaterialCategory>> pageCache = new ExpiringCache<>(TIME_TO_LIVE,
+			MAX_PAGES);
+
+	// type-ahead over all materials
+	private volatile PrefixIndex<Material> searchIndex;
+
+	// database version of the materials in each category, null until first
+	// checked
+	private Map<String, Long> categoryVersions;
+
+	List<MaterialCategory> getCategories() {
+		return categoryCache.get(CATEGORIES, key -> {
+			List<String> categories = new ArrayList<>(PersistenceService.instance().fetchMaterialCategories());
+			Collections.sort(categories);
+
+			List<MaterialCategory> materialCategories = new ArrayList<>(categories.size());
+			for (String category : categories) {
+				materialCategories.add(new MaterialCategory(category));
+			}
+			return Collections.unmodifiableList(materialCategories);
+		});
+	}
+
+	int getMaterialCount(String category) {
+		return countCache.get(category, OperationsQueries::countMaterialsInCategory);
+	}
+
+	// the materials in the category from offset up to limit, a page at a time
+	List<MaterialCategory> getMaterials(String category, int offset, int limit) {
+		List<MaterialCategory> materials = new ArrayList<>(limit);
+
+		int end = Math.min(offset + limit, getMaterialCount(category));
+		int position = offset;
+
+		while (position < end) {
+			int pageIndex = position / PAGE_SIZE;
+			List<MaterialCategory> page = getPage(category, pageIndex);
+
+			int from = position - pageIndex * PAGE_SIZE;
+			int to = Math.min(page.size(), end - pageIndex * PAGE_SIZE);
+
+			if (from >= to) {
+				// fewer than counted
+				break;
+			}
+			materials.addAll(page.subList(from, to));
+			position += to - from;
+		}
+		return materials;
+	}
+
+	private List<MaterialCategory> getPage(String category, int pageIndex) {
+		return pageCache.get(new PageKey(category, pageIndex), key -> {
+			List<Material> materials = OperationsQueries.fetchMaterialsInCategory(category, pageIndex * PAGE_SIZE,
+					PAGE_SIZE);
+
+			List<MaterialCategory> page = new ArrayList<>(materials.size());
+			for (Material material : materials) {
+				page.add(new MaterialCategory(material));
+			}
+			return Collections.unmodifiableList(page);
+		});
+	}
+
+	// null if not found
+	Material findByName(String name) {
+		Material material = nameCache.get(name, OperationsQueries::fetchMaterialByName);
+
+		if (material == null) {
+			// may be added later
+			nameCache.invalidate(name);
+		}
+		return material;
+	}
+
+	List<Material> search(String prefix, int limit) {
+		PrefixIndex<Material> index = searchIndex;
+
+		if (index == null) {
+			// only if the warm-up or the last rebuild failed
+			index = buildSearchIndex();
+		}
+		return index.search(prefix, limit);
+	}
+
+	// built at startup and after a material change, off the request threads
+	synchronized PrefixIndex<Material> buildSearchIndex() {
+		if (searchIndex == null) {
+			PrefixIndex.Builder<Material> builder = PrefixIndex.builder();
+
+			for (Material material : OperationsQueries.fetchAllMaterials()) {
+				builder.add(material.getName(), material).add(material.getDescription(), material);
+			}
+			searchIndex = builder.build();
+		}
+		return searchIndex;
+	}
+
+	// drop the cached pages of the categories whose materials changed. Returns
+	// the changed categories, none on the first check.
+	synchronized Set<String> refreshChangedCategories() {
+		Map<String, Long> current = OperationsQueries.fetchMaterialCategoryVersions();
+		Map<String, Long> previous = categoryVersions;
+		categoryVersions = current;
+
+		if (previous == null) {
+			return Collections.emptySet();
+		}
+
+		Set<String> changed = new HashSet<>();
+		for (Map.Entry<String, Long> entry : current.entrySet()) {
+			if (!entry.getValue().equals(previous.get(entry.getKey()))) {
+				changed.add(entry.getKey());
+			}
+		}
+		for (String category : previous.keySet()) {
+			if (!current.containsKey(category)) {
+				changed.add(category);
+			}
+		}
+
+		if (!changed.isEmpty()) {
+			if (!current.keySet().equals(previous.keySet())) {
+				categoryCache.invalidateAll();
+			}
+			changed.forEach(countCache::invalidate);
+			pageCache.invalidateIf(key -> changed.contains(key.category));
+			nameCache.invalidateAll();
+			searchIndex = null;
+		}
+		return changed;
+	}
+
+	long getHitCount() {
+		return categoryCache.getHitCount() + countCache.getHitCount() + pageCache.getHitCount()
+				+ nameCache.getHitCount();
+	}
+
+	long getMissCount() {
+		return categoryCache.getMissCount() + countCache.getMissCount() + pageCache.getMissCount()
+				+ nameCache.getMissCount();
+	}
+
+	private static final class PageKey {
+		private final String category;
+		private final int pageIndex;
+
+		private PageKey(String category, int pageIndex) {
+			this.category = category;
+			this.pageIndex = pageIndex;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof PageKey)) {
+				return false;
+			}
+			PageKey key = (PageKey) other;
+			return pageIndex == key.pageIndex && category.equals(key.category);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * category.hashCode() + pageIndex;
+		}
+	}
+}
@@ -1,20 +1,18 @@
 package org.point85.ops;
 
-import java.util.ArrayList;
-import java.util.List;
-
-import org.point85.domain.persistence.PersistenceService;
 import org.point85.domain.plant.Material;
 
 public class MaterialCategory {
-	private Material material;
-	private String materialCategory;
+	private final Material material;
+	private final String materialCategory;
 
 	public MaterialCategory(Material material) {
 		this.material = material;
+		this.materialCategory = null;
 	}
 
 	public MaterialCategory(String category) {
+		this.material = null;
 		this.materialCategory = category;
 	}
 
@@ -30,13 +28,7 @@ public class MaterialCategory {
 		return material;
 	}
 
-	public List<MaterialCategory> getMaterialsInCategory() throws Exception {
-		List<Material> materials = PersistenceService.instance().fetchMaterialsByCategory(materialCategory);
-
-		List<MaterialCategory> materialCategories = new ArrayList<>();
-		for (Material material : materials) {
-			materialCategories.add(new MaterialCategory(material));
-		}
-		return materialCategories;
+	public String getCategory() {
+		return (material != null) ? material.getCategory() : materialCategory;
 	}
 }
@@ -0,0 +1,67 @@
+package org.point85.ops;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+import com.vaadin.data.provider.AbstractBackEndHierarchicalDataProvider;
+import com.vaadin.data.provider.HierarchicalQuery;
+
+// material categories with their materials loaded a page at a time
+class MaterialDataProvider extends AbstractBackEndHierarchicalDataProvider<MaterialCategory, Void> {
+	private static final long serialVersionUID = 4176372630874511307L;
+
+	// shared cache
+	private final MaterialCatalog materialCatalog;
+
+	MaterialDataProvider(MaterialCatalog materialCatalog) {
+		this.materialCatalog = materialCatalog;
+	}
+
+	@Override
+	public int getChildCount(HierarchicalQuery<MaterialCategory, Void> query) {
+		MaterialCategory parent = query.getParentOptional().orElse(null);
+
+		if (parent == null) {
+			return materialCatalog.getCategories().size();
+		}
+		return getChildCount(parent);
+	}
+
+	@Override
+	public boolean hasChildren(MaterialCategory item) {
+		return getChildCount(item) > 0;
+	}
+
+	@Override
+	protected Stream<MaterialCategory> fetchChildrenFromBackEnd(HierarchicalQuery<MaterialCategory, Void> query) {
+		long start = System.nanoTime();
+
+		MaterialCategory parent = query.getParentOptional().orElse(null);
+		List<MaterialCategory> page;
+
+		if (parent == null) {
+			List<MaterialCategory> categories = materialCatalog.getCategories();
+			int from = Math.min(query.getOffset(), categories.size());
+			int to = Math.min(from + query.getLimit(), categories.size());
+			page = categories.subList(from, to);
+		} else {
+			page = materialCatalog.getMaterials(parent.getCategory(), query.getOffset(), query.getLimit());
+		}
+
+		Metrics.FETCH_MATERIALS.recordSince(start);
+
+		return page.stream();
+	}
+
+	@Override
+	public Object getId(MaterialCategory item) {
+		return item.getMaterial() != null ? "M" + item.getMaterial().getKey() : "C" + item.getCategory();
+	}
+
+	private int getChildCount(MaterialCategory item) {
+		if (item.getMaterial() != null) {
+			return 0;
+		}
+		return materialCatalog.getMaterialCount(item.getCategory());
+	}
+}
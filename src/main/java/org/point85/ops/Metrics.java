@@ -0,0 +1,67 @@
+package org.point85.ops;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleSupplier;
+
+// application metrics. Latency recorders are static so that the measured
+// paths do not look anything up.
+final class Metrics {
+	// registered by name, sorted for output
+	private static final Map<String, LatencyRecorder> timers = new ConcurrentSkipListMap<>();
+	private static final Map<String, DoubleSupplier> gauges = new ConcurrentSkipListMap<>();
+
+	// presenter
+	static final LatencyRecorder POPULATE_ENTITIES = timer("populate_entities");
+	static final LatencyRecorder POPULATE_REASONS = timer("populate_reasons");
+	static final LatencyRecorder POPULATE_MATERIALS = timer("populate_materials");
+	static final LatencyRecorder FETCH_ENTITIES = timer("fetch_entities");
+	static final LatencyRecorder FETCH_MATERIALS = timer("fetch_materials");
+	static final LatencyRecorder FETCH_HISTORY = timer("fetch_history");
+
+	// recording
+	static final LatencyRecorder FETCH_LAST_EVENT = timer("fetch_last_event");
+	static final LatencyRecorder RECORD_EVENT = timer("record_event");
+	static final LatencyRecorder RECORD_RESOLUTION = timer("record_resolution");
+
+	// ingest API
+	static final LatencyRecorder INGEST_PARSE = timer("ingest_parse");
+	static final LatencyRecorder INGEST_REQUEST = timer("ingest_request");
+	static final AtomicLong INGESTED_EVENTS = new AtomicLong();
+	static final AtomicLong INGEST_FAILURES = new AtomicLong();
+
+	// UI
+	static final AtomicLong ACTIVE_SESSIONS = new AtomicLong();
+	static final AtomicLong PENDING_PUSHES = new AtomicLong();
+
+	static {
+		gauge("active_ui_sessions", ACTIVE_SESSIONS::get);
+		gauge("pending_pushes", PENDING_PUSHES::get);
+		gauge("ingested_events", INGESTED_EVENTS::get);
+		gauge("ingest_failures", INGEST_FAILURES::get);
+	}
+
+	private Metrics() {
+		// static only
+	}
+
+	private static LatencyRecorder timer(String name) {
+		LatencyRecorder recorder = new LatencyRecorder();
+		timers.put(name, recorder);
+		return recorder;
+	}
+
+	// a value read when the metrics are scraped
+	static void gauge(String name, DoubleSupplier supplier) {
+		gauges.put(name, supplier);
+	}
+
+	static Map<String, LatencyRecorder> getTimers() {
+		return timers;
+	}
+
+	static Map<String, DoubleSupplier> getGauges() {
+		return gauges;
+	}
+}
@@ -0,0 +1,76 @@
+package org.point85.ops;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.function.DoubleSupplier;
+
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// metrics in the Prometheus text exposition format
+@WebServlet(urlPatterns = { "/metrics" }, name = "MetricsServlet")
+public class MetricsServlet extends HttpServlet {
+	private static final long serialVersionUID = -6287934164718220371L;
+
+	// logger
+	private static final Logger logger = LoggerFactory.getLogger(MetricsServlet.class);
+
+	private static final String PREFIX = "oee_ops_";
+
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+	@Override
+	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		response.setContentType("text/plain; version=0.0.4; charset=utf-8");
+		response.setHeader("Cache-Control", "no-cache");
+
+		PrintWriter writer = response.getWriter();
+
+		for (Map.Entry<String, LatencyRecorder> entry : Metrics.getTimers().entrySet()) {
+			writeTimer(writer, PREFIX + entry.getKey() + "_seconds", entry.getValue());
+		}
+
+		for (Map.Entry<String, DoubleSupplier> entry : Metrics.getGauges().entrySet()) {
+			writeGauge(writer, PREFIX + entry.getKey(), entry.getValue());
+		}
+		writer.flush();
+	}
+
+	private void writeTimer(PrintWriter writer, String name, LatencyRecorder recorder) {
+		writer.println("# TYPE " + name + " summary");
+
+		for (double quantile : QUANTILES) {
+			writer.println(name + "{quantile=\"" + quantile + "\"} " + toSeconds(recorder.getQuantile(quantile)));
+		}
+		writer.println(name + "_sum " + toSeconds(recorder.getSum()));
+		writer.println(name + "_count " + recorder.getCount());
+
+		writer.println("# TYPE " + name + "_max gauge");
+		writer.println(name + "_max " + toSeconds(recorder.getMax()));
+	}
+
+	private void writeGauge(PrintWriter writer, String name, DoubleSupplier supplier) {
+		double value;
+
+		try {
+			value = supplier.getAsDouble();
+		} catch (Exception e) {
+			// e.g. a service not yet started
+			logger.debug("Gauge " + name + " unavailable: " + e.getMessage());
+			return;
+		}
+
+		writer.println("# TYPE " + name + " gauge");
+		writer.println(name + " " + value);
+	}
+
+	private static double toSeconds(long micros) {
+		return micros / 1.0E+06;
+	}
+}
@@ -1,76 +1,135 @@
 package org.point85.ops;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.function.Consumer;
 
-import org.point85.domain.collector.OeeEvent;
-import org.point85.domain.persistence.PersistenceService;
 import org.point85.domain.plant.Equipment;
-import org.point85.domain.plant.PlantEntity;
+import org.point85.domain.plant.Material;
 import org.point85.domain.plant.Reason;
-import org.point85.domain.script.OeeEventType;
+import org.point85.ops.SetupCache.CurrentSetup;
 
-import com.vaadin.data.TreeData;
-import com.vaadin.data.provider.TreeDataProvider;
+import com.vaadin.ui.Component;
 import com.vaadin.ui.Tree;
 import com.vaadin.ui.TreeGrid;
 
 public class OperationsPresenter  {
+
 	// view
 	private final OperationsView operationsView;
 
+	// reasons shown in the grid
+	private ReasonCatalog.Snapshot reasonSnapshot;
+
 	OperationsPresenter(OperationsView view) {
 		this.operationsView = view;
 	}
 
+	// runs the query on the fetch executor, then applies the result on the UI
+	// thread. The target component shows as loading in between.
+	private <T> void fetch(Component target, Callable<T> query, Consumer<T> onResult) {
+		if (target != null) {
+			operationsView.showLoading(target, true);
+		}
+
+		AppServices.instance().getFetchExecutor().submit(query)
+				.whenComplete((result, failure) -> operationsView.push(() -> {
+					if (target != null) {
+						operationsView.showLoading(target, false);
+					}
+
+					if (failure != null) {
+						operationsView.showException(
+								failure instanceof Exception ? (Exception) failure : new Exception(failure));
+					} else {
+						onResult.accept(result);
+					}
+				}));
+	}
+
+	// timed by the query and the handling of its result, not the wait for a
+	// fetch thread or the UI lock
+	private <T> void fetch(Component target, Callable<T> query, Consumer<T> onResult, LatencyRecorder timer) {
+		// written by the fetch thread before the result is handed over
+		long[] queryTime = new long[1];
+
+		fetch(target, () -> {
+			long start = System.nanoTime();
+			try {
+				return query.call();
+			} finally {
+				queryTime[0] = System.nanoTime() - start;
+			}
+		}, result -> {
+			long start = System.nanoTime();
+			onResult.accept(result);
+			timer.record(queryTime[0] + System.nanoTime() - start);
+		});
+	}
+
 	void populateTopEntityNodes(Tree<EntityNode> entityTree) {
+		populateTopEntityNodes(entityTree, () -> {
+		});
+	}
 
-		// fetch the entities
-		List<PlantEntity> entities = PersistenceService.instance().fetchTopPlantEntities();
-		Collections.sort(entities);
+	void populateTopEntityNodes(Tree<EntityNode> entityTree, Runnable onPopulated) {
+		fetch(entityTree, EntityDataProvider::fetchTopEntities, topEntities -> {
+			// children are queried a page at a time as nodes are expanded
+			entityTree.setDataProvider(new EntityDataProvider(AppServices.instance().getEntityNodeRegistry(),
+					topEntities));
+			onPopulated.run();
+		}, Metrics.POPULATE_ENTITIES);
+	}
 
-		List<EntityNode> entityNodes = new ArrayList<>();
+	void populateReasonGrid(TreeGrid<Reason> reasonTreeGrid) {
+		// shared with all other UIs
+		fetch(reasonTreeGrid, AppServices.instance().getReasonCatalog()::getSnapshot, snapshot -> {
+			reasonSnapshot = snapshot;
 
-		for (PlantEntity entity : entities) {
-			entityNodes.add(new EntityNode(entity));
-		}
+			// read from the snapshot, not copied into the grid
+			reasonTreeGrid.setDataProvider(new ReasonDataProvider(snapshot));
+		}, Metrics.POPULATE_REASONS);
+	}
 
-		// An initial entity tree
-		TreeData<EntityNode> treeData = new TreeData<>();
+	// a reloaded reason catalog
+	void updateReasonGrid(TreeGrid<Reason> reasonTreeGrid, ReasonCatalog.Snapshot snapshot) {
+		if (snapshot == reasonSnapshot || !(reasonTreeGrid.getDataProvider() instanceof ReasonDataProvider)) {
+			// already shown, or released
+			return;
+		}
+		reasonSnapshot = snapshot;
 
-		// add the roots
-		treeData.addItems(null, entityNodes);
+		// expanded rows stay expanded
+		((ReasonDataProvider) reasonTreeGrid.getDataProvider()).setSnapshot(snapshot);
+	}
 
-		TreeDataProvider<EntityNode> dataProvider = new TreeDataProvider<>(treeData);
-		entityTree.setDataProvider(dataProvider);
+	Reason findReason(String name) {
+		return AppServices.instance().getReasonCatalog().findByName(name);
 	}
 
-	void populateReasonGrid(TreeGrid<Reason> reasonTreeGrid) {
-		List<Reason> reasons = PersistenceService.instance().fetchTopReasons();
+	List<Reason> searchReasons(String prefix, int limit) {
+		return AppServices.instance().getReasonCatalog().getSnapshot().search(prefix, limit);
+	}
 
-		// Initialize a TreeGrid and set in-memory data
-		reasonTreeGrid.setItems(reasons, Reason::getChildren);
+	List<Material> searchMaterials(String prefix, int limit) {
+		return AppServices.instance().getMaterialCatalog().search(prefix, limit);
 	}
 
 	void populateMaterialGrid(TreeGrid<MaterialCategory> materialTreeGrid) {
-		List<String> categories = PersistenceService.instance().fetchMaterialCategories();
+		MaterialCatalog catalog = AppServices.instance().getMaterialCatalog();
 
-		List<MaterialCategory> materialCategories = new ArrayList<>();
-		for (String category : categories) {
-			materialCategories.add(new MaterialCategory(category));
-		}
+		// the categories are cached, materials are queried a page at a time as
+		// categories are expanded
+		fetch(materialTreeGrid, catalog::getCategories, categories -> {
+			materialTreeGrid.setDataProvider(new MaterialDataProvider(catalog));
+		}, Metrics.POPULATE_MATERIALS);
+	}
 
-		// Initialize a TreeGrid and set in-memory data
-		materialTreeGrid.setItems(materialCategories, source -> {
-			List<MaterialCategory> materials = new ArrayList<>();
-			try {
-				materials = source.getMaterialsInCategory();
-			} catch (Exception e) {
-				onException(e);
-			}
-			return materials;
-		});
+	// changed categories are queried again, the others come from the catalog
+	void updateMaterialGrid(TreeGrid<MaterialCategory> materialTreeGrid) {
+		if (materialTreeGrid.getDataProvider() instanceof MaterialDataProvider) {
+			materialTreeGrid.getDataProvider().refreshAll();
+		}
 	}
 
 	// callback
@@ -78,7 +137,22 @@ public class OperationsPresenter  {
 		operationsView.onException(e);
 	}
 
-	public OeeEvent getLastSetup(Equipment equipment) {
-		return PersistenceService.instance().fetchLastEvent(equipment, OeeEventType.MATL_CHANGE);
+	CurrentSetup getCurrentSetup(Equipment equipment) {
+		return AppServices.instance().getSetupCache().getCurrentSetup(equipment);
+	}
+
+	// seeded from the database for the first UI to show the equipment
+	void fetchKpis(Equipment equipment, Component target, Consumer<KpiAggregator.Kpis> onKpis) {
+		fetch(target, () -> AppServices.instance().getKpiAggregator().getKpis(equipment), onKpis);
+	}
+
+	// null if not seeded yet
+	KpiAggregator.Kpis peekKpis(Equipment equipment) {
+		return AppServices.instance().getKpiAggregator().peekKpis(equipment);
+	}
+
+	// the last setup query for an uncached equipment can be slow
+	void fetchCurrentSetup(Equipment equipment, Component target, Consumer<CurrentSetup> onSetup) {
+		fetch(target, () -> getCurrentSetup(equipment), onSetup);
 	}
 }
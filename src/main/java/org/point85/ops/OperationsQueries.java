@@ -0,0 +1,435 @@
+package org.point85.ops;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+import javax.persistence.TypedQuery;
+
+import org.point85.domain.collector.OeeEvent;
+import org.point85.domain.persistence.PersistenceService;
+import org.point85.domain.plant.Equipment;
+import org.point85.domain.plant.Material;
+import org.point85.domain.plant.PlantEntity;
+import org.point85.domain.plant.Reason;
+import org.point85.domain.schedule.WorkSchedule;
+import org.point85.domain.script.OeeEventType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// JPQL queries the domain PersistenceService does not provide
+final class OperationsQueries {
+	// logger
+	private static final Logger logger = LoggerFactory.getLogger(OperationsQueries.class);
+
+	// content hash constants
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	// false once the version queries have failed on a schema without an
+	// optimistic lock version column
+	private static volatile boolean lockVersions = true;
+
+	private OperationsQueries() {
+		// static queries only
+	}
+
+	// row count and highest primary key of a reference entity. Changes when rows
+	// are added or removed without loading any of them.
+	static long fetchEntityVersion(String entityName) {
+		EntityManager em = PersistenceService.instance().getEntityManager();
+
+		try {
+			Object[] result = (Object[]) em
+					.createQuery("SELECT COUNT(e), MAX(e.primaryKey) FROM " + entityName + " e").getSingleResult();
+
+			long count = result[0] != null ? ((Number) result[0]).longValue() : 0;
+			long maxKey = result[1] != null ? ((Number) result[1]).longValue() : 0;
+
+			return (count << 32) ^ maxKey;
+		} finally {
+			em.close();
+		}
+	}
+
+	// a page of the children of a plant entity by name, the top level entities
+	// if the parent is null
+	static List<PlantEntity> fetchChildEntities(PlantEntity parent, int offset, int limit) {
+		EntityManager em = PersistenceService.instance().getEntityManager();
+
+		try {
+			TypedQuery<PlantEntity> query;
+
+			if (parent != null) {
+				query = em.createQuery("SELECT e FROM PlantEntity e WHERE e.parent.primaryKey = :parentKey ORDER BY e.name",
+						PlantEntity.class);
+				query.setParameter("parentKey", parent.getKey());
+			} else {
+				query = em.createQuery("SELECT e FROM PlantEntity e WHERE e.parent IS NULL ORDER BY e.name",
+						PlantEntity.class);
+			}
+
+			return query.setFirstResult(offset).setMaxResults(limit).getResultList();
+		} finally {
+			em.close();
+		}
+	}
+
+	// number of children without loading them
+	static int countChildEntities(PlantEntity parent) {
+		EntityManager em = PersistenceService.instance().getEntityManager();
+
+		try {
+			TypedQuery<Long> query;
+
+			if (parent != null) {
+				query = em.createQuery("SELECT COUNT(e) FROM PlantEntity e WHERE e.parent.primaryKey = :parentKey",
+						Long.class);
+				query.setParameter("parentKey", parent.getKey());
+			} else {
+				query = em.createQuery("SELECT COUNT(e) FROM PlantEntity e WHERE e.parent IS NULL", Long.class);
+			}
+
+			return query.getSingleResult().intValue();
+		} finally {
+			em.close();
+		}
+	}
+
+	// a page of the materials in a category by name
+	static List<Material> fetchMaterialsInCategory(String category, int offset, int limit) {
+		EntityManager em = PersistenceService.instance().getEntityManager();
+
+		try {
+			TypedQuery<Material> query = em.createQuery(
+					"SELECT m FROM Material m WHERE m.category = :category ORDER BY m.name", Material.class);
+			query.setParameter("category", category);
+
+			return query.setFirstResult(offset).setMaxResults(limit).getResultList();
+		} finally {
+			em.close();
+		}
+	}
+
+	static List<Material> fetchAllMaterials() {
+		EntityManager em = PersistenceService.instance().getEntityManager();
+
+		try {
+			return em.createQuery("SELECT m FROM Material m", Material.class).getResultList();
+		} finally {
+			em.close();
+		}
+	}
+
+	static int countMaterialsInCategory(String category) {
+		EntityManager em = PersistenceService.instance().getEntityManager();
+
+		try {
+			TypedQuery<Long> query = em.createQuery("SELECT COUNT(m) FROM Material m WHERE m.category = :category",
+					Long.class);
+			query.setParameter("category", category);
+
+			return query.getSingleResult().intValue();
+		} finally {
+			em.close();
+		}
+	}
+
+	// equipment by its unique name, null if not found
+	static Equipment fetchEquipmentByName(String name) {
+		EntityManager em = PersistenceService.instance().getEntityManager();
+
+		try {
+			List<Equipment> equipment = em
+					.createQuery("SELECT e FROM Equipment e WHERE e.name = :name", Equipment.class)
+					.setParameter("name", name).getResultList();
+
+			return equipment.isEmpty() ? null : equipment.get(0);
+		} finally {
+			em.close();
+		}
+	}
+
+	// material by its unique name, null if not found
+	static Material fetchMaterialByName(String name) {
+		EntityManager em = PersistenceService.instance().getEntityManager();
+
+		try {
+			List<Material> materials = em
+					.createQuery("SELECT m FROM Material m WHERE m.name = :name", Material.class)
+					.setParameter("name", name).getResultList();
+
+			return materials.isEmpty() ? null : materials.get(0);
+		} finally {
+			em.close();
+		}
+	}
+
+	// work schedule of the equipment as now stored, walking up the plant
+	// hierarchy, null if none
+	static WorkSchedule fetchWorkSchedule(Equipment equipment) throws Exception {
+		Equipment stored = findByKey(Equipment.class, equipment.getKey());
+		return stored != null ? stored.findWorkSchedule() : null;
+	}
+
+	// reason by its unique name, null if not found. The database collation
+	// decides whether case matters.
+	static Reason fetchReasonByName(String name) {
+		EntityManager em = PersistenceService.instance().getEntityManager();
+
+		try {
+			List<Reason> reasons = em.createQuery("SELECT r FROM Reason r WHERE r.name = :name", Reason.class)
+					.setParameter("name", name).getResultList();
+
+			return reasons.isEmpty() ? null : reasons.get(0);
+		} finally {
+			em.close();
+		}
+	}
+
+	// the availability and production events of an equipment since a time in
+	// time order, preceded by the last availability state change before it
+	static List<OeeEvent> fetchShiftEvents(Equipment equipment, OffsetDateTime from) {
+		EntityManager em = PersistenceService.instance().getEntityManager();
+
+		try {
+			List<OeeEvent> events = new ArrayList<>(em.createQuery(
+					"SELECT e FROM OeeEvent e WHERE e.equipment = :equipment AND e.eventType = :type AND e.startTime < :from AND e.duration IS NULL ORDER BY e.startTime DESC",
+					OeeEvent.class).setParameter("equipment", equipment).setParameter("type", OeeEventType.AVAILABILITY)
+					.setParameter("from", from).setMaxResults(1).getResultList());
+
+			events.addAll(em.createQuery(
+					"SELECT e FROM OeeEvent e WHERE e.equipment = :equipment AND e.eventType IN :types AND e.startTime >= :from ORDER BY e.startTime",
+					OeeEvent.class).setParameter("equipment", equipment)
+					.setParameter("types", Arrays.asList(OeeEventType.AVAILABILITY, OeeEventType.PROD_GOOD,
+							OeeEventType.PROD_REJECT, OeeEventType.PROD_STARTUP))
+					.setParameter("from", from).getResultList());
+
+			return events;
+		} finally {
+			em.close();
+		}
+	}
+
+	// events of an equipment of the types, newest first, after the cursor time
+	// and key (null for the newest) and skipping some more. The (start time,
+	// key) seek stays as fast deep in the history as at the top, the skip should
+	// be less than a page.
+	static List<OeeEvent> fetchEventHistory(Equipment equipment, Collection<OeeEventType> types,
+			OffsetDateTime cursorTime, Long cursorKey, int skip, int limit) {
+		EntityManager em = PersistenceService.instance().getEntityManager();
+
+		try {
+			TypedQuery<OeeEvent> query;
+
+			if (cursorTime == null) {
+				query = em.createQuery(
+						"SELECT e FROM OeeEvent e WHERE e.equipment = :equipment AND e.eventType IN :types ORDER BY e.startTime DESC, e.primaryKey DESC",
+						OeeEvent.class);
+			} else {
+				query = em.createQuery(
+						"SELECT e FROM OeeEvent e WHERE e.equipment = :equipment AND e.eventType IN :types AND (e.startTime < :time OR (e.startTime = :time AND e.primaryKey < :key)) ORDER BY e.startTime DESC, e.primaryKey DESC",
+						OeeEvent.class);
+				query.setParameter("time", cursorTime);
+				query.setParameter("key", cursorKey);
+			}
+
+			return query.setParameter("equipment", equipment).setParameter("types", types).setFirstResult(skip)
+					.setMaxResults(limit).getResultList();
+		} finally {
+			em.close();
+		}
+	}
+
+	// start time and key of the newest events of an equipment of the types, up
+	// to the limit. Read from the (equipment, start time, key) index without the
+	// event rows where the database covers the type too.
+	static List<Object[]> fetchEventHistoryKeys(Equipment equipment, Collection<OeeEventType> types, int limit) {
+		EntityManager em = PersistenceService.instance().getEntityManager();
+
+		try {
+			return em.createQuery(
+					"SELECT e.startTime, e.primaryKey FROM OeeEvent e WHERE e.equipment = :equipment AND e.eventType IN :types ORDER BY e.startTime DESC, e.primaryKey DESC",
+					Object[].class).setParameter("equipment", equipment).setParameter("types", types)
+					.setMaxResults(limit).getResultList();
+		} finally {
+			em.close();
+		}
+	}
+
+	// version of the plant entities shown in the tree, changes when one is
+	// added, removed, renamed, described again or moved
+	static long fetchPlantEntityVersion() {
+		if (lockVersions) {
+			try {
+				return fetchLockVersion("PlantEntity");
+			} catch (IllegalArgumentException e) {
+				noLockVersions(e);
+			}
+		}
+
+		EntityManager em = PersistenceService.instance().getEntityManager();
+
+		try {
+			List<Object[]> rows = em.createQuery(
+					"SELECT e.primaryKey, e.name, e.description, p.primaryKey FROM PlantEntity e LEFT JOIN e.parent p ORDER BY e.primaryKey",
+					Object[].class).getResultList();
+
+			long hash = FNV_OFFSET;
+			for (Object[] row : rows) {
+				hash = mix(hash, hashOf(row, 0));
+			}
+			return hash;
+		} finally {
+			em.close();
+		}
+	}
+
+	// version of the reasons. Unlike a row count and highest key alone it
+	// changes when a reason is renamed, described again, moved or given another
+	// loss category.
+	static long fetchReasonVersion() {
+		if (lockVersions) {
+			try {
+				return fetchLockVersion("Reason");
+			} catch (IllegalArgumentException e) {
+				noLockVersions(e);
+			}
+		}
+
+		EntityManager em = PersistenceService.instance().getEntityManager();
+
+		try {
+			List<Reason> reasons = em.createQuery("SELECT r FROM Reason r ORDER BY r.primaryKey", Reason.class)
+					.getResultList();
+
+			long hash = FNV_OFFSET;
+			for (Reason reason : reasons) {
+				Reason parent = reason.getParent();
+				hash = mix(hash, hashOf(new Object[] { reason.getKey(), reason.getName(), reason.getDescription(),
+						reason.getLossCategory(), parent != null ? parent.getKey() : null }, 0));
+			}
+			return hash;
+		} finally {
+			em.close();
+		}
+	}
+
+	// version of the materials in each category. Unlike a row count and highest
+	// key alone it changes when a material is renamed, described again or moved
+	// to another category.
+	static Map<String, Long> fetchMaterialCategoryVersions() {
+		EntityManager em = PersistenceService.instance().getEntityManager();
+
+		try {
+			if (lockVersions) {
+				try {
+					List<Object[]> rows = em.createQuery(
+							"SELECT m.category, COUNT(m), MAX(m.primaryKey), SUM(m.version) FROM Material m GROUP BY m.category",
+							Object[].class).getResultList();
+
+					Map<String, Long> versions = new HashMap<>();
+					for (Object[] row : rows) {
+						if (row[0] != null) {
+							versions.put((String) row[0], hashOf(row, 1));
+						}
+					}
+					return versions;
+				} catch (IllegalArgumentException e) {
+					noLockVersions(e);
+				}
+			}
+
+			List<Object[]> rows = em.createQuery(
+					"SELECT m.category, m.primaryKey, m.name, m.description FROM Material m ORDER BY m.category, m.primaryKey",
+					Object[].class).getResultList();
+
+			Map<String, Long> versions = new HashMap<>();
+			for (Object[] row : rows) {
+				if (row[0] != null) {
+					versions.merge((String) row[0], hashOf(row, 1), OperationsQueries::mix);
+				}
+			}
+			return versions;
+		} finally {
+			em.close();
+		}
+	}
+
+	// row count, highest primary key and sum of the optimistic lock versions of
+	// an entity, one aggregate row. Every update made through JPA, e.g. in the
+	// designer, increments the version of its row.
+	private static long fetchLockVersion(String entityName) {
+		EntityManager em = PersistenceService.instance().getEntityManager();
+
+		try {
+			Object[] result = (Object[]) em
+					.createQuery("SELECT COUNT(e), MAX(e.primaryKey), SUM(e.version) FROM " + entityName + " e")
+					.getSingleResult();
+			return hashOf(result, 0);
+		} finally {
+			em.close();
+		}
+	}
+
+	// a schema without lock versions is hashed by content instead, which reads
+	// the shown columns of every row
+	private static void noLockVersions(IllegalArgumentException e) {
+		lockVersions = false;
+		logger.warn("No entity versions to detect reference data changes, hashing content instead: " + e.getMessage());
+	}
+
+	// 64 bit FNV-1a style mix of the columns from the first one
+	static long hashOf(Object[] columns, int first) {
+		long hash = FNV_OFFSET;
+		for (int i = first; i < columns.length; i++) {
+			hash = mix(hash, Objects.hashCode(columns[i]));
+		}
+		return hash;
+	}
+
+	static long mix(long hash, long value) {
+		return (hash ^ value) * FNV_PRIME;
+	}
+
+	// save production events in a single transaction, all or none
+	static void saveEvents(List<OeeEvent> events) {
+		EntityManager em = PersistenceService.instance().getEntityManager();
+		EntityTransaction txn = em.getTransaction();
+
+		try {
+			txn.begin();
+
+			for (OeeEvent event : events) {
+				em.merge(event);
+			}
+
+			txn.commit();
+		} catch (RuntimeException e) {
+			if (txn.isActive()) {
+				txn.rollback();
+			}
+			throw e;
+		} finally {
+			em.close();
+		}
+	}
+
+	// a detached entity by primary key
+	static <T> T findByKey(Class<T> entityClass, Long key) {
+		EntityManager em = PersistenceService.instance().getEntityManager();
+
+		try {
+			return em.find(entityClass, key);
+		} finally {
+			em.close();
+		}
+	}
+}
@@ -1,5 +1,8 @@
 package org.point85.ops;
 
+import java.util.Properties;
+
+import javax.servlet.annotation.WebInitParam;
 import javax.servlet.annotation.WebServlet;
 
 import org.slf4j.Logger;
@@ -8,10 +11,16 @@ import org.slf4j.LoggerFactory;
 import com.vaadin.annotations.Push;
 import com.vaadin.annotations.Theme;
 import com.vaadin.annotations.Title;
-import com.vaadin.annotations.VaadinServletConfiguration;
+import com.vaadin.server.DeploymentConfiguration;
 import com.vaadin.server.VaadinRequest;
 import com.vaadin.server.VaadinServlet;
+import com.vaadin.server.VaadinSession;
+import com.vaadin.ui.Component;
+import com.vaadin.ui.Label;
+import com.vaadin.ui.ProgressBar;
 import com.vaadin.ui.UI;
+import com.vaadin.ui.UIDetachedException;
+import com.vaadin.ui.VerticalLayout;
 import com.vaadin.ui.themes.ValoTheme;
 
 // push UI changes from background threads
@@ -24,28 +33,128 @@ public class OperationsUI extends UI {
 	// logger
 	private static final Logger logger = LoggerFactory.getLogger(OperationsUI.class);
 
+	// the view once services are ready
+	private OperationsView operationsView;
+
+	// last operator interaction (msec)
+	private volatile long lastActivity = System.currentTimeMillis();
+
+	private volatile boolean dataReleased = false;
+
 	@Override
 	protected void init(VaadinRequest vaadinRequest) {
-		// initialize the persistence and data collector services
-		AppServices.instance().initialize();
-
 		// main UI form
 		if (logger.isInfoEnabled()) {
 			logger.info("Launching UI by request from " + vaadinRequest.getRemoteHost() + ":"
 					+ vaadinRequest.getRemotePort());
 		}
 
+		Metrics.ACTIVE_SESSIONS.incrementAndGet();
+
+		// any click counts as activity
+		addClickListener(event -> onActivity());
+
+		AppServices services = AppServices.instance();
+		services.getSessionMonitor().register(this);
+
+		if (services.getState() == AppServices.State.READY) {
+			showView();
+			return;
+		}
+
+		// services are still starting, show the view when they are ready
+		setContent(createStartingLayout());
+
+		services.getReadiness().whenComplete((ready, failure) -> push(() -> {
+			if (failure != null) {
+				setContent(new Label("The operations services failed to start: " + failure.getMessage()));
+			} else {
+				showView();
+			}
+		}));
+	}
+
+	@Override
+	public void detach() {
+		Metrics.ACTIVE_SESSIONS.decrementAndGet();
+		AppServices.instance().getSessionMonitor().unregister(this);
+		super.detach();
+	}
+
+	// called on the UI thread for operator clicks
+	void onActivity() {
+		lastActivity = System.currentTimeMillis();
+
+		if (dataReleased && operationsView != null) {
+			dataReleased = false;
+			operationsView.restoreData();
+		}
+	}
+
+	// msec since the last operator interaction
+	long getIdleTime() {
+		return System.currentTimeMillis() - lastActivity;
+	}
+
+	boolean isDataReleased() {
+		return dataReleased;
+	}
+
+	// drop the grid data of an idle session, called on the UI thread
+	void releaseData() {
+		if (!dataReleased && operationsView != null) {
+			operationsView.releaseData();
+			dataReleased = true;
+		}
+	}
+
+	// run a task on the UI thread from a background thread
+	void push(Runnable task) {
+		Metrics.PENDING_PUSHES.incrementAndGet();
+
+		try {
+			access(() -> {
+				try {
+					task.run();
+				} finally {
+					Metrics.PENDING_PUSHES.decrementAndGet();
+				}
+			});
+		} catch (UIDetachedException e) {
+			// the session is gone
+			Metrics.PENDING_PUSHES.decrementAndGet();
+		}
+	}
+
+	private void showView() {
 		// the view
-		OperationsView operationsView = new OperationsView(this);
+		operationsView = new OperationsView(this);
 		operationsView.setSizeFull();
 		operationsView.setMargin(true);
 		setContent(operationsView);
 	}
 
-	@WebServlet(urlPatterns = { "/*" }, name = "OEEOperationsServlet", asyncSupported = true)
-	@VaadinServletConfiguration(ui = OperationsUI.class, productionMode = false)
+	private Component createStartingLayout() {
+		ProgressBar progress = new ProgressBar();
+		progress.setIndeterminate(true);
+
+		VerticalLayout layout = new VerticalLayout();
+		layout.setSizeFull();
+		layout.addComponents(new Label("Point85 Operations is starting, please wait."), progress);
+		return layout;
+	}
+
+	// production mode and resource caching come from the build profile, see
+	// deployment.properties
+	@WebServlet(urlPatterns = { "/*" }, name = "OEEOperationsServlet", asyncSupported = true, initParams = {
+			@WebInitParam(name = VaadinSession.UI_PARAMETER, value = "org.point85.ops.OperationsUI") })
 	public static class OEEOperationsServlet extends VaadinServlet {
 		private static final long serialVersionUID = 3872491814140753200L;
 
+		@Override
+		protected DeploymentConfiguration createDeploymentConfiguration(Properties initParameters) {
+			DeploymentSettings.applyDefaults(initParameters);
+			return super.createDeploymentConfiguration(initParameters);
+		}
 	}
 }
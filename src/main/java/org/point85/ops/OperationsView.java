@@ -2,24 +2,24 @@ package org.point85.ops;
 
 import java.time.Duration;
 import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
-import org.point85.domain.DomainUtils;
 import org.point85.domain.collector.OeeEvent;
-import org.point85.domain.persistence.PersistenceService;
 import org.point85.domain.plant.EntityLevel;
 import org.point85.domain.plant.Equipment;
 import org.point85.domain.plant.EquipmentMaterial;
 import org.point85.domain.plant.Material;
 import org.point85.domain.plant.PlantEntity;
 import org.point85.domain.plant.Reason;
-import org.point85.domain.schedule.ShiftInstance;
-import org.point85.domain.schedule.WorkSchedule;
 import org.point85.domain.script.OeeEventType;
 import org.point85.domain.uom.UnitOfMeasure;
+import org.point85.ops.SetupCache.CurrentSetup;
 
 import com.vaadin.data.TreeData;
 import com.vaadin.data.provider.TreeDataProvider;
@@ -27,6 +27,7 @@ import com.vaadin.icons.VaadinIcons;
 import com.vaadin.server.Resource;
 import com.vaadin.ui.Alignment;
 import com.vaadin.ui.Button;
+import com.vaadin.ui.ComboBox;
 import com.vaadin.ui.Component;
 import com.vaadin.ui.DateTimeField;
 import com.vaadin.ui.Grid.SelectionMode;
@@ -54,22 +55,37 @@ public class OperationsView extends VerticalLayout {
 	private static final String BY_EVENT = "By Event";
 	private static final String SUMMARIZED = "Summarized";
 	private static final String EVENT_TIME = "Event Time";
-	private static final String FROM_TIME = "From Time";
-	private static final String TO_TIME = "To Time";
+
+	// query running off of the request thread
+	private static final String LOADING = "Loading...";
+	private static final String LOADING_CAPTION = " (loading)";
+
+	static final String FROM_TIME = "From Time";
+	static final String TO_TIME = "To Time";
 
 	// good or reject production
-	private static final String PROD_GOOD = "Good";
-	private static final String PROD_REJECT = "Reject and Rework";
-	private static final String PROD_STARTUP = "Startup and Yield";
+	static final String PROD_GOOD = "Good";
+	static final String PROD_REJECT = "Reject and Rework";
+	static final String PROD_STARTUP = "Startup and Yield";
+
+	// type-ahead suggestions
+	private static final int MAX_SUGGESTIONS = 20;
+
+	// time of the last event on the selected equipment
+	private static final DateTimeFormatter LAST_EVENT_FORMAT = DateTimeFormatter.ofPattern("HH:mm");
 
 	// availability
 	private RadioButtonGroup<String> groupAvailabilitySummary;
 	private Button btnRecordAvailability;
 	private TextField tfAvailabilityReason;
+	private ComboBox<Reason> cbReasonSearch;
 	private DateTimeField dtfAvailabilityStart;
 	private DateTimeField dtfAvailabilityEnd;
 	private TextField tfAvailabilityHours;
 	private TextField tfAvailabilityMinutes;
+	private HorizontalLayout downtimeLayout;
+	private Label lbDowntime;
+	private Button btnCloseDowntime;
 	private Tree<EntityNode> treeEntity;
 	private TreeGrid<Reason> treeGridReason;
 	private TreeGrid<MaterialCategory> treeGridMaterial;
@@ -85,20 +101,52 @@ public class OperationsView extends VerticalLayout {
 	private Label lbMaterialId;
 	private Label lbMaterialDescription;
 	private Label lbJob;
+	private Label lbLastEvent;
+
+	// running KPIs of the current shift
+	private Label lbShift;
+	private Label lbAvailability;
+	private Label lbPerformance;
+	private Label lbQuality;
+	private Label lbOee;
 	private TextField tfQualityReason;
+	private BulkProductionLayout bulkProductionLayout;
+
+	// recorded events
+	private TabSheet tabSheet;
+	private EventHistoryLayout eventHistoryLayout;
 
 	// setup/changeover
 	private Button btnRecordSetup;
 	private TextField tfMaterial;
+	private ComboBox<Material> cbMaterialSearch;
 	private TextField tfJob;
 	private DateTimeField dtfSetupTime;
 
+	// idempotency keys of the entry forms
+	private final SubmissionKey availabilityKey = new SubmissionKey();
+	private final SubmissionKey productionKey = new SubmissionKey();
+	private final SubmissionKey setupKey = new SubmissionKey();
+
 	// the presenter
 	private final OperationsPresenter operationsPresenter;
 
 	// the UI
 	private final OperationsUI ui;
 
+	// events recorded by other sessions for the selected equipment
+	private final EventBus.Subscriber eventSubscriber;
+	private Long watchedEquipmentKey;
+
+	// open downtime of the selected equipment
+	private final DowntimeTracker.Watcher downtimeWatcher;
+
+	// reason and material changes made elsewhere
+	private final ReferenceDataMonitor.ChangeListener referenceListener = this::onReferenceDataChange;
+
+	// selected node while the grid data is released
+	private EntityNode releasedSelection;
+
 	public OperationsView(OperationsUI ui) {
 		// the UI
 		this.ui = ui;
@@ -106,6 +154,11 @@ public class OperationsView extends VerticalLayout {
 		// presenter
 		operationsPresenter = new OperationsPresenter(this);
 
+		// live updates
+		eventSubscriber = AppServices.instance().getEventBus().register(this::onEquipmentEvents);
+		downtimeWatcher = AppServices.instance().getDowntimeTracker().register(this::onDowntime);
+		AppServices.instance().getReferenceDataMonitor().addListener(referenceListener);
+
 		// root content
 		setMargin(true);
 		setSpacing(true);
@@ -118,6 +171,13 @@ public class OperationsView extends VerticalLayout {
 		// main content
 		addComponentsAndExpand(createMainPanel());
 
+		// a repeated click on Record resubmits the same key until the form changes
+		availabilityKey.watch(groupAvailabilitySummary, tfAvailabilityReason, cbReasonSearch, dtfAvailabilityStart,
+				dtfAvailabilityEnd, tfAvailabilityHours, tfAvailabilityMinutes);
+		productionKey.watch(groupProductionSummary, groupProductionType, tfAmount, dtfProductionTime1,
+				dtfProductionTime2, tfQualityReason);
+		setupKey.watch(tfMaterial, cbMaterialSearch, tfJob, dtfSetupTime);
+
 		// footer
 		addComponent(createFooter());
 
@@ -152,7 +212,7 @@ public class OperationsView extends VerticalLayout {
 		rightLayout.setMargin(true);
 		rightLayout.setSizeFull();
 		Component tabSheet = createTabSheet();
-		rightLayout.addComponents(createMaterialJobLayout(), tabSheet);
+		rightLayout.addComponents(createMaterialJobLayout(), createKpiLayout(), tabSheet);
 		rightLayout.setExpandRatio(tabSheet, 1.0f);
 
 		mainPanel.addComponent(rightLayout);
@@ -163,6 +223,7 @@ public class OperationsView extends VerticalLayout {
 		lbMaterialId = new Label("Identifier");
 		lbMaterialDescription = new Label("Description");
 		lbJob = new Label("Job Name");
+		lbLastEvent = new Label();
 
 		Label material = new Label("MATERIAL");
 		material.addStyleName(ValoTheme.LABEL_BOLD);
@@ -170,21 +231,63 @@ public class OperationsView extends VerticalLayout {
 		Label job = new Label("JOB");
 		job.addStyleName(ValoTheme.LABEL_BOLD);
 
+		Label lastEvent = new Label("LAST EVENT");
+		lastEvent.addStyleName(ValoTheme.LABEL_BOLD);
+
 		HorizontalLayout materialLayout = new HorizontalLayout();
 		materialLayout.setMargin(false);
-		materialLayout.addComponents(material, lbMaterialId, lbMaterialDescription, job, lbJob);
+		materialLayout.addComponents(material, lbMaterialId, lbMaterialDescription, job, lbJob, lastEvent,
+				lbLastEvent);
 
 		return materialLayout;
 	}
 
+	private Component createKpiLayout() {
+		lbShift = new Label();
+		lbAvailability = new Label();
+		lbPerformance = new Label();
+		lbQuality = new Label();
+		lbOee = new Label();
+
+		HorizontalLayout kpiLayout = new HorizontalLayout();
+		kpiLayout.setMargin(false);
+		kpiLayout.addComponents(createBoldLabel("SHIFT"), lbShift, createBoldLabel("AVAILABILITY"), lbAvailability,
+				createBoldLabel("PERFORMANCE"), lbPerformance, createBoldLabel("QUALITY"), lbQuality,
+				createBoldLabel("OEE"), lbOee);
+
+		return kpiLayout;
+	}
+
+	private static Label createBoldLabel(String caption) {
+		Label label = new Label(caption);
+		label.addStyleName(ValoTheme.LABEL_BOLD);
+		return label;
+	}
+
+	// null to clear
+	private void updateKpis(KpiAggregator.Kpis kpis) {
+		lbShift.setValue(kpis != null ? kpis.getShiftName() : "");
+		lbAvailability.setValue(kpis != null ? formatPercent(kpis.getAvailability()) : "");
+		lbPerformance.setValue(kpis != null ? formatPercent(kpis.getPerformance()) : "");
+		lbQuality.setValue(kpis != null ? formatPercent(kpis.getQuality()) : "");
+		lbOee.setValue(kpis != null ? formatPercent(kpis.getOee()) : "");
+	}
+
+	private static String formatPercent(double fraction) {
+		return String.format("%.1f%%", fraction * 100.0);
+	}
+
 	private Component createTabSheet() {
 		// job and material
-		TabSheet tabSheet = new TabSheet();
+		tabSheet = new TabSheet();
 		tabSheet.setSizeFull();
 		tabSheet.setStyleName(ValoTheme.TABSHEET_FRAMED);
 
 		tabSheet.addSelectedTabChangeListener(event -> {
 			try {
+				if (tabSheet.getSelectedTab() == eventHistoryLayout) {
+					eventHistoryLayout.onShown();
+				}
 			} catch (Exception e) {
 				showException(e);
 			}
@@ -194,13 +297,18 @@ public class OperationsView extends VerticalLayout {
 		eventTab.setCaption("Availability/Rate");
 		eventTab.setIcon(VaadinIcons.AUTOMATION);
 
-		Tab productionTab = tabSheet.addTab(createProductionLayout());
+		Tab productionTab = tabSheet.addTab(createProductionPanel());
 		productionTab.setCaption("Production");
 		productionTab.setIcon(VaadinIcons.STOCK);
 
 		Tab jobTab = tabSheet.addTab(createJobMaterialPanel());
 		jobTab.setCaption("Job/Material");
 		jobTab.setIcon(VaadinIcons.PACKAGE);
+
+		eventHistoryLayout = new EventHistoryLayout();
+		Tab historyTab = tabSheet.addTab(eventHistoryLayout);
+		historyTab.setCaption("History");
+		historyTab.setIcon(VaadinIcons.TIME_BACKWARD);
 		return tabSheet;
 	}
 
@@ -234,6 +342,22 @@ public class OperationsView extends VerticalLayout {
 		return materialPanel;
 	}
 
+	private Component createProductionPanel() {
+		VerticalSplitPanel productionPanel = new VerticalSplitPanel();
+		productionPanel.setSizeFull();
+		productionPanel.setSplitPosition(50.0f);
+		productionPanel.setStyleName(ValoTheme.SPLITPANEL_LARGE);
+
+		// single event
+		productionPanel.addComponent(createProductionLayout());
+
+		// end of shift summaries
+		bulkProductionLayout = new BulkProductionLayout(this, operationsPresenter, ui);
+		productionPanel.addComponent(bulkProductionLayout);
+
+		return productionPanel;
+	}
+
 	private Component createProductionLayout() {
 		groupProductionSummary = new RadioButtonGroup<>("Production");
 		groupProductionSummary.setItems(BY_EVENT, SUMMARIZED);
@@ -288,12 +412,15 @@ public class OperationsView extends VerticalLayout {
 		btnRecordProduction.setEnabled(false);
 		btnRecordProduction.setStyleName(ValoTheme.BUTTON_PRIMARY);
 		btnRecordProduction.setDescription("Record production event");
+		btnRecordProduction.setDisableOnClick(true);
 		btnRecordProduction.addClickListener(event -> {
 			try {
 				recordProductionEvent();
 				clearProduction();
 			} catch (Exception e) {
 				showException(e);
+			} finally {
+				btnRecordProduction.setEnabled(true);
 			}
 		});
 		
@@ -383,8 +510,12 @@ public class OperationsView extends VerticalLayout {
 
 		treeEntity.addSelectionListener(event -> {
 			try {
-				EntityNode node = event.getFirstSelectedItem().get();
-				onSelectEntity(node);
+				// empty when the data is released
+				Optional<EntityNode> node = event.getFirstSelectedItem();
+
+				if (node.isPresent()) {
+					onSelectEntity(node.get());
+				}
 			} catch (Exception e) {
 				showException(e);
 			}
@@ -395,6 +526,7 @@ public class OperationsView extends VerticalLayout {
 
 	private void clearAvailability() {
 		tfAvailabilityReason.clear();
+		cbReasonSearch.clear();
 		tfAvailabilityHours.clear();
 		tfAvailabilityMinutes.clear();
 	}
@@ -408,6 +540,7 @@ public class OperationsView extends VerticalLayout {
 	private void clearSetup() {
 		tfMaterial.clear();
 		tfMaterial.setData(null);
+		cbMaterialSearch.clear();
 		tfJob.clear();
 	}
 
@@ -433,38 +566,51 @@ public class OperationsView extends VerticalLayout {
 	private void onSelectEntity(EntityNode entityNode) throws Exception {
 		// clear fields
 		updateMaterialJob(null, null);
+		lbLastEvent.setValue("");
+		updateKpis(null);
 		clearAvailability();
 		clearProduction();
 		clearSetup();
 
+		// same form values on other equipment are a new submission
+		availabilityKey.renew();
+		productionKey.renew();
+		setupKey.renew();
+
 		boolean enabled = false;
 
 		Equipment equipment = getSelectedEquipment();
 
+		watchEquipment(equipment);
+		downtimeWatcher.watch(equipment != null ? equipment.getKey() : null);
+		eventHistoryLayout.setEquipment(equipment);
+		showDowntime(
+				equipment != null ? AppServices.instance().getDowntimeTracker().getOpen(equipment.getKey()) : null);
+
 		if (equipment != null) {
 			enabled = true;
 
-			OeeEvent lastSetup = operationsPresenter.getLastSetup(equipment);
+			operationsPresenter.fetchCurrentSetup(equipment, lbMaterialId, setup -> {
+				// unless the selection changed since
+				if (equipment.equals(selectedEquipmentOrNull())) {
+					updateMaterialJob(setup.getMaterial(), setup.getJob());
+				}
+			});
 
-			if (lastSetup != null) {
-				updateMaterialJob(lastSetup.getMaterial(), lastSetup.getJob());
-			}
+			operationsPresenter.fetchKpis(equipment, lbOee, kpis -> {
+				if (equipment.equals(selectedEquipmentOrNull())) {
+					updateKpis(kpis);
+				}
+			});
 		} else {
-			// higher level, get the children
-			@SuppressWarnings("unchecked")
-			TreeDataProvider<EntityNode> dataProvider = (TreeDataProvider<EntityNode>) treeEntity.getDataProvider();
-			TreeData<EntityNode> treeData = dataProvider.getTreeData();
-
-			Set<EntityNode> children = entityNode.getChildren();
-
-			// add the node and its children
-			treeData.addItems(entityNode, children);
+			// higher level, show the children
+			treeEntity.expand(entityNode);
 		}
 
 		btnRecordAvailability.setEnabled(enabled);
 		btnRecordProduction.setEnabled(enabled);
 		btnRecordSetup.setEnabled(enabled);
-
+		bulkProductionLayout.setEquipmentSelected(enabled);
 	}
 
 	private Component createReasonTreeLayout() {
@@ -483,21 +629,8 @@ public class OperationsView extends VerticalLayout {
 			tfAvailabilityReason.setData(reason);
 		});
 
-		// refresh reasons
-		Button btnRefreshReasons = new Button();
-		btnRefreshReasons.setIcon(VaadinIcons.REFRESH);
-		btnRefreshReasons.setEnabled(true);
-		btnRefreshReasons.setStyleName(ValoTheme.BUTTON_ICON_ONLY);
-		btnRefreshReasons.addClickListener(event -> {
-			try {
-				operationsPresenter.populateReasonGrid(treeGridReason);
-			} catch (Exception e) {
-				showException(e);
-			}
-		});
-
+		// kept current by the reference data monitor
 		HorizontalLayout layout = new HorizontalLayout();
-		layout.addComponent(btnRefreshReasons);
 		layout.addComponentsAndExpand(treeGridReason);
 
 		layout.setMargin(true);
@@ -524,21 +657,8 @@ public class OperationsView extends VerticalLayout {
 			}
 		});
 
-		// refresh materials
-		Button btnRefreshMaterials = new Button();
-		btnRefreshMaterials.setIcon(VaadinIcons.REFRESH);
-		btnRefreshMaterials.setEnabled(true);
-		btnRefreshMaterials.setStyleName(ValoTheme.BUTTON_ICON_ONLY);
-		btnRefreshMaterials.addClickListener(event -> {
-			try {
-				operationsPresenter.populateMaterialGrid(treeGridMaterial);
-			} catch (Exception e) {
-				showException(e);
-			}
-		});
-
+		// kept current by the reference data monitor
 		HorizontalLayout layout = new HorizontalLayout();
-		layout.addComponent(btnRefreshMaterials);
 		layout.addComponentsAndExpand(treeGridMaterial);
 		layout.setMargin(true);
 
@@ -565,6 +685,27 @@ public class OperationsView extends VerticalLayout {
 		tfAvailabilityReason.setIcon(VaadinIcons.PENCIL);
 		tfAvailabilityReason.setRequiredIndicatorVisible(true);
 
+		// find a reason by typing
+		cbReasonSearch = new ComboBox<>("Find Reason");
+		cbReasonSearch.setIcon(VaadinIcons.SEARCH);
+		cbReasonSearch.setItemCaptionGenerator(reason -> reason.getName() + " (" + reason.getDescription() + ")");
+		cbReasonSearch.setDataProvider(
+				(filter, offset, limit) -> operationsPresenter.searchReasons(filter, MAX_SUGGESTIONS).stream()
+						.skip(offset).limit(limit),
+				filter -> operationsPresenter.searchReasons(filter, MAX_SUGGESTIONS).size());
+		cbReasonSearch.addValueChangeListener(event -> {
+			Reason reason = event.getValue();
+
+			if (reason != null) {
+				tfAvailabilityReason.setValue(reason.getName());
+				tfAvailabilityReason.setData(reason);
+			}
+		});
+
+		HorizontalLayout reasonLayout = new HorizontalLayout();
+		reasonLayout.setMargin(false);
+		reasonLayout.addComponents(tfAvailabilityReason, cbReasonSearch);
+
 		dtfAvailabilityStart = new DateTimeField(EVENT_TIME);
 		dtfAvailabilityStart.setValue(LocalDateTime.now());
 		dtfAvailabilityStart.setIcon(VaadinIcons.TIME_FORWARD);
@@ -587,12 +728,15 @@ public class OperationsView extends VerticalLayout {
 		btnRecordAvailability.setIcon(VaadinIcons.NOTEBOOK);
 		btnRecordAvailability.setEnabled(false);
 		btnRecordAvailability.setStyleName(ValoTheme.BUTTON_PRIMARY);
+		btnRecordAvailability.setDisableOnClick(true);
 		btnRecordAvailability.addClickListener(event -> {
 			try {
 				recordAvailabilityEvent();
 				clearAvailability();
 			} catch (Exception e) {
 				showException(e);
+			} finally {
+				btnRecordAvailability.setEnabled(true);
 			}
 		});
 
@@ -602,17 +746,67 @@ public class OperationsView extends VerticalLayout {
 
 		VerticalLayout availabilityLayout = new VerticalLayout();
 		availabilityLayout.setMargin(true);
-		availabilityLayout.addComponents(groupAvailabilitySummary, tfAvailabilityReason, timeLayout, btnRecordAvailability);
+		availabilityLayout.addComponents(createDowntimeLayout(), groupAvailabilitySummary, reasonLayout, timeLayout,
+				btnRecordAvailability);
 
 		return availabilityLayout;
 	}
 
+	// the downtime opened By Event and not yet closed, with the time elapsed
+	private Component createDowntimeLayout() {
+		Label down = new Label("DOWN");
+		down.addStyleName(ValoTheme.LABEL_BOLD);
+		down.addStyleName(ValoTheme.LABEL_FAILURE);
+
+		lbDowntime = new Label();
+
+		btnCloseDowntime = new Button("Close");
+		btnCloseDowntime.setIcon(VaadinIcons.STOP);
+		btnCloseDowntime.setDescription("Record the downtime up to now");
+		btnCloseDowntime.setDisableOnClick(true);
+		btnCloseDowntime.addClickListener(event -> {
+			try {
+				closeDowntime();
+			} catch (Exception e) {
+				showException(e);
+			} finally {
+				btnCloseDowntime.setEnabled(true);
+			}
+		});
+
+		downtimeLayout = new HorizontalLayout();
+		downtimeLayout.setMargin(false);
+		downtimeLayout.setDefaultComponentAlignment(Alignment.MIDDLE_LEFT);
+		downtimeLayout.addComponents(down, lbDowntime, btnCloseDowntime);
+		downtimeLayout.setVisible(false);
+
+		return downtimeLayout;
+	}
+
 	private Component createSetupLayout() {
 
 		tfMaterial = new TextField("Material");
 		tfMaterial.setIcon(VaadinIcons.STOCK);
 		tfMaterial.setRequiredIndicatorVisible(true);
 
+		// find a material by typing
+		cbMaterialSearch = new ComboBox<>("Find Material");
+		cbMaterialSearch.setIcon(VaadinIcons.SEARCH);
+		cbMaterialSearch
+				.setItemCaptionGenerator(material -> material.getName() + " (" + material.getDescription() + ")");
+		cbMaterialSearch.setDataProvider(
+				(filter, offset, limit) -> operationsPresenter.searchMaterials(filter, MAX_SUGGESTIONS).stream()
+						.skip(offset).limit(limit),
+				filter -> operationsPresenter.searchMaterials(filter, MAX_SUGGESTIONS).size());
+		cbMaterialSearch.addValueChangeListener(event -> {
+			Material material = event.getValue();
+
+			if (material != null) {
+				tfMaterial.setValue(material.getName());
+				tfMaterial.setData(material);
+			}
+		});
+
 		tfJob = new TextField("Job");
 		tfJob.setIcon(VaadinIcons.TAG);
 
@@ -626,17 +820,20 @@ public class OperationsView extends VerticalLayout {
 		btnRecordSetup.setEnabled(false);
 		btnRecordSetup.setStyleName(ValoTheme.BUTTON_PRIMARY);
 		btnRecordSetup.setDescription("Button description");
+		btnRecordSetup.setDisableOnClick(true);
 		btnRecordSetup.addClickListener(event -> {
 			try {
 				recordSetupEvent();
 				clearSetup();
 			} catch (Exception e) {
 				showException(e);
+			} finally {
+				btnRecordSetup.setEnabled(true);
 			}
 		});
 
 		HorizontalLayout materialJobLayout = new HorizontalLayout();
-		materialJobLayout.addComponents(tfMaterial, tfJob);
+		materialJobLayout.addComponents(tfMaterial, cbMaterialSearch, tfJob);
 
 		VerticalLayout setupLayout = new VerticalLayout();
 		setupLayout.setMargin(true);
@@ -646,6 +843,11 @@ public class OperationsView extends VerticalLayout {
 	}
 
 	Equipment getSelectedEquipment() throws Exception {
+		return selectedEquipmentOrNull();
+	}
+
+	// for callbacks, which cannot throw
+	private Equipment selectedEquipmentOrNull() {
 		Equipment equipment = null;
 
 		Set<EntityNode> entityNodes = treeEntity.getSelectedItems();
@@ -668,15 +870,20 @@ public class OperationsView extends VerticalLayout {
 		OeeEventType resolverType = null;
 
 		if (groupProductionType.getSelectedItem().isPresent()) {
-			String type = groupProductionType.getSelectedItem().get();
-
-			if (type.equals(PROD_GOOD)) {
-				resolverType = OeeEventType.PROD_GOOD;
-			} else if (type.equals(PROD_REJECT)) {
-				resolverType = OeeEventType.PROD_REJECT;
-			} else if (type.equals(PROD_STARTUP)) {
-				resolverType = OeeEventType.PROD_STARTUP;
-			}
+			resolverType = toProductionType(groupProductionType.getSelectedItem().get());
+		}
+		return resolverType;
+	}
+
+	static OeeEventType toProductionType(String type) {
+		OeeEventType resolverType = null;
+
+		if (PROD_GOOD.equals(type)) {
+			resolverType = OeeEventType.PROD_GOOD;
+		} else if (PROD_REJECT.equals(type)) {
+			resolverType = OeeEventType.PROD_REJECT;
+		} else if (PROD_STARTUP.equals(type)) {
+			resolverType = OeeEventType.PROD_STARTUP;
 		}
 		return resolverType;
 	}
@@ -691,18 +898,13 @@ public class OperationsView extends VerticalLayout {
 			throw new Exception("An amount must be specified.");
 		}
 
-		UnitOfMeasure uom = (UnitOfMeasure) lbUOM.getData();
-
 		LocalDateTime startTime = dtfProductionTime1.getValue();
 		LocalDateTime endTime = dtfProductionTime2.getValue();
 
 		String selectedItem = groupProductionSummary.getSelectedItem().get();
 
-		Duration duration = null;
 		if (selectedItem.equals(BY_EVENT)) {
 			endTime = null;
-		} else {
-			duration = Duration.between(startTime, endTime);
 		}
 		
 		// reason
@@ -710,55 +912,21 @@ public class OperationsView extends VerticalLayout {
 		Reason reason = null;
 		
 		if (reasonName != null && reasonName.length() > 0) {
-			reason = PersistenceService.instance().fetchReasonByName(reasonName);
+			reason = operationsPresenter.findReason(reasonName);
 			
 			if (reason == null) {
 				throw new Exception("The reason '" + reasonName + "' was not found in the database.");
 			}
 		}
 		
-		// the production event
-		OeeEvent event = createEvent(getProductionType(), getSelectedEquipment(), startTime, endTime);
-
-		event.setDuration(duration);
-		event.setAmount(amount);
-		event.setUOM(uom);
-		event.setReason(reason);
-		event.setInputValue(String.valueOf(amount));
-
-		// material being produced
-		OeeEvent setup = PersistenceService.instance().fetchLastEvent(getSelectedEquipment(), OeeEventType.MATL_CHANGE);
-
-		if (setup != null) {
-			event.setMaterial(setup.getMaterial());
-		}
-
-		AppServices.instance().recordEvent(event);
-	}
-
-	private OeeEvent createEvent(OeeEventType type, Equipment equipment, LocalDateTime startTime, LocalDateTime endTime)
-			throws Exception {
-		if (type == null) {
-			throw new Exception("The event type must be specified.");
-		}
-
-		OeeEvent event = new OeeEvent(equipment);
-		event.setEventType(type);
-		event.setStartTime(DomainUtils.fromLocalDateTime(startTime));
-		event.setEndTime(DomainUtils.fromLocalDateTime(endTime));
-
-		// get the shift from the work schedule
-		WorkSchedule schedule = equipment.findWorkSchedule();
+		// the production event of the material being produced
+		Equipment equipment = getSelectedEquipment();
+		Material material = operationsPresenter.getCurrentSetup(equipment).getMaterial();
 
-		if (schedule != null) {
-			List<ShiftInstance> shifts = schedule.getShiftInstancesForTime(startTime);
+		OeeEvent event = EventFactory.createProductionEvent(getProductionType(), equipment, material, amount, reason,
+				startTime, endTime);
 
-			if (!shifts.isEmpty()) {
-				event.setShift(shifts.get(0).getShift());
-				event.setTeam(shifts.get(0).getTeam());
-			}
-		}
-		return event;
+		submitEvent(event, productionKey);
 	}
 
 	private void recordSetupEvent() throws Exception {
@@ -768,28 +936,22 @@ public class OperationsView extends VerticalLayout {
 		// material
 		Material material = (Material) tfMaterial.getData();
 
-		if (material == null) {
-			throw new Exception("Material must be specified.");
-		}
-
-		OeeEvent event = createEvent(OeeEventType.MATL_CHANGE, getSelectedEquipment(), dtfSetupTime.getValue(), null);
-		event.setJob(job);
-		event.setMaterial(material);
-		event.setInputValue(material.getName());
+		OeeEvent event = EventFactory.createSetupEvent(getSelectedEquipment(), material, job, dtfSetupTime.getValue());
 
-		AppServices.instance().recordEvent(event);
+		// shown once recorded, unless the selection changed since
+		submitEvent(event, setupKey).thenRun(() -> ui.push(() -> {
+			Equipment selected = selectedEquipmentOrNull();
 
-		updateMaterialJob(material, job);
+			if (selected != null && selected.getKey().equals(event.getEquipment().getKey())) {
+				updateMaterialJob(material, job);
+			}
+		}));
 	}
 
 	private void recordAvailabilityEvent() throws Exception {
 		// reason
 		Reason reason = (Reason) tfAvailabilityReason.getData();
 
-		if (reason == null) {
-			throw new Exception("A reason must be selected.");
-		}
-
 		// duration
 		LocalDateTime startTime = dtfAvailabilityStart.getValue();
 		LocalDateTime endTime = dtfAvailabilityEnd.getValue();
@@ -797,7 +959,9 @@ public class OperationsView extends VerticalLayout {
 		Duration duration = null;
 
 		String selectedItem = groupAvailabilitySummary.getSelectedItem().get();
-		if (selectedItem.equals(SUMMARIZED)) {
+		boolean byEvent = selectedItem.equals(BY_EVENT);
+
+		if (!byEvent) {
 			// specified duration
 			int seconds = 0;
 
@@ -815,20 +979,47 @@ public class OperationsView extends VerticalLayout {
 			endTime = null;
 		}
 
-		// create availability event
-		OeeEvent event = createEvent(OeeEventType.AVAILABILITY, getSelectedEquipment(), startTime, endTime);
-		event.setReason(reason);
-		event.setDuration(duration);
-		event.setInputValue(reason.getName());
+		// create availability event of the material being produced
+		Equipment equipment = getSelectedEquipment();
+		Material material = equipment != null ? operationsPresenter.getCurrentSetup(equipment).getMaterial() : null;
 
-		// material being produced
-		OeeEvent setup = PersistenceService.instance().fetchLastEvent(getSelectedEquipment(), OeeEventType.MATL_CHANGE);
+		OeeEvent event = EventFactory.createAvailabilityEvent(equipment, reason, material, startTime, endTime,
+				duration);
 
-		if (setup != null) {
-			event.setMaterial(setup.getMaterial());
+		if (byEvent) {
+			// recorded as a summary when closed
+			onSubmitted(AppServices.instance().openDowntime(event));
+			showDowntime(AppServices.instance().getDowntimeTracker().getOpen(equipment.getKey()));
+		} else {
+			submitEvent(event, availabilityKey);
 		}
+	}
+
+	private void closeDowntime() throws Exception {
+		Equipment equipment = getSelectedEquipment();
+
+		if (equipment == null) {
+			return;
+		}
+
+		onSubmitted(AppServices.instance().closeDowntime(equipment, LocalDateTime.now()));
+		showDowntime(null);
+	}
 
-		AppServices.instance().recordEvent(event);
+	// recorded on the writer thread, once per key. The request thread does not
+	// wait, the UI is updated from the returned future.
+	private CompletableFuture<OeeEvent> submitEvent(OeeEvent event, SubmissionKey key) {
+		return onSubmitted(AppServices.instance().recordEvent(event, key.get()));
+	}
+
+	// a failure, e.g. a full recording queue, is shown on the UI thread
+	private <T> CompletableFuture<T> onSubmitted(CompletableFuture<T> future) {
+		future.whenComplete((recorded, failure) -> {
+			if (failure != null) {
+				onException(failure instanceof Exception ? (Exception) failure : new Exception(failure));
+			}
+		});
+		return future;
 	}
 
 	private void onSelectAvailabilityData(String type) {
@@ -872,14 +1063,7 @@ public class OperationsView extends VerticalLayout {
 			throw new Exception("The equipment settings for material " + material.getName() + " have not been defined");
 		}
 
-		OeeEventType resolverType = null;
-		if (type.equals(PROD_GOOD)) {
-			resolverType = OeeEventType.PROD_GOOD;
-		} else if (type.equals(PROD_REJECT)) {
-			resolverType = OeeEventType.PROD_REJECT;
-		} else if (type.equals(PROD_STARTUP)) {
-			resolverType = OeeEventType.PROD_STARTUP;
-		}
+		OeeEventType resolverType = toProductionType(type);
 
 		UnitOfMeasure uom = equipment.getUOM(material, resolverType);
 		if (uom == null) {
@@ -892,16 +1076,209 @@ public class OperationsView extends VerticalLayout {
 		tfAmount.setEnabled(true);
 	}
 
+	private void watchEquipment(Equipment equipment) {
+		Long equipmentKey = equipment != null ? equipment.getKey() : null;
+
+		if (watchedEquipmentKey != null && !watchedEquipmentKey.equals(equipmentKey)) {
+			eventSubscriber.unsubscribe(watchedEquipmentKey);
+		}
+
+		if (equipmentKey != null) {
+			eventSubscriber.subscribe(equipmentKey);
+		}
+		watchedEquipmentKey = equipmentKey;
+	}
+
+	// called on the event bus thread
+	private void onEquipmentEvents(List<OeeEvent> events) {
+		ui.push(() -> {
+			try {
+				showEquipmentEvents(events);
+			} catch (Exception e) {
+				showException(e);
+			}
+		});
+	}
+
+	private void showEquipmentEvents(List<OeeEvent> events) throws Exception {
+		Equipment equipment = getSelectedEquipment();
+
+		if (equipment == null) {
+			return;
+		}
+
+		OeeEvent latest = null;
+
+		for (OeeEvent event : events) {
+			if (!equipment.getKey().equals(event.getEquipment().getKey())) {
+				// selection changed since
+				continue;
+			}
+
+			if (event.getEventType() == OeeEventType.MATL_CHANGE) {
+				// the cache keeps the latest setup
+				CurrentSetup setup = operationsPresenter.getCurrentSetup(equipment);
+				updateMaterialJob(setup.getMaterial(), setup.getJob());
+			}
+
+			if (latest == null || event.getStartTime().isAfter(latest.getStartTime())) {
+				latest = event;
+			}
+		}
+
+		if (latest != null) {
+			String what = latest.getReason() != null ? latest.getReason().getName() : latest.getEventType().toString();
+			lbLastEvent.setValue(what + " at " + latest.getStartTime().format(LAST_EVENT_FORMAT));
+
+			// already folded in when recorded
+			showKpis(equipment);
+
+			eventHistoryLayout.onEventsRecorded(tabSheet.getSelectedTab() == eventHistoryLayout);
+		}
+	}
+
+	// called on the clock thread
+	private void onDowntime(Long equipmentKey, OeeEvent opened) {
+		ui.push(() -> {
+			Equipment equipment = selectedEquipmentOrNull();
+
+			// unless the selection changed since
+			if (equipment != null && equipment.getKey().equals(equipmentKey)) {
+				showDowntime(opened);
+
+				// the open downtime counts against availability, every clock
+				// interval so not seeded from here
+				KpiAggregator.Kpis kpis = operationsPresenter.peekKpis(equipment);
+				if (kpis != null) {
+					updateKpis(kpis);
+				}
+			}
+		});
+	}
+
+	// the KPIs as folded so far, seeded again if the shift could not be
+	// carried over
+	private void showKpis(Equipment equipment) {
+		KpiAggregator.Kpis kpis = operationsPresenter.peekKpis(equipment);
+
+		if (kpis != null) {
+			updateKpis(kpis);
+			return;
+		}
+
+		operationsPresenter.fetchKpis(equipment, lbOee, fetched -> {
+			if (equipment.equals(selectedEquipmentOrNull())) {
+				updateKpis(fetched);
+			}
+		});
+	}
+
+	// null if the equipment is not down
+	private void showDowntime(OeeEvent opened) {
+		if (opened == null) {
+			downtimeLayout.setVisible(false);
+			return;
+		}
+
+		long seconds = Math.max(0, Duration.between(opened.getStartTime(), OffsetDateTime.now()).getSeconds());
+
+		lbDowntime.setValue(opened.getReason().getName() + " since "
+				+ opened.getStartTime().format(LAST_EVENT_FORMAT)
+				+ String.format(" (%d:%02d:%02d)", seconds / 3600, (seconds % 3600) / 60, seconds % 60));
+		downtimeLayout.setVisible(true);
+	}
+
+	// called on the monitor thread
+	private void onReferenceDataChange(ReferenceDataMonitor.Change change) {
+		ui.push(() -> {
+			if (change.getReasons() != null) {
+				operationsPresenter.updateReasonGrid(treeGridReason, change.getReasons());
+			}
+
+			if (!change.getMaterialCategories().isEmpty()) {
+				operationsPresenter.updateMaterialGrid(treeGridMaterial);
+			}
+
+			if (change.isPlantEntitiesChanged()) {
+				// unless the data was released while idle
+				if (treeEntity.getDataProvider() instanceof EntityDataProvider) {
+					((EntityDataProvider) treeEntity.getDataProvider()).setTopEntities(change.getTopEntities());
+				}
+
+				// the expanded entities stay expanded
+				treeEntity.getDataProvider().refreshAll();
+			}
+		});
+	}
+
+	// drop the grid data of an idle session, the shared catalogs stay loaded
+	void releaseData() {
+		releasedSelection = treeEntity.getSelectedItems().stream().findFirst().orElse(null);
+
+		treeEntity.setDataProvider(new TreeDataProvider<>(new TreeData<>()));
+		treeGridReason.setDataProvider(new TreeDataProvider<>(new TreeData<>()));
+		treeGridMaterial.setDataProvider(new TreeDataProvider<>(new TreeData<>()));
+		eventHistoryLayout.setEquipment(null);
+	}
+
+	// the operator is back
+	void restoreData() {
+		operationsPresenter.populateTopEntityNodes(treeEntity, () -> {
+			if (releasedSelection != null && treeEntity.getSelectedItems().isEmpty()) {
+				treeEntity.select(releasedSelection);
+			}
+			releasedSelection = null;
+		});
+		operationsPresenter.populateReasonGrid(treeGridReason);
+		operationsPresenter.populateMaterialGrid(treeGridMaterial);
+	}
+
+	// run on the UI thread
+	void push(Runnable task) {
+		ui.push(task);
+	}
+
+	// while a query runs off of the request thread
+	void showLoading(Component component, boolean loading) {
+		if (component instanceof Label) {
+			Label label = (Label) component;
+
+			if (loading) {
+				label.setValue(LOADING);
+			} else if (LOADING.equals(label.getValue())) {
+				label.setValue("");
+			}
+			return;
+		}
+
+		String caption = component.getCaption();
+
+		if (loading && caption != null && !caption.endsWith(LOADING_CAPTION)) {
+			component.setCaption(caption + LOADING_CAPTION);
+		} else if (!loading && caption != null && caption.endsWith(LOADING_CAPTION)) {
+			component.setCaption(caption.substring(0, caption.length() - LOADING_CAPTION.length()));
+		}
+		component.setEnabled(!loading);
+	}
+
+	@Override
+	public void detach() {
+		eventSubscriber.unsubscribeAll();
+		downtimeWatcher.watch(null);
+		AppServices.instance().getReferenceDataMonitor().removeListener(referenceListener);
+		super.detach();
+	}
+
 	// callback
 	void onException(Exception e) {
 		// put on UI thread
 		Runnable exceptionTask = () -> {
 			showException(e);
 		};
-		ui.access(exceptionTask);
+		ui.push(exceptionTask);
 	}
 
-	private void showException(Exception e) {
+	void showException(Exception e) {
 		Notification.show(e.getMessage(), Notification.Type.ERROR_MESSAGE);
 	}
 }
@@ -17,6 +17,9 @@ public class OpsAppListener implements ServletContextListener {
 		if (logger.isInfoEnabled()) {
 			logger.info("Operations app is starting. ");
 		}
+
+		// initialize the persistence and data collector services in the background
+		AppServices.instance().initialize(sce.getServletContext());
 	}
 
 	@Override
@@ -25,6 +28,15 @@ public class OpsAppListener implements ServletContextListener {
 			logger.info("Operations app is shutting down.");
 		}
 
+		// no more UI pushes
+		AppServices.instance().shutdownEventBus();
+		AppServices.instance().shutdownSessionMonitor();
+		AppServices.instance().shutdownFetchExecutor();
+		AppServices.instance().shutdownDowntimeTracker();
+
+		// write out any queued events
+		AppServices.instance().shutdownRecorder();
+
 		try {
 			AppServices.instance().shutdownCollector();
 		} catch (Exception e) {
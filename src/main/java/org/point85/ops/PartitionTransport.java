@@ -0,0 +1,33 @@
+package org.point85.ops;
+
+import java.util.concurrent.CompletableFuture;
+
+// carries encoded events between operator nodes. The events of a partition
+// are consumed by one node at a time, in the order they were sent.
+interface PartitionTransport {
+	// receives an encoded event or group
+	interface PayloadConsumer {
+		void accept(byte[] payload) throws Exception;
+	}
+
+	// consume the partitions this node is active for. A consume that fails for
+	// a transient reason is retried, any other failure sets the payload aside
+	// so that it does not block the partition. Every node receives the recorded
+	// announcements.
+	void start(PayloadConsumer partitionConsumer, PayloadConsumer recordedConsumer) throws Exception;
+
+	// completes once the transport has taken responsibility for the payload
+	CompletableFuture<Void> send(int partition, byte[] payload);
+
+	// tell all nodes that a payload was written to the database
+	void announce(byte[] payload);
+
+	int getPartitionCount();
+
+	long getRetryCount();
+
+	// payloads set aside
+	long getRejectedCount();
+
+	void close();
+}
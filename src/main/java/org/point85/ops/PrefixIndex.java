@@ -0,0 +1,118 @@
+package org.point85.ops;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+// immutable type-ahead index: sorted lower case terms with a parallel array of
+// values. A lookup is a binary search for the first term with the prefix
+// followed by a scan of the matching terms.
+class PrefixIndex<T> {
+	private final String[] terms;
+	private final Object[] values;
+
+	private PrefixIndex(String[] terms, Object[] values) {
+		this.terms = terms;
+		this.values = values;
+	}
+
+	static <T> Builder<T> builder() {
+		return new Builder<>();
+	}
+
+	// distinct values with a term starting with the prefix, in term order
+	@SuppressWarnings("unchecked")
+	List<T> search(String prefix, int limit) {
+		if (prefix == null || prefix.trim().isEmpty()) {
+			return Collections.emptyList();
+		}
+		String key = normalize(prefix);
+
+		Set<T> matches = new LinkedHashSet<>();
+
+		for (int i = lowerBound(key); i < terms.length && matches.size() < limit; i++) {
+			if (!terms[i].startsWith(key)) {
+				break;
+			}
+			matches.add((T) values[i]);
+		}
+		return new ArrayList<>(matches);
+	}
+
+	int size() {
+		return terms.length;
+	}
+
+	private int lowerBound(String key) {
+		int low = 0;
+		int high = terms.length;
+
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+
+			if (terms[mid].compareTo(key) < 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private static String normalize(String text) {
+		return text.trim().toLowerCase(Locale.ROOT);
+	}
+
+	static class Builder<T> {
+		private final List<String> terms = new ArrayList<>();
+		private final List<T> values = new ArrayList<>();
+
+		// index the whole text and each word in it
+		Builder<T> add(String text, T value) {
+			if (text == null || text.trim().isEmpty()) {
+				return this;
+			}
+			String term = normalize(text);
+			addTerm(term, value);
+
+			String[] words = term.split("[\\s\\-_/.,]+");
+			if (words.length > 1) {
+				for (String word : words) {
+					if (!word.isEmpty()) {
+						addTerm(word, value);
+					}
+				}
+			}
+			return this;
+		}
+
+		private void addTerm(String term, T value) {
+			terms.add(term);
+			values.add(value);
+		}
+
+		PrefixIndex<T> build() {
+			Integer[] order = new Integer[terms.size()];
+			for (int i = 0; i < order.length; i++) {
+				order[i] = i;
+			}
+			Arrays.sort(order, Comparator.comparing(terms::get));
+
+			String[] sortedTerms = new String[order.length];
+			Object[] sortedValues = new Object[order.length];
+
+			for (int i = 0; i < order.length; i++) {
+				// share equal strings between entries
+				sortedTerms[i] = (i > 0 && terms.get(order[i]).equals(sortedTerms[i - 1])) ? sortedTerms[i - 1]
+						: terms.get(order[i]);
+				sortedValues[i] = values.get(order[i]);
+			}
+			return new PrefixIndex<>(sortedTerms, sortedValues);
+		}
+	}
+}
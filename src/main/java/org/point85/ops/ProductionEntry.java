@@ -0,0 +1,69 @@
+package org.point85.ops;
+
+import java.time.LocalDateTime;
+
+// one row of the bulk production entry grid
+public class ProductionEntry {
+	private String productionType;
+	private String amount;
+	private String reasonName;
+	private LocalDateTime startTime;
+	private LocalDateTime endTime;
+
+	// validation result
+	private String status;
+
+	ProductionEntry(String productionType, LocalDateTime startTime, LocalDateTime endTime) {
+		this.productionType = productionType;
+		this.startTime = startTime;
+		this.endTime = endTime;
+	}
+
+	public String getProductionType() {
+		return productionType;
+	}
+
+	public void setProductionType(String productionType) {
+		this.productionType = productionType;
+	}
+
+	public String getAmount() {
+		return amount;
+	}
+
+	public void setAmount(String amount) {
+		this.amount = amount;
+	}
+
+	public String getReasonName() {
+		return reasonName;
+	}
+
+	public void setReasonName(String reasonName) {
+		this.reasonName = reasonName;
+	}
+
+	public LocalDateTime getStartTime() {
+		return startTime;
+	}
+
+	public void setStartTime(LocalDateTime startTime) {
+		this.startTime = startTime;
+	}
+
+	public LocalDateTime getEndTime() {
+		return endTime;
+	}
+
+	public void setEndTime(LocalDateTime endTime) {
+		this.endTime = endTime;
+	}
+
+	public String getStatus() {
+		return status;
+	}
+
+	void setStatus(String status) {
+		this.status = status;
+	}
+}
@@ -0,0 +1,172 @@
+package org.point85.ops;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import org.point85.domain.plant.Reason;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// one reason tree per application, shared read-only by all UIs
+class ReasonCatalog {
+	// logger
+	private static final Logger logger = LoggerFactory.getLogger(ReasonCatalog.class);
+
+	private static final Comparator<Reason> BY_NAME = Comparator.comparing(Reason::getName);
+
+	// fetches the top level reasons with their children
+	private final Supplier<List<Reason>> reasonLoader;
+
+	// content hash of the reason table, changes on any edit
+	private final LongSupplier versionLoader;
+
+	// a reason by name as the database matches it, null if none
+	private final Function<String, Reason> nameLoader;
+
+	private volatile Snapshot snapshot;
+
+	ReasonCatalog(Supplier<List<Reason>> reasonLoader, LongSupplier versionLoader,
+			Function<String, Reason> nameLoader) {
+		this.reasonLoader = reasonLoader;
+		this.versionLoader = versionLoader;
+		this.nameLoader = nameLoader;
+	}
+
+	Snapshot getSnapshot() {
+		Snapshot current = snapshot;
+
+		if (current == null) {
+			synchronized (this) {
+				current = snapshot;
+				if (current == null) {
+					current = load(versionLoader.getAsLong());
+				}
+			}
+		}
+		return current;
+	}
+
+	// reload only if the database version changed. Returns true if reloaded.
+	synchronized boolean refreshIfChanged() {
+		long version = versionLoader.getAsLong();
+
+		if (snapshot != null && snapshot.version == version) {
+			return false;
+		}
+		load(version);
+		return true;
+	}
+
+	// matched as the database matches names, e.g. ignoring case with a case
+	// insensitive collation. Only a name not in the catalog as given is looked
+	// up in the database.
+	Reason findByName(String name) {
+		Reason reason = getSnapshot().findByName(name);
+
+		if (reason != null) {
+			return reason;
+		}
+
+		Reason stored = nameLoader.apply(name);
+
+		if (stored == null) {
+			return null;
+		}
+
+		reason = getSnapshot().findByName(stored.getName());
+
+		if (reason == null && refreshIfChanged()) {
+			// added since the last load
+			reason = getSnapshot().findByName(stored.getName());
+		}
+		return reason != null ? reason : stored;
+	}
+
+	private Snapshot load(long version) {
+		long start = System.currentTimeMillis();
+
+		snapshot = new Snapshot(version, reasonLoader.get());
+
+		if (logger.isInfoEnabled()) {
+			logger.info("Loaded " + snapshot.size() + " reasons in " + (System.currentTimeMillis() - start) + " ms");
+		}
+		return snapshot;
+	}
+
+	// immutable reason hierarchy with a name index
+	static final class Snapshot {
+		private final long version;
+		private final List<Reason> topReasons;
+		private final Map<String, Reason> reasonsByName = new HashMap<>();
+		private final Map<Reason, List<Reason>> childReasons = new HashMap<>();
+		private final PrefixIndex<Reason> searchIndex;
+
+		private Snapshot(long version, List<Reason> reasons) {
+			this.version = version;
+
+			List<Reason> roots = new ArrayList<>(reasons);
+			roots.sort(BY_NAME);
+			this.topReasons = Collections.unmodifiableList(roots);
+
+			for (Reason reason : roots) {
+				index(reason);
+			}
+
+			// type-ahead on name and description
+			PrefixIndex.Builder<Reason> builder = PrefixIndex.builder();
+			for (Reason reason : reasonsByName.values()) {
+				builder.add(reason.getName(), reason).add(reason.getDescription(), reason);
+			}
+			searchIndex = builder.build();
+		}
+
+		private void index(Reason reason) {
+			reasonsByName.put(reason.getName(), reason);
+
+			List<Reason> children = new ArrayList<>(reason.getChildren());
+			children.sort(BY_NAME);
+			childReasons.put(reason, Collections.unmodifiableList(children));
+
+			for (Reason child : children) {
+				index(child);
+			}
+		}
+
+		long getVersion() {
+			return version;
+		}
+
+		Collection<Reason> getReasons() {
+			return Collections.unmodifiableCollection(reasonsByName.values());
+		}
+
+		List<Reason> getTopReasons() {
+			return topReasons;
+		}
+
+		List<Reason> getChildren(Reason reason) {
+			List<Reason> children = childReasons.get(reason);
+			return children != null ? children : Collections.emptyList();
+		}
+
+		Reason findByName(String name) {
+			return reasonsByName.get(name);
+		}
+
+		List<Reason> search(String prefix, int limit) {
+			return searchIndex.search(prefix, limit);
+		}
+
+		int size() {
+			return reasonsByName.size();
+		}
+	}
+}
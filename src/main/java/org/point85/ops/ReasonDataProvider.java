@@ -0,0 +1,55 @@
+package org.point85.ops;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.point85.domain.plant.Reason;
+
+import com.vaadin.data.provider.AbstractBackEndHierarchicalDataProvider;
+import com.vaadin.data.provider.HierarchicalQuery;
+
+// reason tree read directly from a shared catalog snapshot, so a UI holds no
+// copy of the hierarchy
+class ReasonDataProvider extends AbstractBackEndHierarchicalDataProvider<Reason, Void> {
+	private static final long serialVersionUID = 4915508340283706163L;
+
+	private volatile ReasonCatalog.Snapshot snapshot;
+
+	ReasonDataProvider(ReasonCatalog.Snapshot snapshot) {
+		this.snapshot = snapshot;
+	}
+
+	// a reloaded catalog, rows are kept by reason key
+	void setSnapshot(ReasonCatalog.Snapshot snapshot) {
+		this.snapshot = snapshot;
+		refreshAll();
+	}
+
+	@Override
+	public int getChildCount(HierarchicalQuery<Reason, Void> query) {
+		return getChildren(query.getParentOptional().orElse(null)).size();
+	}
+
+	@Override
+	public boolean hasChildren(Reason item) {
+		return !snapshot.getChildren(item).isEmpty();
+	}
+
+	@Override
+	protected Stream<Reason> fetchChildrenFromBackEnd(HierarchicalQuery<Reason, Void> query) {
+		List<Reason> children = getChildren(query.getParentOptional().orElse(null));
+
+		int from = Math.min(query.getOffset(), children.size());
+		int to = Math.min(from + query.getLimit(), children.size());
+		return children.subList(from, to).stream();
+	}
+
+	@Override
+	public Object getId(Reason item) {
+		return item.getKey();
+	}
+
+	private List<Reason> getChildren(Reason parent) {
+		return parent != null ? snapshot.getChildren(parent) : snapshot.getTopReasons();
+	}
+}
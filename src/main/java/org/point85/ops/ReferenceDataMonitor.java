@@ -0,0 +1,261 @@
+package org.point85.ops;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.point85.domain.plant.PlantEntity;
+import org.point85.domain.plant.Reason;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// polls the version queries of the reference data, updates the shared catalogs
+// and tells the open UIs what changed, e.g. edits made in the designer. The
+// work schedules of the shift resolver are refreshed on the same thread.
+class ReferenceDataMonitor {
+	// logger
+	private static final Logger logger = LoggerFactory.getLogger(ReferenceDataMonitor.class);
+
+	// default time between version checks (msec)
+	static final int DEFAULT_POLL_INTERVAL = 30000;
+
+	// receives a change on the monitor thread
+	interface ChangeListener {
+		void onChange(Change change);
+	}
+
+	private final ReasonCatalog reasonCatalog;
+
+	private final MaterialCatalog materialCatalog;
+
+	private final EntityNodeRegistry entityNodeRegistry;
+
+	private final ShiftResolver shiftResolver;
+
+	private final long pollInterval;
+
+	private final Set<ChangeListener> listeners = ConcurrentHashMap.newKeySet();
+
+	// reasons the listeners were last told about
+	private ReasonCatalog.Snapshot lastReasons;
+
+	// of the plant entities, null until first checked
+	private Long lastEntityVersion;
+
+	private ScheduledExecutorService scheduler;
+
+	// statistics
+	private final AtomicLong pollCount = new AtomicLong();
+	private final AtomicLong changeCount = new AtomicLong();
+
+	ReferenceDataMonitor(ReasonCatalog reasonCatalog, MaterialCatalog materialCatalog,
+			EntityNodeRegistry entityNodeRegistry, ShiftResolver shiftResolver, long pollInterval) {
+		this.reasonCatalog = reasonCatalog;
+		this.materialCatalog = materialCatalog;
+		this.entityNodeRegistry = entityNodeRegistry;
+		this.shiftResolver = shiftResolver;
+		this.pollInterval = pollInterval;
+	}
+
+	synchronized void start() {
+		if (scheduler != null) {
+			return;
+		}
+
+		scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "oee-reference-monitor");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		// the first check takes the current versions
+		scheduler.scheduleWithFixedDelay(this::poll, 0, pollInterval, TimeUnit.MILLISECONDS);
+	}
+
+	synchronized void stop() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+	}
+
+	void addListener(ChangeListener listener) {
+		listeners.add(listener);
+	}
+
+	void removeListener(ChangeListener listener) {
+		listeners.remove(listener);
+	}
+
+	private void poll() {
+		pollCount.incrementAndGet();
+
+		try {
+			// not on the request threads
+			shiftResolver.refresh();
+		} catch (Exception e) {
+			logger.error("Work schedule refresh failed: " + e.getMessage());
+		}
+
+		try {
+			Change change = detectChanges();
+
+			if (change.isEmpty()) {
+				return;
+			}
+			changeCount.incrementAndGet();
+
+			if (logger.isInfoEnabled()) {
+				logger.info("Reference data changed: " + change);
+			}
+
+			for (ChangeListener listener : listeners) {
+				listener.onChange(change);
+			}
+		} catch (Exception e) {
+			// keep the schedule running
+			logger.error("Reference data check failed: " + e.getMessage());
+		}
+	}
+
+	private Change detectChanges() {
+		if (lastReasons == null) {
+			lastReasons = reasonCatalog.getSnapshot();
+		}
+
+		// a lookup of a new reason name may already have reloaded the catalog
+		reasonCatalog.refreshIfChanged();
+		ReasonCatalog.Snapshot reasons = reasonCatalog.getSnapshot();
+
+		Change change = new Change(materialCatalog.refreshChangedCategories());
+
+		if (!change.materialCategories.isEmpty()) {
+			try {
+				// here rather than on the next keystroke
+				materialCatalog.buildSearchIndex();
+			} catch (Exception e) {
+				logger.error("Material search index rebuild failed: " + e.getMessage());
+			}
+		}
+
+		if (reasons != lastReasons) {
+			change.compareReasons(lastReasons, reasons);
+			lastReasons = reasons;
+		}
+
+		// the shared tree nodes keep the entity and its child count
+		long entityVersion = OperationsQueries.fetchPlantEntityVersion();
+
+		if (lastEntityVersion != null && lastEntityVersion != entityVersion) {
+			// once for all of the open trees
+			change.topEntities = EntityDataProvider.fetchTopEntities();
+
+			entityNodeRegistry.clear();
+			change.plantEntities = true;
+		}
+		lastEntityVersion = entityVersion;
+
+		return change;
+	}
+
+	int getListenerCount() {
+		return listeners.size();
+	}
+
+	long getPollCount() {
+		return pollCount.get();
+	}
+
+	long getChangeCount() {
+		return changeCount.get();
+	}
+
+	// what changed since the last check
+	static final class Change {
+		private final Set<String> materialCategories;
+		private final Set<String> addedReasons = new HashSet<>();
+		private final Set<String> removedReasons = new HashSet<>();
+		private final Set<String> changedReasons = new HashSet<>();
+
+		// set if the reason catalog was reloaded
+		private ReasonCatalog.Snapshot reasons;
+
+		private boolean plantEntities;
+
+		// fetched again if the plant entities changed, null if too many
+		private List<PlantEntity> topEntities;
+
+		private Change(Set<String> materialCategories) {
+			this.materialCategories = Collections.unmodifiableSet(materialCategories);
+		}
+
+		private void compareReasons(ReasonCatalog.Snapshot before, ReasonCatalog.Snapshot after) {
+			for (Reason reason : after.getReasons()) {
+				Reason previous = before.findByName(reason.getName());
+
+				if (previous == null) {
+					addedReasons.add(reason.getName());
+				} else if (!isSame(previous, reason)) {
+					changedReasons.add(reason.getName());
+				}
+			}
+
+			for (Reason reason : before.getReasons()) {
+				if (after.findByName(reason.getName()) == null) {
+					removedReasons.add(reason.getName());
+				}
+			}
+
+			if (!addedReasons.isEmpty() || !removedReasons.isEmpty() || !changedReasons.isEmpty()) {
+				reasons = after;
+			}
+		}
+
+		private static boolean isSame(Reason first, Reason second) {
+			Reason firstParent = first.getParent();
+			Reason secondParent = second.getParent();
+
+			return Objects.equals(first.getDescription(), second.getDescription())
+					&& first.getLossCategory() == second.getLossCategory()
+					&& Objects.equals(firstParent != null ? firstParent.getName() : null,
+							secondParent != null ? secondParent.getName() : null);
+		}
+
+		boolean isEmpty() {
+			return reasons == null && materialCategories.isEmpty() && !plantEntities;
+		}
+
+		// the plant entity tree nodes were dropped
+		boolean isPlantEntitiesChanged() {
+			return plantEntities;
+		}
+
+		// in place of those the entity trees fetched up front, see
+		// isPlantEntitiesChanged
+		List<PlantEntity> getTopEntities() {
+			return topEntities;
+		}
+
+		// the reloaded reasons, null if unchanged
+		ReasonCatalog.Snapshot getReasons() {
+			return reasons;
+		}
+
+		Set<String> getMaterialCategories() {
+			return materialCategories;
+		}
+
+		@Override
+		public String toString() {
+			return "reasons added " + addedReasons + ", removed " + removedReasons + ", changed " + changedReasons
+					+ ", material categories " + materialCategories + ", plant entities " + plantEntities;
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package org.point85.ops;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import javax.servlet.Registration;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// startup check that the deployment can serve the UI as configured
+final class SelfCheck {
+	// logger
+	private static final Logger logger = LoggerFactory.getLogger(SelfCheck.class);
+
+	private static final String WIDGETSET = "VAADIN/widgetsets/com.vaadin.DefaultWidgetSet/"
+			+ "com.vaadin.DefaultWidgetSet.nocache.js";
+	private static final String THEME = "VAADIN/themes/valo/styles.css";
+	private static final String PUSH_CLASS = "org.atmosphere.cpr.AtmosphereFramework";
+
+	// a resource cache time under this is not long-lived (sec)
+	private static final long MIN_CACHE_TIME = 86400;
+
+	private SelfCheck() {
+		// static methods only
+	}
+
+	// problems found, empty if none
+	static List<String> run(Registration config) {
+		List<String> problems = new ArrayList<>();
+
+		Properties settings = DeploymentSettings.load();
+		String mode = config.getInitParameter(DeploymentSettings.PRODUCTION_MODE);
+		if (mode == null) {
+			mode = settings.getProperty(DeploymentSettings.PRODUCTION_MODE, "false");
+		}
+		boolean production = Boolean.parseBoolean(mode.trim());
+
+		ClassLoader loader = SelfCheck.class.getClassLoader();
+
+		if (loader.getResource(WIDGETSET) == null) {
+			problems.add("The compiled widgetset " + WIDGETSET + " is missing.");
+		} else if (production && loader.getResource(WIDGETSET + ".gz") == null) {
+			problems.add("The widgetset is not pre-compressed, build with -Pproduction.");
+		}
+
+		// themes are not compiled on the fly in production mode
+		if (loader.getResource(THEME) == null) {
+			problems.add("The compiled theme " + THEME + " is missing.");
+		}
+
+		try {
+			Class.forName(PUSH_CLASS, false, loader);
+		} catch (ClassNotFoundException e) {
+			problems.add("Server push is enabled but vaadin-push is not deployed.");
+		}
+
+		// otherwise open downtime is kept in memory only
+		File snapshotFolder = AppServices.getDowntimeSnapshot(config).getAbsoluteFile().getParentFile();
+		if (!(snapshotFolder.isDirectory() || snapshotFolder.mkdirs()) || !snapshotFolder.canWrite()) {
+			problems.add("Open downtime cannot be saved in " + snapshotFolder
+					+ ", set downtimeSnapshot or journalDirectory.");
+		}
+
+		if (production) {
+			String cacheTime = config.getInitParameter(DeploymentSettings.RESOURCE_CACHE_TIME);
+			if (cacheTime == null) {
+				cacheTime = settings.getProperty(DeploymentSettings.RESOURCE_CACHE_TIME, "3600");
+			}
+
+			try {
+				if (Long.parseLong(cacheTime.trim()) < MIN_CACHE_TIME) {
+					problems.add("The resource cache time of " + cacheTime + " seconds is short for production.");
+				}
+			} catch (NumberFormatException e) {
+				problems.add("Invalid resource cache time " + cacheTime);
+			}
+		} else {
+			problems.add("Vaadin is not in production mode.");
+		}
+
+		if (problems.isEmpty()) {
+			if (logger.isInfoEnabled()) {
+				logger.info("Self-check passed, production mode " + production);
+			}
+		} else {
+			for (String problem : problems) {
+				logger.warn("Self-check: " + problem);
+			}
+		}
+		return problems;
+	}
+}
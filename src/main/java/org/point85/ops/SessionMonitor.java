@@ -0,0 +1,175 @@
+package org.point85.ops;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.vaadin.server.VaadinSession;
+
+// releases the grid data of UIs left idle and estimates the heap used per
+// session. A session is a Vaadin session, i.e. a browser, which can have
+// several UIs (tabs) open.
+class SessionMonitor {
+	// logger
+	private static final Logger logger = LoggerFactory.getLogger(SessionMonitor.class);
+
+	// default idle time before grid data is released (msec)
+	static final int DEFAULT_IDLE_TIMEOUT = 1800000;
+
+	// how often idle UIs are looked for (msec)
+	private static final long CHECK_INTERVAL = 60000;
+
+	private final Set<OperationsUI> uis = ConcurrentHashMap.newKeySet();
+
+	private final long idleTimeout;
+
+	private ScheduledExecutorService scheduler;
+
+	// heap in use right after a full GC with no sessions open
+	private volatile long baselineHeap = -1;
+
+	SessionMonitor(long idleTimeout) {
+		this.idleTimeout = idleTimeout;
+	}
+
+	synchronized void start() {
+		if (scheduler != null) {
+			return;
+		}
+
+		scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "oee-session-monitor");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.scheduleWithFixedDelay(this::releaseIdleSessions, CHECK_INTERVAL, CHECK_INTERVAL,
+				TimeUnit.MILLISECONDS);
+	}
+
+	synchronized void stop() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+	}
+
+	void register(OperationsUI ui) {
+		uis.add(ui);
+	}
+
+	void unregister(OperationsUI ui) {
+		uis.remove(ui);
+	}
+
+	private void releaseIdleSessions() {
+		try {
+			for (OperationsUI ui : uis) {
+				if (!ui.isDataReleased() && ui.getIdleTime() > idleTimeout) {
+					// rebuilt on the operator's next click
+					ui.push(ui::releaseData);
+				}
+			}
+		} catch (Exception e) {
+			logger.error("Idle session check failed: " + e.getMessage());
+		}
+	}
+
+	// take the heap in use after a full GC as the no session baseline. It is
+	// measured directly, as the collection usage of a pool stays at zero until
+	// the pool is first collected. If explicit GC is disabled the baseline
+	// includes some garbage.
+	void recordBaseline() {
+		System.gc();
+
+		long used = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				used += pool.getUsage().getUsed();
+			}
+		}
+		baselineHeap = used;
+
+		if (logger.isInfoEnabled()) {
+			logger.info("Heap baseline (bytes): " + used);
+		}
+	}
+
+	// distinct Vaadin sessions of the open UIs
+	int getSessionCount() {
+		Set<VaadinSession> sessions = new HashSet<>();
+
+		for (OperationsUI ui : uis) {
+			VaadinSession session = ui.getSession();
+
+			if (session != null) {
+				sessions.add(session);
+			}
+		}
+		return sessions.size();
+	}
+
+	int getReleasedCount() {
+		int count = 0;
+		for (OperationsUI ui : uis) {
+			if (ui.isDataReleased()) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	// heap above the baseline divided by the open sessions (bytes)
+	long getHeapPerSession() {
+		int count = getSessionCount();
+
+		if (count == 0 || baselineHeap < 0) {
+			return 0;
+		}
+		return Math.max(0, getCollectedHeap() - baselineHeap) / count;
+	}
+
+	// heap in use after the last collection of each pool, i.e. without garbage.
+	// A pool not yet collected reports no collection usage, its current usage
+	// is taken instead.
+	static long getCollectedHeap() {
+		Set<String> collected = getCollectedPools();
+		long used = 0;
+
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() != MemoryType.HEAP) {
+				continue;
+			}
+
+			MemoryUsage usage = collected.contains(pool.getName()) ? pool.getCollectionUsage() : null;
+			if (usage == null) {
+				usage = pool.getUsage();
+			}
+			used += usage.getUsed();
+		}
+		return used;
+	}
+
+	// names of the pools collected at least once
+	private static Set<String> getCollectedPools() {
+		Set<String> names = new HashSet<>();
+
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			if (collector.getCollectionCount() > 0) {
+				names.addAll(Arrays.asList(collector.getMemoryPoolNames()));
+			}
+		}
+		return names;
+	}
+}
@@ -0,0 +1,119 @@
+package org.point85.ops;
+
+import java.time.OffsetDateTime;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.point85.domain.collector.OeeEvent;
+import org.point85.domain.plant.Equipment;
+import org.point85.domain.plant.Material;
+
+// application-wide current material and job for each equipment, keyed by
+// equipment primary key
+class SetupCache {
+	// equipment with no recorded setup
+	private static final CurrentSetup NO_SETUP = new CurrentSetup(null, null, null);
+
+	// fetches the last MATL_CHANGE event for an equipment
+	private final Function<Equipment, OeeEvent> setupLoader;
+
+	private final ConcurrentMap<Long, CurrentSetup> setups = new ConcurrentHashMap<>();
+
+	// metrics
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+
+	SetupCache(Function<Equipment, OeeEvent> setupLoader) {
+		this.setupLoader = setupLoader;
+	}
+
+	CurrentSetup getCurrentSetup(Equipment equipment) {
+		CurrentSetup setup = setups.get(equipment.getKey());
+
+		if (setup != null) {
+			hitCount.incrementAndGet();
+			return setup;
+		}
+
+		missCount.incrementAndGet();
+		return setups.computeIfAbsent(equipment.getKey(), key -> fromEvent(setupLoader.apply(equipment)));
+	}
+
+	// update in place from a recorded MATL_CHANGE, keeping the latest by start
+	// time. Returns the entry for the event.
+	CurrentSetup onSetupRecorded(OeeEvent event) {
+		CurrentSetup recorded = fromEvent(event);
+
+		setups.merge(event.getEquipment().getKey(), recorded,
+				(current, candidate) -> candidate.isLaterThan(current) ? candidate : current);
+		return recorded;
+	}
+
+	// reload on next access if the entry of a failed write is still current. A
+	// later setup recorded meanwhile is kept.
+	void invalidate(Equipment equipment, CurrentSetup failed) {
+		setups.remove(equipment.getKey(), failed);
+	}
+
+	void clear() {
+		setups.clear();
+	}
+
+	int size() {
+		return setups.size();
+	}
+
+	long getHitCount() {
+		return hitCount.get();
+	}
+
+	long getMissCount() {
+		return missCount.get();
+	}
+
+	double getHitRatio() {
+		long hits = hitCount.get();
+		long total = hits + missCount.get();
+		return total > 0 ? hits / (double) total : 0.0;
+	}
+
+	private static CurrentSetup fromEvent(OeeEvent event) {
+		if (event == null) {
+			return NO_SETUP;
+		}
+		return new CurrentSetup(event.getMaterial(), event.getJob(), event.getStartTime());
+	}
+
+	static final class CurrentSetup {
+		private final Material material;
+		private final String job;
+		private final OffsetDateTime startTime;
+
+		private CurrentSetup(Material material, String job, OffsetDateTime startTime) {
+			this.material = material;
+			this.job = job;
+			this.startTime = startTime;
+		}
+
+		Material getMaterial() {
+			return material;
+		}
+
+		String getJob() {
+			return job;
+		}
+
+		OffsetDateTime getStartTime() {
+			return startTime;
+		}
+
+		private boolean isLaterThan(CurrentSetup other) {
+			if (other.startTime == null) {
+				return true;
+			}
+			return startTime != null && !startTime.isBefore(other.startTime);
+		}
+	}
+}
@@ -0,0 +1,298 @@
+package org.point85.ops;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.LongSupplier;
+
+import org.point85.domain.plant.Equipment;
+import org.point85.domain.schedule.ShiftInstance;
+import org.point85.domain.schedule.WorkSchedule;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// resolves the shift instance for an event from shift instances precomputed
+// per work schedule over a rolling horizon. The work schedules are loaded and
+// indexed once each, shared by all of the equipment assigned to them, and kept
+// current by refresh off of the request path: on the reference data poll, added
+// or removed work schedules are seen by a version check. Edited shifts,
+// rotations and equipment assignments have no cheap version, so assignments and
+// schedules older than the time to live are loaded again, each schedule indexed
+// once per reload. Only the first event of an equipment loads its work schedule
+// on the request thread.
+class ShiftResolver {
+	// logger
+	private static final Logger logger = LoggerFactory.getLogger(ShiftResolver.class);
+
+	// days around today covered by an index
+	private static final int DAYS_BEFORE = 2;
+	private static final int DAYS_AFTER = 7;
+
+	// age of a loaded work schedule or equipment assignment before it is loaded
+	// again (msec)
+	static final long TIME_TO_LIVE = 15 * 60 * 1000;
+
+	// loads the work schedule of an equipment from the database, walking up the
+	// plant hierarchy, null if none
+	interface ScheduleLoader {
+		WorkSchedule load(Equipment equipment) throws Exception;
+	}
+
+	// cheap database version of the work schedules
+	private final LongSupplier versionLoader;
+
+	private final ScheduleLoader scheduleLoader;
+
+	// work schedule of each equipment by equipment key
+	private final ConcurrentMap<Long, Assignment> assignments = new ConcurrentHashMap<>();
+
+	// work schedule and its shift index by work schedule key
+	private final ConcurrentMap<Long, LoadedSchedule> schedules = new ConcurrentHashMap<>();
+
+	// null until the first refresh
+	private volatile Long version;
+
+	ShiftResolver(LongSupplier versionLoader, ScheduleLoader scheduleLoader) {
+		this.versionLoader = versionLoader;
+		this.scheduleLoader = scheduleLoader;
+	}
+
+	// the first shift instance containing the time, or null
+	ShiftInstance resolve(Equipment equipment, LocalDateTime time) throws Exception {
+		Assignment assignment = assignments.get(equipment.getKey());
+		LoadedSchedule loaded = assignment != null ? loadedFor(assignment) : null;
+
+		if (assignment == null || (assignment.scheduleKey != null && loaded == null)) {
+			// first use of the equipment
+			assignment = assign(equipment, System.currentTimeMillis() - TIME_TO_LIVE);
+			loaded = loadedFor(assignment);
+		}
+
+		if (loaded == null) {
+			return null;
+		}
+
+		LocalDate today = LocalDate.now();
+
+		if (time.toLocalDate().isBefore(today.minusDays(DAYS_BEFORE))
+				|| !time.toLocalDate().isBefore(today.plusDays(DAYS_AFTER))) {
+			// outside of the horizon, with the end exclusive as in the index
+			for (ShiftInstance shift : loaded.schedule.getShiftInstancesForTime(time)) {
+				if (shift.getEndTime().isAfter(time)) {
+					return shift;
+				}
+			}
+			return null;
+		}
+		return loaded.indexFor(today).find(time);
+	}
+
+	private LoadedSchedule loadedFor(Assignment assignment) {
+		return assignment.scheduleKey != null ? schedules.get(assignment.scheduleKey) : null;
+	}
+
+	// load the work schedule of the equipment. The schedule replaces the one
+	// loaded before unless that was loaded after the time given (msec).
+	private Assignment assign(Equipment equipment, long loadedAfter) throws Exception {
+		long now = System.currentTimeMillis();
+		WorkSchedule schedule = scheduleLoader.load(equipment);
+
+		// assigned first so that a refresh does not drop the schedule
+		Assignment assignment = new Assignment(equipment, schedule != null ? schedule.getKey() : null, now);
+		assignments.put(equipment.getKey(), assignment);
+
+		if (schedule != null) {
+			schedules.compute(schedule.getKey(), (key, existing) -> existing == null
+					|| existing.loadTime <= loadedAfter ? new LoadedSchedule(schedule, now) : existing);
+		}
+		return assignment;
+	}
+
+	// called off of the request path, e.g. on the reference data poll. Reloads
+	// everything if the work schedules were added to or removed, else whatever
+	// is older than the time to live, and indexes the schedules for today.
+	void refresh() {
+		long now = System.currentTimeMillis();
+
+		long current = versionLoader.getAsLong();
+		boolean changed = version != null && version != current;
+		version = current;
+
+		// a schedule reloaded in this pass is shared by the equipment after it
+		long loadedAfter = changed ? now - 1 : now - TIME_TO_LIVE;
+
+		for (Assignment assignment : assignments.values()) {
+			if (!changed && now - assignment.loadTime <= TIME_TO_LIVE) {
+				continue;
+			}
+
+			try {
+				assign(assignment.equipment, loadedAfter);
+			} catch (Exception e) {
+				// the loaded schedule is kept until the next refresh
+				logger.error("Unable to load the work schedule of " + assignment.equipment.getName() + ": "
+						+ e.getMessage());
+			}
+		}
+
+		// schedules no longer assigned to any equipment
+		Set<Long> assigned = new HashSet<>();
+		for (Assignment assignment : assignments.values()) {
+			assigned.add(assignment.scheduleKey);
+		}
+		schedules.keySet().retainAll(assigned);
+
+		// the horizon moves on at midnight
+		LocalDate today = LocalDate.now();
+
+		for (LoadedSchedule loaded : schedules.values()) {
+			try {
+				loaded.indexFor(today);
+			} catch (Exception e) {
+				logger.error("Unable to index work schedule " + loaded.schedule.getName() + ": " + e.getMessage());
+			}
+		}
+	}
+
+	// reload on next use
+	void invalidate() {
+		assignments.clear();
+		schedules.clear();
+	}
+
+	// the work schedule of an equipment
+	private static final class Assignment {
+		private final Equipment equipment;
+
+		// null if none
+		private final Long scheduleKey;
+
+		// (msec)
+		private final long loadTime;
+
+		private Assignment(Equipment equipment, Long scheduleKey, long loadTime) {
+			this.equipment = equipment;
+			this.scheduleKey = scheduleKey;
+			this.loadTime = loadTime;
+		}
+	}
+
+	// a work schedule and its shift index, built on first use
+	private static final class LoadedSchedule {
+		private final WorkSchedule schedule;
+
+		// (msec)
+		private final long loadTime;
+
+		private volatile ShiftIndex index;
+
+		private LoadedSchedule(WorkSchedule schedule, long loadTime) {
+			this.schedule = schedule;
+			this.loadTime = loadTime;
+		}
+
+		// once per schedule and day
+		private ShiftIndex indexFor(LocalDate today) throws Exception {
+			ShiftIndex current = index;
+
+			if (current != null && current.today.equals(today)) {
+				return current;
+			}
+
+			synchronized (this) {
+				if (index == null || !index.today.equals(today)) {
+					index = buildIndex(schedule, today);
+				}
+				return index;
+			}
+		}
+	}
+
+	private static ShiftIndex buildIndex(WorkSchedule schedule, LocalDate today) throws Exception {
+		// starting a day earlier for shifts that run past midnight
+		LocalDate from = today.minusDays(DAYS_BEFORE + 1);
+		LocalDate to = today.plusDays(DAYS_AFTER);
+
+		List<ShiftInstance> instances = new ArrayList<>();
+		for (LocalDate day = from; day.isBefore(to); day = day.plusDays(1)) {
+			instances.addAll(schedule.getShiftInstancesForDay(day));
+		}
+
+		ShiftIndex index = new ShiftIndex(instances, today);
+
+		if (logger.isInfoEnabled()) {
+			logger.info("Indexed " + instances.size() + " shift instances for work schedule " + schedule.getName());
+		}
+		return index;
+	}
+
+	// shift instances sorted by start time
+	private static final class ShiftIndex {
+		private final long[] starts;
+		private final long[] ends;
+		private final ShiftInstance[] instances;
+
+		// longest shift instance, bounds the backwards scan
+		private final long maxDuration;
+
+		// the day the horizon is around
+		private final LocalDate today;
+
+		private ShiftIndex(List<ShiftInstance> shifts, LocalDate today) {
+			this.today = today;
+
+			shifts.sort(Comparator.comparing(ShiftInstance::getStartTime));
+
+			int count = shifts.size();
+			starts = new long[count];
+			ends = new long[count];
+			instances = shifts.toArray(new ShiftInstance[count]);
+
+			long longest = 0;
+			for (int i = 0; i < count; i++) {
+				starts[i] = toSeconds(instances[i].getStartTime());
+				ends[i] = toSeconds(instances[i].getEndTime());
+				longest = Math.max(longest, ends[i] - starts[i]);
+			}
+			maxDuration = longest;
+		}
+
+		private ShiftInstance find(LocalDateTime time) {
+			long seconds = toSeconds(time);
+
+			// last instance starting at or before the time
+			int low = 0;
+			int high = starts.length;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+
+				if (starts[mid] <= seconds) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+
+			// earliest starting instance that contains the time. The end is
+			// exclusive, so at a change of shift the next one is found.
+			ShiftInstance found = null;
+			for (int i = low - 1; i >= 0 && starts[i] >= seconds - maxDuration; i--) {
+				if (ends[i] > seconds) {
+					found = instances[i];
+				}
+			}
+			return found;
+		}
+
+		private static long toSeconds(LocalDateTime time) {
+			return time.toEpochSecond(ZoneOffset.UTC);
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package org.point85.ops;
+
+import java.util.UUID;
+
+import com.vaadin.data.HasValue;
+
+// idempotency key of an entry form. It stays the same while the form is
+// unchanged, so a repeated click submits the same key, and is renewed on any
+// edit.
+class SubmissionKey {
+	private String value = newValue();
+
+	// renew when any of the fields change
+	void watch(HasValue<?>... fields) {
+		for (HasValue<?> field : fields) {
+			field.addValueChangeListener(event -> renew());
+		}
+	}
+
+	void renew() {
+		value = newValue();
+	}
+
+	String get() {
+		return value;
+	}
+
+	private static String newValue() {
+		return UUID.randomUUID().toString();
+	}
+}
@@ -0,0 +1,55 @@
+package org.point85.ops;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+
+import javax.persistence.LockTimeoutException;
+import javax.persistence.PessimisticLockException;
+import javax.persistence.QueryTimeoutException;
+
+// tells a failure that may succeed when retried, such as a lost connection or
+// a lock conflict, from one that never will, such as a validation or
+// constraint error
+final class TransientFailures {
+	// SQL states of connection errors and of rolled back transactions, which
+	// include deadlocks and serialization failures
+	private static final String CONNECTION_STATE = "08";
+	private static final String ROLLBACK_STATE = "40";
+
+	// SQL state of a timeout
+	private static final String TIMEOUT_STATE = "HYT00";
+
+	private TransientFailures() {
+	}
+
+	// true if the failure or any of its causes is transient
+	static boolean isTransient(Throwable failure) {
+		Throwable cause = failure;
+
+		// bounded in case of a cycle
+		for (int depth = 0; cause != null && depth < 20; depth++) {
+			if (cause instanceof EventCodec.UndecodableException) {
+				return false;
+			}
+
+			if (cause instanceof SQLTransientException || cause instanceof SQLRecoverableException
+					|| cause instanceof IOException || cause instanceof LockTimeoutException
+					|| cause instanceof PessimisticLockException || cause instanceof QueryTimeoutException) {
+				return true;
+			}
+
+			if (cause instanceof SQLException) {
+				String state = ((SQLException) cause).getSQLState();
+
+				if (state != null && (state.startsWith(CONNECTION_STATE) || state.startsWith(ROLLBACK_STATE)
+						|| state.equals(TIMEOUT_STATE))) {
+					return true;
+				}
+			}
+			cause = cause.getCause();
+		}
+		return false;
+	}
+}
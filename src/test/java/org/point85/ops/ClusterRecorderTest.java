@@ -0,0 +1,166 @@
+package org.point85.ops;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.junit.After;
+import org.junit.Test;
+import org.point85.domain.collector.OeeEvent;
+import org.point85.domain.plant.Equipment;
+import org.point85.domain.script.OeeEventType;
+import org.point85.ops.EventRecorder.EventWriter;
+
+public class ClusterRecorderTest {
+	private static final int PARTITIONS = 16;
+
+	// longer than a retry back off (msec)
+	private static final long WAIT_TIMEOUT = 10000;
+
+	// amounts of the events written to the database
+	private final List<Double> written = Collections.synchronizedList(new ArrayList<>());
+
+	// amounts of the events announced as recorded
+	private final List<Double> announced = Collections.synchronizedList(new ArrayList<>());
+
+	private ClusterRecorder recorder;
+
+	@After
+	public void tearDown() {
+		if (recorder != null) {
+			recorder.stop();
+		}
+	}
+
+	@Test
+	public void partitionIsStableAndInRange() {
+		ClusterRecorder partitioned = new ClusterRecorder(new LocalPartitionTransport(PARTITIONS), event -> {
+		}, events -> {
+		});
+
+		for (long key = -1000; key <= 1000; key++) {
+			int partition = partitioned.partitionOf(key);
+
+			assertTrue(partition >= 0 && partition < PARTITIONS);
+			assertEquals(partition, partitioned.partitionOf(key));
+		}
+		assertTrue(partitioned.partitionOf(Long.MAX_VALUE) >= 0);
+		assertTrue(partitioned.partitionOf(Long.MIN_VALUE) >= 0);
+	}
+
+	@Test
+	public void sequentialKeysAreSpread() {
+		ClusterRecorder partitioned = new ClusterRecorder(new LocalPartitionTransport(PARTITIONS), event -> {
+		}, events -> {
+		});
+		int[] counts = new int[PARTITIONS];
+
+		// as assigned by the database
+		int keys = 100 * PARTITIONS;
+		for (long key = 1; key <= keys; key++) {
+			counts[partitioned.partitionOf(key)]++;
+		}
+
+		for (int count : counts) {
+			assertTrue("Uneven partitions: " + count, count > 50 && count < 150);
+		}
+	}
+
+	@Test
+	public void writesAndAnnouncesSubmittedEvents() throws Exception {
+		start(event -> written.add(event.getAmount()));
+
+		recorder.submit(Collections.singletonList(production(1))).get();
+		recorder.submit(Arrays.asList(production(2), production(3))).get();
+
+		await(() -> announced.size() == 3);
+		assertEquals(Arrays.asList(1.0, 2.0, 3.0), written);
+		assertEquals(written, announced);
+		assertEquals(3, recorder.getSentCount());
+		assertEquals(3, recorder.getWrittenCount());
+	}
+
+	@Test
+	public void retriesTransientFailure() throws Exception {
+		AtomicInteger attempts = new AtomicInteger();
+
+		start(event -> {
+			if (attempts.incrementAndGet() == 1) {
+				throw new SQLTransientConnectionException("Connection refused");
+			}
+			written.add(event.getAmount());
+		});
+
+		recorder.submit(Collections.singletonList(production(1))).get();
+
+		await(() -> announced.size() == 1);
+		assertEquals(1, recorder.getTransport().getRetryCount());
+		assertEquals(0, recorder.getRejectedCount());
+	}
+
+	@Test
+	public void setsAsideEventThatCanNeverBeWritten() throws Exception {
+		start(event -> {
+			if (event.getAmount() == 1) {
+				throw new IllegalStateException("Constraint violation", new SQLException("Duplicate key", "23000"));
+			}
+			written.add(event.getAmount());
+		});
+
+		// the same equipment, so the same partition
+		recorder.submit(Collections.singletonList(production(1))).get();
+		recorder.submit(Collections.singletonList(production(2))).get();
+
+		// the next event is not held up
+		await(() -> announced.size() == 1);
+		assertEquals(Collections.singletonList(2.0), written);
+		assertEquals(1, recorder.getRejectedCount());
+		assertEquals(0, recorder.getTransport().getRetryCount());
+	}
+
+	private void start(EventWriter writer) throws Exception {
+		Equipment equipment = equipment();
+
+		recorder = new ClusterRecorder(new LocalPartitionTransport(PARTITIONS), writer,
+				(entityClass, key) -> entityClass == Equipment.class && key.equals(equipment.getKey()) ? equipment
+						: null,
+				events -> {
+					for (OeeEvent event : events) {
+						announced.add(event.getAmount());
+					}
+				});
+		recorder.start();
+	}
+
+	private static Equipment equipment() {
+		Equipment equipment = new Equipment(null, "EQ-1", "Equipment");
+		equipment.setKey(1L);
+		return equipment;
+	}
+
+	private static OeeEvent production(double amount) {
+		OeeEvent event = new OeeEvent(equipment());
+		event.setEventType(OeeEventType.PROD_GOOD);
+		event.setStartTime(OffsetDateTime.now());
+		event.setAmount(amount);
+		return event;
+	}
+
+	private static void await(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + WAIT_TIMEOUT;
+
+		while (!condition.getAsBoolean()) {
+			assertTrue("Timed out", System.currentTimeMillis() < deadline);
+			Thread.sleep(5);
+		}
+	}
+}
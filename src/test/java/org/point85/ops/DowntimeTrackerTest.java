@@ -0,0 +1,235 @@
+package org.point85.ops;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BooleanSupplier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.point85.domain.collector.OeeEvent;
+import org.point85.domain.plant.Equipment;
+import org.point85.domain.plant.Reason;
+import org.point85.domain.script.OeeEventType;
+
+public class DowntimeTrackerTest {
+	// (msec)
+	private static final long CLOCK_INTERVAL = 10;
+	private static final long WAIT_TIMEOUT = 10000;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File snapshotFile;
+
+	// the entities in the database by class and key
+	private final Map<String, Object> entities = new HashMap<>();
+
+	// summaries recorded by idempotency key
+	private final Map<String, OeeEvent> recorded = Collections.synchronizedMap(new HashMap<>());
+
+	private final List<DowntimeTracker> trackers = new ArrayList<>();
+
+	private Equipment equipment;
+	private Reason breakdown;
+
+	@Before
+	public void setUp() throws Exception {
+		snapshotFile = new File(folder.newFolder("downtime"), DowntimeTracker.SNAPSHOT_NAME);
+
+		equipment = new Equipment(null, "EQ-1", "Equipment");
+		equipment.setKey(1L);
+		store(Equipment.class, equipment);
+
+		breakdown = new Reason("Breakdown", "Unplanned");
+		breakdown.setKey(5L);
+		store(Reason.class, breakdown);
+	}
+
+	@After
+	public void tearDown() {
+		for (DowntimeTracker tracker : trackers) {
+			tracker.stop();
+		}
+	}
+
+	@Test
+	public void openDowntimeSurvivesRestart() throws Exception {
+		DowntimeTracker before = restored(this::failToRecord);
+		OeeEvent opened = opening(equipment, OffsetDateTime.now(ZoneOffset.UTC).withNano(0));
+		before.open(opened);
+
+		assertTrue(snapshotFile.exists());
+
+		DowntimeTracker after = restored(this::failToRecord);
+		OeeEvent restored = after.getOpen(equipment.getKey());
+
+		assertEquals(1, after.size());
+		assertEquals(equipment, restored.getEquipment());
+		assertEquals(breakdown, restored.getReason());
+		assertEquals(OeeEventType.AVAILABILITY, restored.getEventType());
+		assertTrue(opened.getStartTime().isEqual(restored.getStartTime()));
+	}
+
+	@Test
+	public void closedDowntimeLeavesSnapshot() throws Exception {
+		DowntimeTracker tracker = restored(this::record);
+		OeeEvent opened = opening(equipment, OffsetDateTime.now(ZoneOffset.UTC));
+		tracker.open(opened);
+
+		OeeEvent summary = tracker.close(opened, summaryOf(opened)).get();
+
+		assertEquals(summary, recorded.get(DowntimeTracker.summaryKey(summary)));
+		assertNull(tracker.getOpen(equipment.getKey()));
+		assertFalse(snapshotFile.exists());
+
+		// closed already
+		assertNull(tracker.close(opened, summaryOf(opened)).get());
+	}
+
+	@Test
+	public void unrecordedSummarySurvivesRestart() throws Exception {
+		DowntimeTracker before = restored(this::failToRecord);
+		OeeEvent opened = opening(equipment, OffsetDateTime.now(ZoneOffset.UTC).withNano(0));
+		before.open(opened);
+
+		OeeEvent summary = summaryOf(opened);
+		assertTrue(before.close(opened, summary).isCompletedExceptionally());
+		assertEquals(1, before.getUnrecordedCount());
+		before.stop();
+
+		DowntimeTracker after = restored(this::record);
+		assertEquals(0, after.size());
+		assertEquals(1, after.getUnrecordedCount());
+
+		// recorded on the clock, under the key of the first attempt
+		after.start();
+		await(() -> after.getUnrecordedCount() == 0);
+
+		OeeEvent retried = recorded.get(DowntimeTracker.summaryKey(summary));
+		assertEquals(summary.getDuration(), retried.getDuration());
+		await(() -> !snapshotFile.exists());
+	}
+
+	@Test
+	public void entryOfDeletedEquipmentIsMovedAside() throws Exception {
+		Equipment deleted = new Equipment(null, "EQ-2", "Deleted equipment");
+		deleted.setKey(2L);
+		store(Equipment.class, deleted);
+
+		DowntimeTracker before = restored(this::failToRecord);
+		before.open(opening(equipment, OffsetDateTime.now(ZoneOffset.UTC)));
+		before.open(opening(deleted, OffsetDateTime.now(ZoneOffset.UTC)));
+
+		entities.remove(Equipment.class.getSimpleName() + deleted.getKey());
+
+		DowntimeTracker after = restored(this::failToRecord);
+		assertEquals(1, after.size());
+		assertEquals(1, after.getUnresolvedCount());
+		assertEquals(1, unresolvedFiles().length);
+	}
+
+	@Test
+	public void unreadableSnapshotIsMovedAside() throws Exception {
+		Files.write(snapshotFile.toPath(), new byte[] { 99, 1, 2, 3 });
+
+		DowntimeTracker tracker = restored(this::failToRecord);
+		assertEquals(0, tracker.size());
+		assertEquals(1, tracker.getUnresolvedCount());
+		assertEquals(1, unresolvedFiles().length);
+		assertFalse(snapshotFile.exists());
+	}
+
+	@Test
+	public void watchersAreToldOfOpenDowntime() throws Exception {
+		DowntimeTracker tracker = restored(this::failToRecord);
+		List<OeeEvent> told = Collections.synchronizedList(new ArrayList<>());
+
+		DowntimeTracker.Watcher watcher = tracker.register((key, opened) -> told.add(opened));
+		watcher.watch(equipment.getKey());
+		assertEquals(1, tracker.getWatcherCount());
+
+		OeeEvent opened = opening(equipment, OffsetDateTime.now(ZoneOffset.UTC));
+		tracker.open(opened);
+		assertEquals(opened, told.get(0));
+
+		tracker.close(opened, summaryOf(opened));
+		assertNull(told.get(1));
+
+		watcher.watch(null);
+		assertEquals(0, tracker.getWatcherCount());
+	}
+
+	private DowntimeTracker restored(DowntimeTracker.SummaryRecorder recorder) throws Exception {
+		DowntimeTracker tracker = new DowntimeTracker(snapshotFile, CLOCK_INTERVAL, recorder,
+				(entityClass, key) -> entities.get(entityClass.getSimpleName() + key));
+		trackers.add(tracker);
+
+		tracker.restore();
+		return tracker;
+	}
+
+	private CompletableFuture<OeeEvent> record(OeeEvent summary, String idempotencyKey) {
+		recorded.put(idempotencyKey, summary);
+		return CompletableFuture.completedFuture(summary);
+	}
+
+	private CompletableFuture<OeeEvent> failToRecord(OeeEvent summary, String idempotencyKey) {
+		CompletableFuture<OeeEvent> failed = new CompletableFuture<>();
+		failed.completeExceptionally(new IllegalStateException("Database down"));
+		return failed;
+	}
+
+	private void store(Class<?> entityClass, Object entity) {
+		Long key = entity instanceof Equipment ? ((Equipment) entity).getKey() : ((Reason) entity).getKey();
+		entities.put(entityClass.getSimpleName() + key, entity);
+	}
+
+	private OeeEvent opening(Equipment down, OffsetDateTime startTime) {
+		OeeEvent event = new OeeEvent(down);
+		event.setEventType(OeeEventType.AVAILABILITY);
+		event.setReason(breakdown);
+		event.setStartTime(startTime);
+		return event;
+	}
+
+	private static OeeEvent summaryOf(OeeEvent opened) {
+		OeeEvent summary = new OeeEvent(opened.getEquipment());
+		summary.setEventType(OeeEventType.AVAILABILITY);
+		summary.setReason(opened.getReason());
+		summary.setStartTime(opened.getStartTime());
+		summary.setEndTime(opened.getStartTime().plusMinutes(5));
+		summary.setDuration(Duration.ofMinutes(5));
+		return summary;
+	}
+
+	private File[] unresolvedFiles() {
+		return snapshotFile.getParentFile()
+				.listFiles((dir, name) -> name.startsWith(DowntimeTracker.SNAPSHOT_NAME + ".unresolved-"));
+	}
+
+	private static void await(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + WAIT_TIMEOUT;
+
+		while (!condition.getAsBoolean()) {
+			assertTrue("Timed out", System.currentTimeMillis() < deadline);
+			Thread.sleep(5);
+		}
+	}
+}
@@ -0,0 +1,169 @@
+package org.point85.ops;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.sql.SQLTransientConnectionException;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.point85.domain.collector.OeeEvent;
+import org.point85.domain.plant.Equipment;
+import org.point85.domain.plant.Material;
+import org.point85.domain.plant.Reason;
+import org.point85.domain.script.OeeEventType;
+
+public class EventCodecTest {
+	// the entities in the database by class and key
+	private final Map<String, Object> entities = new HashMap<>();
+
+	private final EventCodec.EntityFinder finder = (entityClass, key) -> entities
+			.get(entityClass.getSimpleName() + key);
+
+	private Equipment equipment;
+	private Reason reason;
+	private Material material;
+
+	@Before
+	public void setUp() {
+		equipment = new Equipment(null, "EQ-1", "Equipment");
+		equipment.setKey(1L);
+		entities.put("Equipment1", equipment);
+
+		reason = new Reason("Breakdown", "Unplanned");
+		reason.setKey(5L);
+		entities.put("Reason5", reason);
+
+		material = new Material();
+		material.setName("M-1");
+		material.setKey(7L);
+		entities.put("Material7", material);
+	}
+
+	@Test
+	public void roundTripsEveryField() throws Exception {
+		OeeEvent event = new OeeEvent(equipment);
+		event.setEventType(OeeEventType.AVAILABILITY);
+		event.setStartTime(OffsetDateTime.of(2024, 3, 31, 1, 59, 30, 123456789, ZoneOffset.ofHours(-5)));
+		event.setEndTime(event.getStartTime().plusMinutes(10));
+		event.setDuration(Duration.ofSeconds(600, 5));
+		event.setAmount(12.5);
+		event.setReason(reason);
+		event.setMaterial(material);
+		event.setJob("Job 42");
+		event.setInputValue("Breakdown");
+
+		OeeEvent decoded = EventCodec.decode(EventCodec.encode(event), finder);
+
+		assertSame(equipment, decoded.getEquipment());
+		assertEquals(OeeEventType.AVAILABILITY, decoded.getEventType());
+		assertEquals(event.getStartTime(), decoded.getStartTime());
+		assertEquals(event.getEndTime(), decoded.getEndTime());
+		assertEquals(event.getDuration(), decoded.getDuration());
+		assertEquals(12.5, decoded.getAmount(), 0);
+		assertSame(reason, decoded.getReason());
+		assertSame(material, decoded.getMaterial());
+		assertEquals("Job 42", decoded.getJob());
+		assertEquals("Breakdown", decoded.getInputValue());
+	}
+
+	@Test
+	public void roundTripsMissingFields() throws Exception {
+		OeeEvent event = production(3);
+		event.setAmount(null);
+
+		OeeEvent decoded = EventCodec.decode(EventCodec.encode(event), finder);
+
+		assertNull(decoded.getEndTime());
+		assertNull(decoded.getDuration());
+		assertNull(decoded.getAmount());
+		assertNull(decoded.getUOM());
+		assertNull(decoded.getReason());
+		assertNull(decoded.getMaterial());
+		assertNull(decoded.getShift());
+		assertNull(decoded.getTeam());
+		assertNull(decoded.getJob());
+		assertNull(decoded.getInputValue());
+	}
+
+	@Test
+	public void decodesSingleEventAndGroupAlike() throws Exception {
+		List<OeeEvent> group = Arrays.asList(production(1), production(2), production(3));
+
+		List<OeeEvent> decoded = EventCodec.decodeAll(EventCodec.encodeAll(group), finder);
+		assertEquals(3, decoded.size());
+		for (int i = 0; i < group.size(); i++) {
+			assertEquals(group.get(i).getAmount(), decoded.get(i).getAmount());
+		}
+
+		assertEquals(1, EventCodec.decodeAll(EventCodec.encode(production(4)), finder).size());
+	}
+
+	@Test
+	public void readsEquipmentKeyWithoutLookup() throws Exception {
+		assertEquals(1L, EventCodec.readEquipmentKey(EventCodec.encode(production(1))));
+		assertEquals(1L, EventCodec.readEquipmentKey(EventCodec.encodeAll(Arrays.asList(production(1)))));
+	}
+
+	@Test
+	public void deletedEntityIsUndecodable() throws Exception {
+		OeeEvent event = production(1);
+		event.setReason(reason);
+		byte[] payload = EventCodec.encode(event);
+
+		entities.remove("Reason5");
+		assertUndecodable(payload);
+	}
+
+	@Test
+	public void malformedPayloadIsUndecodable() throws Exception {
+		byte[] payload = EventCodec.encode(production(1));
+
+		assertUndecodable(Arrays.copyOf(payload, payload.length / 2));
+
+		byte[] otherVersion = payload.clone();
+		otherVersion[0] = 99;
+		assertUndecodable(otherVersion);
+	}
+
+	@Test
+	public void databaseFailureIsThrownAsIs() throws Exception {
+		byte[] payload = EventCodec.encode(production(1));
+		SQLTransientConnectionException unreachable = new SQLTransientConnectionException("Connection refused");
+
+		try {
+			EventCodec.decode(payload, (entityClass, key) -> {
+				throw unreachable;
+			});
+			fail("Expected the lookup to fail");
+		} catch (SQLTransientConnectionException e) {
+			assertSame(unreachable, e);
+		}
+	}
+
+	private OeeEvent production(double amount) {
+		OeeEvent event = new OeeEvent(equipment);
+		event.setEventType(OeeEventType.PROD_GOOD);
+		event.setStartTime(OffsetDateTime.now(ZoneOffset.UTC));
+		event.setAmount(amount);
+		return event;
+	}
+
+	private void assertUndecodable(byte[] payload) throws Exception {
+		try {
+			EventCodec.decodeAll(payload, finder);
+			fail("Expected the payload to be undecodable");
+		} catch (EventCodec.UndecodableException e) {
+			// set aside rather than retried
+		}
+	}
+}
@@ -0,0 +1,186 @@
+package org.point85.ops;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class EventJournalTest {
+	private static final int SEGMENT_SIZE = 4096;
+	private static final long SYNC_INTERVAL = 5;
+	private static final long READ_TIMEOUT = 50;
+
+	// header (length and sequence) and CRC trailer of a record
+	private static final int HEADER_SIZE = 12;
+	private static final int TRAILER_SIZE = 4;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File directory;
+
+	private EventJournal journal;
+
+	@Before
+	public void setUp() throws Exception {
+		directory = folder.newFolder("journal");
+		journal = open(SEGMENT_SIZE);
+	}
+
+	@After
+	public void tearDown() {
+		journal.close();
+	}
+
+	@Test
+	public void readsRecordsInSequence() throws Exception {
+		Object attachment = new Object();
+
+		assertEquals(Long.valueOf(1), journal.append(payload("a"), attachment).join());
+		assertEquals(Long.valueOf(2), journal.append(payload("b"), null).join());
+
+		EventJournal.JournalRecord first = journal.readNext(READ_TIMEOUT);
+		assertEquals(1, first.getSequence());
+		assertArrayEquals(payload("a"), first.getPayload());
+		assertSame(attachment, first.getAttachment());
+
+		EventJournal.JournalRecord second = journal.readNext(READ_TIMEOUT);
+		assertEquals(2, second.getSequence());
+		assertNull(second.getAttachment());
+
+		assertNull(journal.readNext(READ_TIMEOUT));
+		assertEquals(2, journal.getPendingCount());
+	}
+
+	@Test
+	public void replaysUnacknowledgedRecordsAfterRestart() throws Exception {
+		for (String name : new String[] { "a", "b", "c" }) {
+			journal.append(payload(name), new Object()).join();
+		}
+
+		journal.acknowledge(journal.readNext(READ_TIMEOUT).getSequence());
+		journal.close();
+
+		journal = open(SEGMENT_SIZE);
+		assertEquals(2, journal.getPendingCount());
+		assertEquals(1, journal.getAcknowledged());
+
+		// decoded from the payload after a restart
+		EventJournal.JournalRecord record = journal.readNext(READ_TIMEOUT);
+		assertEquals(2, record.getSequence());
+		assertArrayEquals(payload("b"), record.getPayload());
+		assertNull(record.getAttachment());
+
+		assertEquals(3, journal.readNext(READ_TIMEOUT).getSequence());
+		assertNull(journal.readNext(READ_TIMEOUT));
+	}
+
+	@Test
+	public void checkpointSurvivesRestart() throws Exception {
+		for (String name : new String[] { "a", "b", "c" }) {
+			journal.append(payload(name), null).join();
+		}
+
+		for (int i = 0; i < 3; i++) {
+			journal.acknowledge(journal.readNext(READ_TIMEOUT).getSequence());
+		}
+		journal.close();
+
+		journal = open(SEGMENT_SIZE);
+		assertEquals(0, journal.getPendingCount());
+		assertEquals(3, journal.getAcknowledged());
+		assertNull(journal.readNext(READ_TIMEOUT));
+
+		// sequences carry on
+		assertEquals(Long.valueOf(4), journal.append(payload("d"), null).join());
+		assertEquals(4, journal.readNext(READ_TIMEOUT).getSequence());
+	}
+
+	@Test
+	public void discardsRecordWithBadChecksum() throws Exception {
+		for (String name : new String[] { "a", "b", "c" }) {
+			journal.append(payload(name), null).join();
+		}
+		journal.close();
+
+		// flip a payload byte of the third record
+		int recordSize = HEADER_SIZE + payload("c").length + TRAILER_SIZE;
+		try (RandomAccessFile file = new RandomAccessFile(segmentFiles()[0], "rw")) {
+			long position = 2 * recordSize + HEADER_SIZE;
+			file.seek(position);
+			int value = file.read();
+			file.seek(position);
+			file.write(value ^ 0xFF);
+		}
+
+		journal = open(SEGMENT_SIZE);
+		assertEquals(2, journal.getPendingCount());
+
+		assertEquals(1, journal.readNext(READ_TIMEOUT).getSequence());
+		assertEquals(2, journal.readNext(READ_TIMEOUT).getSequence());
+		assertNull(journal.readNext(READ_TIMEOUT));
+
+		// the torn record is overwritten
+		assertEquals(Long.valueOf(3), journal.append(payload("d"), null).join());
+
+		EventJournal.JournalRecord record = journal.readNext(READ_TIMEOUT);
+		assertEquals(3, record.getSequence());
+		assertArrayEquals(payload("d"), record.getPayload());
+	}
+
+	@Test
+	public void rollsAndDeletesConsumedSegments() throws Exception {
+		journal.close();
+
+		// two records of this size fit in a segment
+		byte[] payload = new byte[32];
+		int segmentSize = 2 * (HEADER_SIZE + payload.length + TRAILER_SIZE) + 8;
+		journal = open(segmentSize);
+
+		for (int i = 0; i < 5; i++) {
+			journal.append(payload, null).join();
+		}
+		assertEquals(3, segmentFiles().length);
+
+		for (long sequence = 1; sequence <= 5; sequence++) {
+			EventJournal.JournalRecord record = journal.readNext(READ_TIMEOUT);
+			assertNotNull(record);
+			assertEquals(sequence, record.getSequence());
+			journal.acknowledge(sequence);
+		}
+		assertNull(journal.readNext(READ_TIMEOUT));
+
+		// only the segment being written is left
+		assertEquals(1, segmentFiles().length);
+
+		journal.close();
+		journal = open(segmentSize);
+		assertEquals(0, journal.getPendingCount());
+		assertNull(journal.readNext(READ_TIMEOUT));
+	}
+
+	private EventJournal open(int segmentSize) throws Exception {
+		EventJournal opened = new EventJournal(directory, segmentSize, SYNC_INTERVAL);
+		opened.open();
+		return opened;
+	}
+
+	private File[] segmentFiles() {
+		return directory.listFiles((dir, name) -> name.endsWith(".journal"));
+	}
+
+	private static byte[] payload(String value) {
+		return ("event " + value).getBytes(StandardCharsets.UTF_8);
+	}
+}
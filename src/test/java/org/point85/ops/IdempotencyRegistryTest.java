@@ -0,0 +1,142 @@
+package org.point85.ops;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class IdempotencyRegistryTest {
+	private static final long TIME_TO_LIVE = 60000;
+	private static final int MAX_KEYS = 4;
+
+	private final IdempotencyRegistry registry = new IdempotencyRegistry(TIME_TO_LIVE, MAX_KEYS);
+
+	// submissions run
+	private final AtomicInteger submitted = new AtomicInteger();
+
+	@Test
+	public void repeatedKeyGetsFirstResult() throws Exception {
+		CompletableFuture<String> first = registry.submitOnce("key", () -> submit("first"));
+		CompletableFuture<String> repeat = registry.submitOnce("key", () -> submit("repeat"));
+
+		assertEquals("first", repeat.get());
+		assertSame(first, repeat);
+		assertEquals(1, submitted.get());
+		assertEquals(1, registry.getHitCount());
+		assertEquals(1, registry.getMissCount());
+	}
+
+	@Test
+	public void noKeyAlwaysSubmits() throws Exception {
+		registry.submitOnce(null, () -> submit("first")).get();
+		registry.submitOnce(null, () -> submit("second")).get();
+
+		assertEquals(2, submitted.get());
+		assertEquals(0, registry.size());
+	}
+
+	@Test
+	public void repeatWaitsForSubmissionInProgress() throws Exception {
+		CompletableFuture<String> pending = new CompletableFuture<>();
+
+		CompletableFuture<String> first = registry.submitOnce("key", () -> pending);
+		CompletableFuture<String> repeat = registry.submitOnce("key", () -> submit("repeat"));
+
+		assertFalse(repeat.isDone());
+		pending.complete("first");
+
+		assertEquals("first", first.get());
+		assertEquals("first", repeat.get());
+		assertEquals(0, submitted.get());
+	}
+
+	@Test
+	public void failedSubmissionReleasesKey() throws Exception {
+		CompletableFuture<String> failed = registry.submitOnce("key", () -> {
+			CompletableFuture<String> failure = new CompletableFuture<>();
+			failure.completeExceptionally(new IllegalStateException("Database down"));
+			return failure;
+		});
+		assertFailed(failed, IllegalStateException.class);
+
+		assertEquals("retried", registry.submitOnce("key", () -> submit("retried")).get());
+		assertEquals(1, submitted.get());
+	}
+
+	@Test
+	public void thrownSubmissionReleasesKey() throws Exception {
+		CompletableFuture<String> failed = registry.submitOnce("key", () -> {
+			throw new IllegalStateException("Not running");
+		});
+		assertFailed(failed, IllegalStateException.class);
+		assertEquals(0, registry.size());
+
+		assertEquals("retried", registry.submitOnce("key", () -> submit("retried")).get());
+	}
+
+	@Test
+	public void otherContentConflicts() throws Exception {
+		registry.submitOnce("key", "body-1", () -> submit("first")).get();
+
+		assertFailed(registry.submitOnce("key", "body-2", () -> submit("second")),
+				IdempotencyRegistry.ConflictException.class);
+		assertEquals(1, registry.getConflictCount());
+
+		// the same content, or none to compare
+		assertEquals("first", registry.submitOnce("key", "body-1", () -> submit("same")).get());
+		assertEquals("first", registry.submitOnce("key", () -> submit("unchecked")).get());
+		assertEquals(1, submitted.get());
+	}
+
+	@Test
+	public void expiredKeySubmitsAgain() throws Exception {
+		IdempotencyRegistry expiring = new IdempotencyRegistry(1, MAX_KEYS);
+
+		expiring.submitOnce("key", () -> submit("first")).get();
+		Thread.sleep(5);
+
+		assertEquals("second", expiring.submitOnce("key", () -> submit("second")).get());
+		assertEquals(2, submitted.get());
+	}
+
+	@Test
+	public void purgeKeepsKeysInProgress() throws Exception {
+		CompletableFuture<String> pending = new CompletableFuture<>();
+		registry.submitOnce("in progress", () -> pending);
+
+		// over the limit, completed keys are purged
+		for (int i = 0; i < 2 * MAX_KEYS; i++) {
+			registry.submitOnce("done-" + i, () -> submit("done")).get();
+		}
+		assertTrue(registry.size() <= MAX_KEYS + 1);
+
+		CompletableFuture<String> repeat = registry.submitOnce("in progress", () -> submit("repeat"));
+		pending.complete("first");
+
+		assertEquals("first", repeat.get());
+		assertEquals(2 * MAX_KEYS, submitted.get());
+	}
+
+	private CompletableFuture<String> submit(String value) {
+		submitted.incrementAndGet();
+		return CompletableFuture.completedFuture(value);
+	}
+
+	private static void assertFailed(CompletableFuture<?> future, Class<? extends Throwable> cause) {
+		try {
+			future.get();
+			fail("Expected " + cause.getSimpleName());
+		} catch (InterruptedException e) {
+			throw new AssertionError(e);
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause().toString(), cause.isInstance(e.getCause()));
+		}
+	}
+}
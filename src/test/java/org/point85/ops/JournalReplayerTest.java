@@ -0,0 +1,220 @@
+package org.point85.ops;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.point85.domain.collector.OeeEvent;
+import org.point85.domain.plant.Equipment;
+import org.point85.ops.EventRecorder.EventWriter;
+
+public class JournalReplayerTest {
+	private static final int SEGMENT_SIZE = 4096;
+	private static final long SYNC_INTERVAL = 5;
+
+	// longer than a retry back off (msec)
+	private static final long WAIT_TIMEOUT = 10000;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private EventJournal journal;
+
+	private JournalReplayer replayer;
+
+	// events written to the database
+	private final List<OeeEvent> written = Collections.synchronizedList(new ArrayList<>());
+
+	// events handed to the listener once written
+	private final List<OeeEvent> published = Collections.synchronizedList(new ArrayList<>());
+
+	private Equipment equipment;
+
+	@Before
+	public void setUp() throws Exception {
+		journal = new EventJournal(folder.newFolder("journal"), SEGMENT_SIZE, SYNC_INTERVAL);
+		journal.open();
+
+		equipment = new Equipment(null, "EQ-1", "Equipment");
+		equipment.setKey(1L);
+	}
+
+	@After
+	public void tearDown() {
+		if (replayer != null) {
+			replayer.stop(0);
+		}
+		journal.close();
+	}
+
+	@Test
+	public void deliversAttachedEvents() throws Exception {
+		OeeEvent first = new OeeEvent(equipment);
+		OeeEvent second = new OeeEvent(equipment);
+
+		start(written::add, payload -> {
+			throw new AssertionError("Attached events are not decoded");
+		});
+
+		journal.append(payload("first"), first).join();
+		journal.append(payload("second"), second).join();
+
+		awaitDrained();
+		assertEquals(2, replayer.getDeliveredCount());
+		assertEquals(first, written.get(0));
+		assertEquals(second, written.get(1));
+		assertEquals(written, published);
+	}
+
+	@Test
+	public void decodesEventsJournaledBeforeRestart() throws Exception {
+		OeeEvent event = new OeeEvent(equipment);
+
+		journal.append(payload("restored"), null).join();
+		start(written::add, payload -> Collections.singletonList(event));
+
+		awaitDrained();
+		assertEquals(1, replayer.getDeliveredCount());
+		assertEquals(event, written.get(0));
+	}
+
+	@Test
+	public void retriesDecodeWhileDatabaseIsUnreachable() throws Exception {
+		OeeEvent event = new OeeEvent(equipment);
+		AtomicInteger attempts = new AtomicInteger();
+
+		journal.append(payload("restored"), null).join();
+		start(written::add, payload -> {
+			if (attempts.incrementAndGet() == 1) {
+				throw new SQLTransientConnectionException("Connection refused");
+			}
+			return Collections.singletonList(event);
+		});
+
+		awaitDrained();
+		assertEquals(1, replayer.getRetryCount());
+		assertEquals(0, replayer.getRejectedCount());
+		assertEquals(event, written.get(0));
+	}
+
+	@Test
+	public void rejectsUndecodableEvent() throws Exception {
+		OeeEvent event = new OeeEvent(equipment);
+		byte[] bad = payload("deleted equipment");
+
+		long sequence = journal.append(bad, null).join();
+		journal.append(payload("next"), event).join();
+
+		start(written::add, payload -> {
+			throw new EventCodec.UndecodableException("Equipment 1 no longer exists");
+		});
+
+		awaitDrained();
+		assertEquals(1, replayer.getRejectedCount());
+		assertEquals(0, replayer.getRetryCount());
+
+		// the next event is not held up
+		assertEquals(1, written.size());
+		assertEquals(event, written.get(0));
+
+		File rejected = new File(new File(journal.getDirectory(), "rejected"), "event-" + sequence + ".bin");
+		assertTrue(rejected.exists());
+		assertArrayEquals(bad, Files.readAllBytes(rejected.toPath()));
+	}
+
+	@Test
+	public void retriesFailedWrite() throws Exception {
+		OeeEvent event = new OeeEvent(equipment);
+		AtomicInteger attempts = new AtomicInteger();
+
+		start(recorded -> {
+			if (attempts.incrementAndGet() == 1) {
+				// as wrapped by the persistence provider
+				throw new IllegalStateException("Deadlock", new SQLException("Deadlock", "40001"));
+			}
+			written.add(recorded);
+		}, payload -> {
+			throw new AssertionError("Attached events are not decoded");
+		});
+
+		journal.append(payload("event"), event).join();
+
+		awaitDrained();
+		assertEquals(1, replayer.getRetryCount());
+		assertEquals(1, replayer.getDeliveredCount());
+		assertEquals(event, written.get(0));
+
+		// published once, after the write that succeeded
+		assertEquals(Collections.singletonList(event), published);
+	}
+
+	@Test
+	public void rejectsEventThatCanNeverBeWritten() throws Exception {
+		OeeEvent bad = new OeeEvent(equipment);
+		OeeEvent next = new OeeEvent(equipment);
+		byte[] badPayload = payload("bad");
+
+		start(recorded -> {
+			if (recorded == bad) {
+				throw new IllegalStateException("Constraint violation", new SQLException("Duplicate key", "23000"));
+			}
+			written.add(recorded);
+		}, payload -> {
+			throw new AssertionError("Attached events are not decoded");
+		});
+
+		long sequence = journal.append(badPayload, bad).join();
+		journal.append(payload("next"), next).join();
+
+		awaitDrained();
+		assertEquals(1, replayer.getRejectedCount());
+		assertEquals(0, replayer.getRetryCount());
+
+		// the next event is not held up
+		assertEquals(Collections.singletonList(next), written);
+		assertEquals(Collections.singletonList(next), published);
+
+		File rejected = new File(new File(journal.getDirectory(), "rejected"), "event-" + sequence + ".bin");
+		assertArrayEquals(badPayload, Files.readAllBytes(rejected.toPath()));
+	}
+
+	private void start(EventWriter writer, JournalReplayer.EventDecoder decoder) {
+		replayer = new JournalReplayer(journal, writer, decoder, published::addAll);
+		replayer.start();
+	}
+
+	private void awaitDrained() throws InterruptedException {
+		await(() -> journal.getPendingCount() == 0);
+	}
+
+	private static void await(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + WAIT_TIMEOUT;
+
+		while (!condition.getAsBoolean()) {
+			if (System.currentTimeMillis() > deadline) {
+				throw new AssertionError("Timed out");
+			}
+			Thread.sleep(10);
+		}
+	}
+
+	private static byte[] payload(String value) {
+		return value.getBytes(StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,296 @@
+package org.point85.ops;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.point85.domain.collector.OeeEvent;
+import org.point85.domain.oee.TimeLoss;
+import org.point85.domain.plant.Equipment;
+import org.point85.domain.plant.Reason;
+import org.point85.domain.schedule.ShiftInstance;
+import org.point85.domain.schedule.WorkSchedule;
+import org.point85.domain.script.OeeEventType;
+
+public class KpiAggregatorTest {
+	// back to back shifts, short enough to roll over in a test
+	private static final long SHIFT_SECONDS = 3;
+
+	private final WorkSchedule schedule = new WorkSchedule("Short shifts", "Test shifts");
+
+	// by start (epoch seconds)
+	private final Map<Long, ShiftInstance> shifts = new ConcurrentHashMap<>();
+
+	private final ShiftResolver shiftResolver = new ShiftResolver(() -> 0, equipment -> null) {
+		@Override
+		ShiftInstance resolve(Equipment equipment, LocalDateTime time) throws Exception {
+			long seconds = time.atZone(ZoneId.systemDefault()).toEpochSecond();
+			return shiftAt(seconds - Math.floorMod(seconds, SHIFT_SECONDS));
+		}
+	};
+
+	// the events in the database
+	private final List<OeeEvent> stored = Collections.synchronizedList(new ArrayList<>());
+
+	private final AtomicInteger loads = new AtomicInteger();
+
+	// held open By Event, null if none
+	private volatile OeeEvent openDowntime;
+
+	private KpiAggregator aggregator;
+
+	// the aggregator seeding, for a loader that records meanwhile
+	private KpiAggregator current;
+
+	private Equipment equipment;
+
+	private Reason running;
+	private Reason breakdown;
+
+	@Before
+	public void setUp() {
+		equipment = new Equipment(null, "EQ-1", "Equipment");
+		equipment.setKey(1L);
+
+		running = reason("Running", TimeLoss.NO_LOSS);
+		breakdown = reason("Breakdown", TimeLoss.UNPLANNED_DOWNTIME);
+
+		aggregator = new KpiAggregator(shiftResolver, (loaded, from) -> {
+			loads.incrementAndGet();
+
+			List<OeeEvent> events = new ArrayList<>();
+			synchronized (stored) {
+				for (OeeEvent event : stored) {
+					// and the state in effect at the start
+					if (!event.getStartTime().isBefore(from) || event.getDuration() == null) {
+						events.add(event);
+					}
+				}
+			}
+			return events;
+		}, equipmentKey -> openDowntime);
+	}
+
+	@Test
+	public void seedsOnceThenFoldsRecordedEvents() throws Exception {
+		long start = awaitShiftStart();
+		stored.add(production(OeeEventType.PROD_GOOD, start, 10));
+
+		KpiAggregator.Kpis seeded = aggregator.getKpis(equipment);
+		assertEquals(10, seeded.getGood(), 0);
+		assertEquals("Shift " + start, seeded.getShiftName());
+
+		aggregator.fold(production(OeeEventType.PROD_GOOD, start, 5));
+		aggregator.fold(production(OeeEventType.PROD_REJECT, start, 3));
+		aggregator.fold(production(OeeEventType.PROD_STARTUP, start, 2));
+
+		KpiAggregator.Kpis folded = aggregator.peekKpis(equipment);
+		assertEquals(15, folded.getGood(), 0);
+		assertEquals(3, folded.getReject(), 0);
+		assertEquals(2, folded.getStartup(), 0);
+		assertEquals(0.75, folded.getQuality(), 1e-9);
+
+		assertEquals(15, aggregator.getKpis(equipment).getGood(), 0);
+		assertEquals(1, loads.get());
+	}
+
+	@Test
+	public void ignoresEventsOfOtherShiftsAndEquipment() throws Exception {
+		long start = awaitShiftStart();
+		aggregator.getKpis(equipment);
+
+		aggregator.fold(production(OeeEventType.PROD_GOOD, start - SHIFT_SECONDS, 10));
+
+		Equipment other = new Equipment(null, "EQ-2", "Other equipment");
+		other.setKey(2L);
+		OeeEvent otherEvent = production(OeeEventType.PROD_GOOD, start, 10);
+		otherEvent.setEquipment(other);
+		aggregator.fold(otherEvent);
+
+		assertEquals(0, aggregator.peekKpis(equipment).getGood(), 0);
+		assertNull(aggregator.peekKpis(other));
+		assertEquals(1, aggregator.size());
+	}
+
+	@Test
+	public void foldsEventsRecordedWhileSeedingOnce() throws Exception {
+		long start = awaitShiftStart();
+		OeeEvent both = production(OeeEventType.PROD_GOOD, start, 10);
+		stored.add(both);
+
+		KpiAggregator seeding = new KpiAggregator(shiftResolver, (loaded, from) -> {
+			// recorded while the query runs, one of them also loaded
+			aggregatorOf(loaded).fold(both);
+			aggregatorOf(loaded).fold(production(OeeEventType.PROD_GOOD, start, 1));
+			return new ArrayList<>(stored);
+		}, equipmentKey -> null);
+		current = seeding;
+
+		assertEquals(11, seeding.getKpis(equipment).getGood(), 0);
+	}
+
+	@Test
+	public void failedSeedIsDropped() throws Exception {
+		awaitShiftStart();
+
+		KpiAggregator failing = new KpiAggregator(shiftResolver, (loaded, from) -> {
+			throw new IllegalStateException("Database down");
+		}, equipmentKey -> null);
+
+		try {
+			failing.getKpis(equipment);
+			fail("Expected the load to fail");
+		} catch (IllegalStateException e) {
+			assertEquals(0, failing.size());
+		}
+		assertNull(failing.peekKpis(equipment));
+	}
+
+	@Test
+	public void countsOpenStateAndSummaries() throws Exception {
+		long start = awaitShiftStart();
+		aggregator.getKpis(equipment);
+
+		// down for the first second, then running
+		OeeEvent summary = availability(breakdown, start);
+		summary.setDuration(Duration.ofSeconds(1));
+		aggregator.fold(availability(running, start));
+		aggregator.fold(summary);
+
+		Thread.sleep(1200);
+		KpiAggregator.Kpis kpis = aggregator.peekKpis(equipment);
+
+		Map<TimeLoss, Long> losses = kpis.getLosses();
+		assertEquals(1, (long) losses.get(TimeLoss.UNPLANNED_DOWNTIME));
+
+		// the running state paused for the summary
+		assertEquals(kpis.getElapsed() - 1, (long) losses.get(TimeLoss.NO_LOSS));
+	}
+
+	@Test
+	public void countsOpenDowntime() throws Exception {
+		long start = awaitShiftStart();
+		stored.add(availability(running, start));
+		aggregator.getKpis(equipment);
+
+		// opened By Event, not yet in the database
+		openDowntime = availability(breakdown, start);
+
+		Thread.sleep(1200);
+		KpiAggregator.Kpis kpis = aggregator.peekKpis(equipment);
+		assertEquals(kpis.getElapsed(), (long) kpis.getLosses().get(TimeLoss.UNPLANNED_DOWNTIME));
+		assertEquals(0, (long) kpis.getLosses().get(TimeLoss.NO_LOSS));
+		assertEquals(0.0, kpis.getAvailability(), 0);
+
+		openDowntime = null;
+		assertEquals(1.0, aggregator.peekKpis(equipment).getAvailability(), 0);
+	}
+
+	@Test
+	public void rollsOverToNextShift() throws Exception {
+		long start = awaitShiftStart();
+		stored.add(availability(breakdown, start));
+		stored.add(production(OeeEventType.PROD_GOOD, start, 10));
+		aggregator.getKpis(equipment);
+
+		long next = awaitShiftStart();
+		assertEquals(start + SHIFT_SECONDS, next);
+
+		KpiAggregator.Kpis kpis = aggregator.peekKpis(equipment);
+		assertEquals("Shift " + next, kpis.getShiftName());
+		assertEquals(0, kpis.getGood(), 0);
+
+		// still down
+		assertEquals(kpis.getElapsed(), (long) kpis.getLosses().get(TimeLoss.UNPLANNED_DOWNTIME));
+		assertEquals(1, loads.get());
+	}
+
+	@Test
+	public void eventOfNextShiftRollsOver() throws Exception {
+		long start = awaitShiftStart();
+		stored.add(availability(running, start));
+		aggregator.getKpis(equipment);
+
+		long next = awaitShiftStart();
+		aggregator.fold(production(OeeEventType.PROD_GOOD, next, 4));
+
+		KpiAggregator.Kpis kpis = aggregator.peekKpis(equipment);
+		assertEquals("Shift " + next, kpis.getShiftName());
+		assertEquals(4, kpis.getGood(), 0);
+		assertEquals(kpis.getElapsed(), (long) kpis.getLosses().get(TimeLoss.NO_LOSS));
+		assertEquals(1, loads.get());
+	}
+
+	@Test
+	public void peekDoesNotSeed() {
+		assertNull(aggregator.peekKpis(equipment));
+		assertEquals(0, loads.get());
+	}
+
+	private KpiAggregator aggregatorOf(Equipment loaded) {
+		assertEquals(equipment, loaded);
+		return current;
+	}
+
+	// sleeps into the start of the next shift, returns its start (epoch
+	// seconds)
+	private static long awaitShiftStart() throws InterruptedException {
+		long now = System.currentTimeMillis();
+		long length = SHIFT_SECONDS * 1000;
+		long next = (now / length + 1) * length;
+
+		Thread.sleep(next - now + 50);
+		return next / 1000;
+	}
+
+	private ShiftInstance shiftAt(long start) throws Exception {
+		ShiftInstance shift = shifts.get(start);
+
+		if (shift == null) {
+			LocalDateTime startTime = LocalDateTime.ofInstant(Instant.ofEpochSecond(start), ZoneId.systemDefault());
+			shift = new ShiftInstance(schedule.createShift("Shift " + start, "Test shift", startTime.toLocalTime(),
+					Duration.ofSeconds(SHIFT_SECONDS)), startTime, null);
+			shifts.put(start, shift);
+		}
+		return shift;
+	}
+
+	private OeeEvent production(OeeEventType type, long time, double amount) {
+		OeeEvent event = event(type, time);
+		event.setAmount(amount);
+		return event;
+	}
+
+	private OeeEvent availability(Reason reason, long time) {
+		OeeEvent event = event(OeeEventType.AVAILABILITY, time);
+		event.setReason(reason);
+		return event;
+	}
+
+	private OeeEvent event(OeeEventType type, long time) {
+		OeeEvent event = new OeeEvent(equipment);
+		event.setEventType(type);
+		event.setStartTime(OffsetDateTime.ofInstant(Instant.ofEpochSecond(time), ZoneId.systemDefault()));
+		return event;
+	}
+
+	private static Reason reason(String name, TimeLoss loss) {
+		Reason reason = new Reason(name, name);
+		reason.setLossCategory(loss);
+		return reason;
+	}
+}
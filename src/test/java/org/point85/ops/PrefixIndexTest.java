@@ -0,0 +1,69 @@
+package org.point85.ops;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class PrefixIndexTest {
+	private final PrefixIndex<String> index = PrefixIndex.<String>builder().add("Steel Coil", "M-1")
+			.add("steel-plate", "M-2").add("Aluminium Sheet", "M-3").add("Coil Spring", "M-4").add(null, "M-5")
+			.add("  ", "M-6").build();
+
+	@Test
+	public void matchesWholeTextAndEachWord() {
+		assertEquals(Arrays.asList("M-1", "M-2"), index.search("ste", 10));
+		assertEquals(Arrays.asList("M-1", "M-4"), index.search("coil", 10));
+		assertEquals(Arrays.asList("M-2"), index.search("plate", 10));
+		assertEquals(Arrays.asList("M-3"), index.search("sheet", 10));
+	}
+
+	@Test
+	public void ignoresCaseAndSurroundingBlanks() {
+		assertEquals(Arrays.asList("M-1", "M-2"), index.search("  STEEL ", 10));
+		assertEquals(Arrays.asList("M-1"), index.search("steel c", 10));
+	}
+
+	@Test
+	public void listsEachValueOnce() {
+		// the whole text and its first word both match
+		assertEquals(Arrays.asList("M-1", "M-4"), index.search("c", 10));
+	}
+
+	@Test
+	public void stopsAtLimit() {
+		assertEquals(Arrays.asList("M-1"), index.search("coil", 1));
+	}
+
+	@Test
+	public void noMatch() {
+		assertEquals(Collections.emptyList(), index.search("zinc", 10));
+
+		// past the last term and before the first
+		assertEquals(Collections.emptyList(), index.search("zzz", 10));
+		assertEquals(Collections.emptyList(), index.search("0", 10));
+	}
+
+	@Test
+	public void blankPrefixMatchesNothing() {
+		assertEquals(Collections.emptyList(), index.search(null, 10));
+		assertEquals(Collections.emptyList(), index.search(" ", 10));
+	}
+
+	@Test
+	public void blankTextIsNotIndexed() {
+		// the whole text of M-1, M-2, M-3 and M-4 plus two words each
+		assertEquals(12, index.size());
+	}
+
+	@Test
+	public void emptyIndex() {
+		PrefixIndex<String> empty = PrefixIndex.<String>builder().build();
+
+		assertEquals(0, empty.size());
+		assertTrue(empty.search("a", 10).isEmpty());
+	}
+}
@@ -0,0 +1,167 @@
+package org.point85.ops;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.point85.domain.plant.Equipment;
+import org.point85.domain.schedule.Rotation;
+import org.point85.domain.schedule.Shift;
+import org.point85.domain.schedule.ShiftInstance;
+import org.point85.domain.schedule.WorkSchedule;
+
+public class ShiftResolverTest {
+	private static final String DAY = "Day";
+	private static final String NIGHT = "Night";
+
+	// every day 06:00 to 14:00 and 22:00 to 06:00 the next morning, idle in
+	// between
+	private WorkSchedule schedule;
+
+	private Equipment equipment;
+
+	// schedule loads from the database
+	private final AtomicInteger loads = new AtomicInteger();
+
+	// of the work schedules in the database
+	private final AtomicLong version = new AtomicLong();
+
+	private ShiftResolver resolver;
+
+	private LocalDate today;
+
+	@Before
+	public void setUp() throws Exception {
+		schedule = new WorkSchedule("Two shifts", "Day and night");
+		schedule.setKey(10L);
+
+		Shift day = schedule.createShift(DAY, "Day shift", LocalTime.of(6, 0), Duration.ofHours(8));
+		Shift night = schedule.createShift(NIGHT, "Night shift", LocalTime.of(22, 0), Duration.ofHours(8));
+
+		LocalDate rotationStart = LocalDate.now().minusDays(30);
+
+		Rotation days = schedule.createRotation("Days", "Every day");
+		days.addSegment(day, 1, 0);
+		schedule.createTeam("A", "Day team", days, rotationStart);
+
+		Rotation nights = schedule.createRotation("Nights", "Every night");
+		nights.addSegment(night, 1, 0);
+		schedule.createTeam("B", "Night team", nights, rotationStart);
+
+		equipment = equipment(1L);
+
+		resolver = new ShiftResolver(version::get, assigned -> {
+			loads.incrementAndGet();
+			return assigned.getKey() < 100 ? schedule : null;
+		});
+
+		today = LocalDate.now();
+	}
+
+	@Test
+	public void findsShiftContainingTime() throws Exception {
+		assertShift(DAY, today.atTime(6, 0), today.atTime(10, 0));
+		assertShift(NIGHT, today.atTime(22, 0), today.atTime(23, 0));
+	}
+
+	@Test
+	public void startIsInShiftAndEndIsNot() throws Exception {
+		assertShift(DAY, today.atTime(6, 0), today.atTime(6, 0));
+		assertShift(DAY, today.atTime(6, 0), today.atTime(13, 59, 59));
+		assertNull(resolver.resolve(equipment, today.atTime(14, 0)));
+		assertNull(resolver.resolve(equipment, today.atTime(21, 59, 59)));
+	}
+
+	@Test
+	public void overnightShiftRunsPastMidnight() throws Exception {
+		LocalDateTime lastNight = today.minusDays(1).atTime(22, 0);
+
+		assertShift(NIGHT, lastNight, today.atStartOfDay());
+		assertShift(NIGHT, lastNight, today.atTime(3, 0));
+		assertShift(NIGHT, lastNight, today.atTime(5, 59, 59));
+
+		// the day shift starts as the night shift ends
+		assertShift(DAY, today.atTime(6, 0), today.atTime(6, 0));
+
+		// tonight's shift, ending tomorrow
+		assertShift(NIGHT, today.atTime(22, 0), today.plusDays(1).atTime(2, 0));
+	}
+
+	@Test
+	public void firstAndLastDaysOfHorizon() throws Exception {
+		LocalDate first = today.minusDays(2);
+		assertShift(NIGHT, first.minusDays(1).atTime(22, 0), first.atTime(1, 0));
+		assertShift(DAY, first.atTime(6, 0), first.atTime(7, 0));
+
+		LocalDate last = today.plusDays(6);
+		assertShift(NIGHT, last.atTime(22, 0), last.atTime(23, 0));
+	}
+
+	@Test
+	public void outsideHorizonAsksSchedule() throws Exception {
+		LocalDate past = today.minusDays(10);
+		assertShift(DAY, past.atTime(6, 0), past.atTime(6, 0));
+		assertShift(NIGHT, past.minusDays(1).atTime(22, 0), past.atTime(5, 0));
+		assertNull(resolver.resolve(equipment, past.atTime(14, 0)));
+
+		LocalDate future = today.plusDays(20);
+		assertShift(NIGHT, future.atTime(22, 0), future.atTime(22, 30));
+	}
+
+	@Test
+	public void scheduleLoadedOncePerEquipment() throws Exception {
+		Equipment other = equipment(2L);
+
+		resolver.resolve(equipment, today.atTime(8, 0));
+		resolver.resolve(equipment, today.atTime(9, 0));
+		resolver.resolve(other, today.atTime(8, 0));
+
+		assertEquals(2, loads.get());
+	}
+
+	@Test
+	public void noScheduleNoShift() throws Exception {
+		assertNull(resolver.resolve(equipment(100L), today.atTime(8, 0)));
+	}
+
+	@Test
+	public void refreshReloadsChangedSchedules() throws Exception {
+		resolver.refresh();
+		resolver.resolve(equipment, today.atTime(8, 0));
+		assertEquals(1, loads.get());
+
+		// unchanged and within the time to live
+		resolver.refresh();
+		assertEquals(1, loads.get());
+
+		// a schedule added in the designer
+		version.incrementAndGet();
+		resolver.refresh();
+		assertEquals(2, loads.get());
+
+		// indexed by the refresh, not loaded again on use
+		assertShift(DAY, today.atTime(6, 0), today.atTime(8, 0));
+		assertEquals(2, loads.get());
+	}
+
+	private void assertShift(String name, LocalDateTime start, LocalDateTime time) throws Exception {
+		ShiftInstance shift = resolver.resolve(equipment, time);
+
+		assertEquals(name, shift.getShift().getName());
+		assertEquals(start, shift.getStartTime());
+	}
+
+	private static Equipment equipment(Long key) {
+		Equipment equipment = new Equipment(null, "EQ-" + key, "Equipment");
+		equipment.setKey(key);
+		return equipment;
+	}
+}